@@ -1,58 +1,115 @@
 /**
  * This class represents the Agent objects of the Mobile Agent Simulation
- * program. Each Agent represents an independent Thread, located on a single
- * node.  
+ * program. An Agent is located on a single node. It is not a thread of its
+ * own: the agent that walks around looking for the fire takes each step on
+ * the timing wheel, and the agents it clones simply sit on their node until
+ * the fire kills them. Dead agents are reused by AgentPopulation.
  *
  */
 
-import javafx.application.Platform;
-
 import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
-import java.util.concurrent.BlockingQueue;
 
-public class Agent implements Runnable {
+public class Agent {
 
     /* AgentID, this will be xlocation-ylocation-nodeCounter */
     public String agentID;
-    /* Agent blocking queue */
-    private BlockingQueue<String> agentBlockQueue;
     /* Linked list of points where the agent previously was */
-    private LinkedList<Point> previouslyVisited;
+    private final LinkedList<Point> previouslyVisited;
     /* Node on which the agent is located */
     private Node node;
     /* Boolean representing whether an agent is the first agent or not */
     private boolean firstAgent;
+    /* Simulated time (in ms) the agent waits before moving to a new node */
+    private static final long WALK_DELAY = 1000;
+    /* Random number generator used to pick the next node */
+    private final SimRandom random;
+    /* boolean indicating whether the agent is waiting for its next step */
+    private volatile boolean walking;
+    /* boolean indicating whether the agent was killed */
+    private boolean killed;
+    /* Number of nodes the agent walked on */
+    private int steps;
+    /* Incremented each time the agent is reused, to spot stale timers */
+    private int generation;
+    /* Timer of the next step, null if none */
+    private TimingWheel.Timeout pendingWalk;
 
     /**
      * Agent constructor
      *
-     * This constructor takes in an agent blocking queue, a linked list of
-     * points representing the nodes the agent has previously visited, an
-     * instand of the node the agent is currently on, and lastly a boolean
-     * indicating whether the agent is the first agent created or not. The
-     * constructor will set up all the passed in variables and will set up an
-     * agent ID.
+     * This constructor takes in the node the agent is created on and a
+     * boolean indicating whether the agent is the first agent created or
+     * not. Agents are created through AgentPopulation, which keeps count of
+     * them.
      *
-     * @param agentBlockQueue blocking queue of the agent. Stores message
-     *                        instructions.
-     * @param previouslyVisited Linked list of previous nodes that the agent
-     *                          visited.
      * @param node Node instance of the current location of the agent.
      * @param firstAgent Boolean indicating if the current agent is the first
      *                  agent created.
      */
-    public Agent(BlockingQueue<String> agentBlockQueue,
-                 LinkedList<Point> previouslyVisited,
-                 Node node, boolean firstAgent) {
+    Agent(Node node, boolean firstAgent) {
+        this.previouslyVisited = new LinkedList<>();
+        this.random = new SimRandom(0);
+        reset(node, firstAgent);
+    }
+
+    /**
+     * Agent constructor
+     *
+     * This constructor is used to restore an agent from a checkpoint. It
+     * does not touch the agent counter of the node, the ID is the one the
+     * agent had when the checkpoint was taken.
+     *
+     * @param agentID ID of the agent.
+     * @param previouslyVisited Linked list of previous nodes that the agent
+     *                          visited.
+     * @param node Node instance of the current location of the agent.
+     * @param firstAgent Boolean indicating if the agent is the first agent
+     *                   created.
+     * @param random random number generator of the agent.
+     */
+    private Agent(String agentID, LinkedList<Point> previouslyVisited,
+                  Node node, boolean firstAgent, SimRandom random) {
+        this.previouslyVisited = previouslyVisited;
+        this.node = node;
+        this.agentID = agentID;
+        this.firstAgent = firstAgent;
+        this.random = random;
+        this.node.setAgentOnNodeBoolean(true);
+        node.setAgent(this);
+        node.getAgentPopulation().adopt();
+        node.getMetrics().getSimulation().agentCreated();
+        if (node.getTraceRecorder() != null) {
+            node.getTraceRecorder().agentOn(node);
+        }
+    }
 
-        /* Blocking queue of the agent thread */
-        this.agentBlockQueue = agentBlockQueue;
+    /**
+     * reset method
+     *
+     * Set the agent up on a node as a brand new agent, with a new ID. This
+     * is also how a dead agent is reused.
+     *
+     * @param node Node instance of the current location of the agent.
+     * @param firstAgent Boolean indicating if the agent is the first agent
+     *                   created.
+     */
+    synchronized void reset(Node node, boolean firstAgent) {
+        /* Timers of the previous life of the agent are stale */
+        generation++;
+        pendingWalk = null;
+        walking = false;
+        killed = false;
+        steps = 0;
         /* Linked list of nodes to check if a node was previously visited by
         the agent
          */
-        this.previouslyVisited = previouslyVisited;
+        previouslyVisited.clear();
         /* Reference to the current node on which the agent currently is */
         this.node = node;
         /* Update the current node agent counter for ID purposes */
@@ -63,6 +120,8 @@ public class Agent implements Runnable {
                         node.getAgentCounter();
         /* Boolean indicating if this agent is the first agent or not */
         this.firstAgent = firstAgent;
+        /* Every agent draws from its own generator, seeded by the node */
+        random.setState(node.getRandom().nextLong());
         /* Set the agent variable on the node to be true */
         this.node.setAgentOnNodeBoolean(true);
         /*
@@ -72,21 +131,73 @@ public class Agent implements Runnable {
         previouslyVisited.add(node.getNodeLocation());
         /* Set up the agent for the node */
         node.setAgent(this);
+        /* One more agent alive */
+        node.getMetrics().getSimulation().agentCreated();
+        SimulationEvents.agentAction(agentID, "created", node);
+        if (node.getTraceRecorder() != null) {
+            node.getTraceRecorder().agentOn(node);
+        }
     }
 
     /**
-     * addToBlockingQueue method
+     * isWalking method
+     * @return true if the agent is waiting for its next step.
+     */
+    public boolean isWalking() {
+        return walking;
+    }
+
+    /**
+     * steps getter
+     * @return the number of nodes the agent walked on.
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * node getter
+     * @return the node the agent is currently on.
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * start method
      * <p>
-     * Simple method that adds a String (here a message) to the blocking
-     * queue of our specific agent.
+     * Start the random walk of the first agent: its first step is taken on
+     * the next tick of the timing wheel.
+     */
+    public void start() {
+        if (firstAgent) {
+            scheduleWalk(0);
+        }
+    }
+
+    /**
+     * kill method
+     * <p>
+     * Kill the agent, typically because its node caught on fire: its next
+     * step is cancelled, the base station may be told how far it walked and
+     * the agent leaves the population. Nothing may use the agent afterwards.
      *
-     * @param message String representing the message to be passed in.
      * @throws InterruptedException exception handling for message passing.
      */
-    public void addToBlockingQueue(String message) throws InterruptedException {
-        if (!agentBlockQueue.contains(message)) {
-            agentBlockQueue.put(message);
+    public synchronized void kill() throws InterruptedException {
+        if (killed) {
+            return;
+        }
+        killed = true;
+        if (pendingWalk != null) {
+            pendingWalk.cancel();
+            pendingWalk = null;
         }
+        walking = false;
+        SimulationEvents.agentAction(agentID, "killed", node);
+        reportSummary();
+        node.getMetrics().getSimulation().agentDied();
+        node.getAgentPopulation().release(this);
     }
 
     /**
@@ -97,38 +208,331 @@ public class Agent implements Runnable {
      * variables of the node the agent is currently on, move to the specified
      * node and update its agent related information. Note that the agent is
      * ONLY updating information of the node it is currently on. It does not
-     * update information of adjacent nodes.
+     * update information of adjacent nodes. The agent only moves if it can
+     * take the agent slot of the node: there is no other agent on it.
      *
      * @param n Node to where the agent is required to move.
-     * @throws InterruptedException Exception handling for the GUI calls.
+     * @return true if the agent moved.
+     */
+    private boolean randomWalk(Node n) {
+        /* if our node is not in previously visited and has no agent */
+        return !previouslyVisited.contains(n.getNodeLocation()) && moveTo(n);
+    }
+
+    /**
+     * moveTo method
+     * <p>
+     * Move the agent to an adjacent node, if it can take the agent slot of
+     * the node.
      *
+     * @param n Node to where the agent is required to move.
+     * @return true if the agent moved.
      */
-    private void randomWalk(Node n) throws InterruptedException {
-        /* if our node is not in previously visited */
-        if (!previouslyVisited.contains(n.getNodeLocation())) {
+    private boolean moveTo(Node n) {
+        if (n.placeAgent()) {
             /* Reset the current node's agent info */
             node.setAgentOnNodeBoolean(false);
             node.setAgent(null);
+            if (node.getTraceRecorder() != null) {
+                node.getTraceRecorder().agentMoved(node, n);
+            }
             /* set the current node to the new node */
             this.node = n;
             /* Update the new node's agent info */
-            node.setAgentOnNodeBoolean(true);
             node.setAgent(this);
+            SimulationEvents.agentAction(agentID, "moved", node);
             /* Update the GUI */
-            Platform.runLater(() -> {
-                try {
-                    node.GUI.drawCircleOnCanvas();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            });
+            node.updateGUI();
             /* add the new node's location to previously visited */
             previouslyVisited.add(n.getNodeLocation());
-            /* Wait one second before moving to new node */
-            Thread.sleep(1000);
+            if (node.getDistanceField() != null) {
+                node.getDistanceField().cover(node);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * scheduleWalk method
+     * <p>
+     * Register a timer on the shared timing wheel that will wake the agent
+     * up for its next step. The agent does not hold on to anything in
+     * between, it only exists as an object on its node.
+     */
+    private void scheduleWalk() {
+        scheduleWalk(WALK_DELAY);
+    }
+
+    /**
+     * scheduleWalk method
+     * <p>
+     * Register a timer that will wake the agent up for its next step after
+     * the given delay.
+     *
+     * @param delay delay in simulated milliseconds.
+     */
+    public synchronized void scheduleWalk(long delay) {
+        walking = true;
+        pendingWalk = node.getTimingWheel().schedule(
+                new WalkTick(this, generation), delay);
+    }
+
+    /**
+     * This class represents the timer task making an agent take its next
+     * step. It is a class of its own (rather than a lambda) so a checkpoint
+     * can find out which agent it wakes up.
+     */
+    static final class WalkTick implements Runnable {
+
+        /* Agent to wake up */
+        final Agent agent;
+        /* Generation of the agent the timer was registered for */
+        private final int generation;
+
+        /**
+         * WalkTick constructor
+         *
+         * @param agent Agent to wake up.
+         * @param generation generation of the agent.
+         */
+        WalkTick(Agent agent, int generation) {
+            this.agent = agent;
+            this.generation = generation;
+        }
+
+        /**
+         * run method
+         *
+         * Make the agent take its next step, on the wheel thread.
+         */
+        @Override
+        public void run() {
+            try {
+                agent.step(generation);
+            } catch (InterruptedException e) {
+                System.out.print("Agent ID: " + agent.agentID + " was " +
+                        "interrupted");
+            }
         }
     }
 
+    /**
+     * step method
+     * <p>
+     * Take the next step of the walk, unless the agent died (or was reused)
+     * since the step was scheduled.
+     *
+     * @param generation generation of the agent the step was scheduled for.
+     * @throws InterruptedException exception handling for message passing.
+     */
+    private synchronized void step(int generation)
+            throws InterruptedException {
+        if (killed || generation != this.generation) {
+            return;
+        }
+        pendingWalk = null;
+        walking = false;
+        walk();
+    }
+
+    /**
+     * walk method
+     * <p>
+     * This method makes the first agent take a single step of its random
+     * walk. While the agent has not reached a yellow node, it moves to a
+     * random adjacent node it has not visited yet and registers a timer for
+     * its next step. As soon as the agent has reached a yellow node, it will
+     * inform the base station and clone itself.
+     *
+     * @throws InterruptedException exception handling for message passing.
+     */
+    private void walk() throws InterruptedException {
+        /* While the agent has not reached a yellow node, keep walking! */
+        if (node.getState().equals("blue") || node.getState().equals("green")) {
+            /* Walk down the distances to the fire if the run keeps them */
+            if (node.getDistanceField() != null) {
+                gradientWalk(node.getDistanceField());
+                return;
+            }
+            boolean allVisited = true;
+            boolean occupied = false;
+            /* Grab a random node from the list of adjacent */
+            Collections.shuffle(node.getAdjacentPoint(), random);
+            /* Loop through all adjacent nodes */
+            for (Node n : node.getAdjacentPoint()) {
+                /*
+                 * Grab a node that has not been previously visited. This
+                 * avoids constantly going back and forth.
+                 */
+                if (!previouslyVisited.contains(n.getNodeLocation())) {
+                    /* The node lives in another partition, go there */
+                    if (n.isRemote()) {
+                        migrate(n);
+                        return;
+                    }
+                    /* Call randomWalk (move there), unless it has an agent */
+                    if (!randomWalk(n)) {
+                        occupied = true;
+                        continue;
+                    }
+                    allVisited = false;
+                    break;
+                }
+            }
+            /*
+             * If we have visited all adjacent nodes, clear the list, this
+             * makes sure we do not stay stuck on a node. Try again right
+             * away. If the nodes left have agents on them, wait for them to
+             * go instead.
+             */
+            if (allVisited && !occupied) {
+                previouslyVisited.clear();
+                if (!node.getAdjacentPoint().isEmpty()) {
+                    walk();
+                    return;
+                }
+            } else if (!allVisited) {
+                reportWalk();
+            }
+            /* Wait before moving to the next node */
+            scheduleWalk();
+        } else {
+            /*
+             * If the agent reaches a yellow node, inform the base station
+             * and call clone agent
+             */
+            node.getMetrics().getSimulation().fireDetected(
+                    node.getTimingWheel().currentTimeMillis());
+            node.send(Message.report(node.getNodeLocation(),
+                    EventCode.AGENT_REACHED_FIRE, agentID, 0, 3));
+            cloneAgent();
+        }
+    }
+
+    /**
+     * gradientWalk method
+     * <p>
+     * Take a single step down the distance field: move to the adjacent
+     * node closest to the fire, preferring a node no agent walked on yet
+     * among nodes at the same distance, and picking at random among the
+     * rest. Burning nodes are left out. Until the fire is known, every
+     * node is as far, so the agent goes where no agent went before. Since
+     * the agent heads for yellow nodes, it does not wait for its next step
+     * to find out it reached one (the node could burn by then).
+     *
+     * @param field distances to the fire.
+     * @throws InterruptedException exception handling for message passing.
+     */
+    private void gradientWalk(DistanceField field)
+            throws InterruptedException {
+        LinkedList<Node> candidates = new LinkedList<>();
+        for (Node n : node.getAdjacentPoint()) {
+            if (!n.getState().equals("red")) {
+                candidates.add(n);
+            }
+        }
+        /* Random order first, the sort keeps it between equal nodes */
+        Collections.shuffle(candidates, random);
+        candidates.sort(Comparator.comparingInt(field::distance)
+                .thenComparing(field::isCovered));
+        for (Node n : candidates) {
+            /* The node lives in another partition, go there */
+            if (n.isRemote()) {
+                migrate(n);
+                return;
+            }
+            /* The next best node may have an agent on it already */
+            if (moveTo(n)) {
+                reportWalk();
+                if (DistanceField.isFire(node)) {
+                    walk();
+                    return;
+                }
+                break;
+            }
+        }
+        /* Wait before moving to the next node */
+        scheduleWalk();
+    }
+
+    /**
+     * reportWalk method
+     * <p>
+     * Each time the agent walks on a node, send a message for the log at
+     * the base station, unless the telemetry level leaves this step out.
+     *
+     * @throws InterruptedException exception handling for message passing.
+     */
+    private void reportWalk() throws InterruptedException {
+        steps++;
+        if (!node.getTelemetry().reportWalk(steps)) {
+            return;
+        }
+        node.send(Message.report(node.getNodeLocation(),
+                EventCode.AGENT_WALKED, agentID, 0, 3));
+    }
+
+    /**
+     * reportSummary method
+     * <p>
+     * When the steps of the agent are not all reported, tell the base
+     * station how far the agent walked once it dies.
+     *
+     * @throws InterruptedException exception handling for message passing.
+     */
+    private void reportSummary() throws InterruptedException {
+        if (!node.getTelemetry().reportSummary() || steps == 0) {
+            return;
+        }
+        node.send(Message.report(node.getNodeLocation(),
+                EventCode.AGENT_SUMMARY, agentID, steps, 2));
+    }
+
+    /**
+     * migrate method
+     * <p>
+     * Move the agent to a node owned by another partition. The agent leaves
+     * its current node, its state is sent over the partition link and it
+     * leaves the population; the other partition carries on with a new
+     * agent.
+     *
+     * @param n Node (ghost copy) to where the agent is required to move.
+     */
+    private void migrate(Node n) {
+        node.setAgentOnNodeBoolean(false);
+        node.setAgent(null);
+        if (node.getTraceRecorder() != null) {
+            node.getTraceRecorder().agentOff(node);
+        }
+        node.updateGUI();
+        PartitionLink link = node.getPartitionLink();
+        this.node = n;
+        previouslyVisited.add(n.getNodeLocation());
+        walking = true;
+        SimulationEvents.agentAction(agentID, "migrated", n);
+        link.sendAgent(this);
+        killed = true;
+        walking = false;
+        node.getMetrics().getSimulation().agentDied();
+        node.getAgentPopulation().release(this);
+    }
+
+    /**
+     * arrived method
+     * <p>
+     * Called once an agent that migrated from another partition is set up
+     * on its new node: log the step and schedule the next one.
+     *
+     * @throws InterruptedException exception handling for message passing.
+     */
+    public synchronized void arrived() throws InterruptedException {
+        SimulationEvents.agentAction(agentID, "moved", node);
+        node.updateGUI();
+        reportWalk();
+        scheduleWalk();
+    }
+
     /**
      * cloneAgent method
      * <p>
@@ -139,98 +543,67 @@ public class Agent implements Runnable {
      * @throws InterruptedException exception handling for message passing.
      */
     private void cloneAgent() throws InterruptedException {
+        SimulationEvents.agentAction(agentID, "cloned", node);
         /* Add to the blocking queue of the current node a new message */
-        node.addToBlockingQueue(new Message(node.getNodeLocation(),
-                node.getNodeLocation(), new LinkedList<>(),
-                "clone_agent", 1));
-    }
-
-
-    /**
-     * run method
-     *
-     * This method will be called after each thread is started in Coordinator
-     * .java or Node.java. In this method, the thread will at first (if we are
-     * dealing
-     * with the first agent on the graph) call randomWalk to make the agent
-     * walk around the graph. As soon as the agent has reached a yellow node,
-     * it will clone itself
-     */
-    @Override
-    public void run() {
-        try {
-            while (true) {
-                /* If we are currently on our first agent */
-                if (this.firstAgent) {
-                    boolean allVisited = true;
-                    /* While the agent has not reached a yellow node, keep
-                    walking!
-                     */
-                    while (node.getState().equals("blue") ||
-                            node.getState().equals("green")) {
-                        /* Grab a random node from the list of adjacent */
-                        Collections.shuffle(node.getAdjacentPoint());
-                        allVisited = true;
-                        /* Loop through all adjacent nodes */
-                        for (Node n : node.getAdjacentPoint()) {
-                            /*
-                             * Grab a node that has not been previously
-                             * visited. This avoids constantly going back and
-                             *  forth.
-                             */
-                            if (!previouslyVisited.contains(n.getNodeLocation())) {
-                                /* Call randomWalk (move there) */
-                                randomWalk(n);
-                                allVisited = false;
-                                break;
-                            }
-                        }
-                        /*
-                         * If we have visited all adjacent nodes, clear the
-                         * list, this makes sure we do not stay stuck on a
-                         * node.
-                         */
-                        if (allVisited){
-                            previouslyVisited.clear();
-                        }else{
-                            /*
-                             * Each time the agent walks on a node, send a
-                             * message for the log at the base station
-                             */
-                            node.send(new Message(node.getNodeLocation(),
-                                    new Point(-1, -1), new LinkedList<>(),
-                                    "Agent: " + this.agentID +
-                                    " walked on node: (" + node.getNodeLocation().x
-                                    + ", " + node.getNodeLocation().y + ") "
-                                    , 3));
-                        }
-                    }
-                    /*
-                     * If the agent reaches a yellow node, inform the base
-                     * station and call clone agent
-                     */
-                    if (!allVisited) {
-                        node.send(new Message(node.getNodeLocation(), new Point(-1, -1)
-                                , new LinkedList<>(), "Agent: " + this.agentID +
-                                " reached a yellow node at: (" + node.getNodeLocation().x
-                                + ", " + node.getNodeLocation().y + ") "
-                                , 3));
-                        cloneAgent();
-                    }
-                }
-                /*
-                 * Grab element from the blocking queue - process it,
-                 * otherwise wait. Note that we are not doing any busy waiting.
-                 */
-                String message = agentBlockQueue.take();
-                /* If we find a message to kill the agent, set exit = true */
-                if (message.equals("kill_yourself")) {
-                    break;
-                }
-            }
-        } catch (InterruptedException e) {
-            System.out.print("Agent Thread ID: " + this.agentID + " was " +
-                    "interrupted");
+        node.addToBlockingQueue(Message.instruction(node.getNodeLocation(),
+                node.getNodeLocation(), EventCode.CLONE_AGENT, 1));
+    }
+
+
+    /**
+     * writeCheckpoint method
+     *
+     * Write the state of the agent to a checkpoint: its ID, the node it is
+     * on, the nodes it visited, its random number generator, whether it
+     * is waiting for its next step and how many steps it took. The timer of
+     * the next step is not written here, the checkpoint writes how long it
+     * still has to wait. This must only be called while the simulation is
+     * paused (or, for a migrating agent, by the thread stepping it).
+     *
+     * @param out where to write the checkpoint.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeUTF(agentID);
+        VarInts.writeUnsigned(out, node.getNodeId());
+        out.writeBoolean(firstAgent);
+        out.writeLong(random.getState());
+        VarInts.writeUnsigned(out, previouslyVisited.size());
+        for (Point p : previouslyVisited) {
+            Message.writePoint(out, p);
+        }
+        out.writeBoolean(walking);
+        VarInts.writeUnsigned(out, steps);
+    }
+
+    /**
+     * readCheckpoint method
+     *
+     * Restore an agent from a checkpoint written by writeCheckpoint. The
+     * agent is put back on its node and counted in its population; its next
+     * step, if it is walking, still has to be scheduled.
+     *
+     * @param in where to read the checkpoint from.
+     * @param nodes every node of the graph, indexed by node ID.
+     * @return the restored agent.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    public static Agent readCheckpoint(DataInput in, Node[] nodes)
+            throws IOException {
+        String agentID = in.readUTF();
+        Node node = nodes[(int) VarInts.readUnsigned(in)];
+        boolean firstAgent = in.readBoolean();
+        SimRandom random = new SimRandom(0);
+        random.setState(in.readLong());
+        int visited = (int) VarInts.readUnsigned(in);
+        LinkedList<Point> previouslyVisited = new LinkedList<>();
+        for (int i = 0; i < visited; i++) {
+            previouslyVisited.add(Message.readPoint(in));
         }
+        Agent agent = new Agent(agentID, previouslyVisited, node, firstAgent,
+                random);
+        agent.walking = in.readBoolean();
+        agent.steps = (int) VarInts.readUnsigned(in);
+        return agent;
     }
 }
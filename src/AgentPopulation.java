@@ -0,0 +1,156 @@
+/**
+ * This class keeps track of the agents alive in the simulation (or in this
+ * partition of it). Agents are not threads: an agent is a small object
+ * sitting on its node, stepped by the timing wheel while it walks, so what
+ * the simulation costs follows the agents alive rather than every agent
+ * ever created.
+ *
+ * The population can be capped (--max-agents): once the cap is reached, no
+ * new agent is created until one dies. The agents that died are kept for
+ * reuse by the next agents created, up to MAX_FREE of them.
+ *
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AgentPopulation {
+
+    /* Cap meaning the population is not capped */
+    public static final int UNLIMITED = 0;
+    /* Maximum number of dead agents kept for reuse */
+    private static final int MAX_FREE = 64;
+
+    /* Maximum number of agents alive at once, UNLIMITED for no cap */
+    private final int maxAgents;
+    /* Number of agents alive */
+    private final AtomicInteger live;
+    /* Highest number of agents alive at once */
+    private final AtomicInteger peak;
+    /* Number of agents created (restored and migrated ones aside) */
+    private final LongAdder created;
+    /* Number of agents not created because of the cap */
+    private final LongAdder refused;
+    /* Dead agents to reuse, guarded by itself */
+    private final ArrayDeque<Agent> free;
+
+    /**
+     * AgentPopulation constructor
+     *
+     * @param maxAgents maximum number of agents alive at once, UNLIMITED
+     *                  for no cap.
+     */
+    public AgentPopulation(int maxAgents) {
+        if (maxAgents < 0) {
+            throw new IllegalArgumentException("The maximum number of " +
+                    "agents cannot be negative");
+        }
+        this.maxAgents = maxAgents;
+        live = new AtomicInteger();
+        peak = new AtomicInteger();
+        created = new LongAdder();
+        refused = new LongAdder();
+        free = new ArrayDeque<>();
+    }
+
+    /**
+     * create method
+     *
+     * Create an agent on a node, reusing a dead agent if there is one. The
+     * node must not have an agent already.
+     *
+     * @param node Node to create the agent on.
+     * @param firstAgent boolean indicating whether the agent walks around
+     *                   looking for the fire.
+     * @return the new agent, null if the population is at its cap.
+     */
+    public Agent create(Node node, boolean firstAgent) {
+        int alive;
+        do {
+            alive = live.get();
+            if (maxAgents != UNLIMITED && alive >= maxAgents) {
+                refused.increment();
+                return null;
+            }
+        } while (!live.compareAndSet(alive, alive + 1));
+        peak.accumulateAndGet(alive + 1, Math::max);
+        created.increment();
+        Agent agent;
+        synchronized (free) {
+            agent = free.pollFirst();
+        }
+        if (agent == null) {
+            return new Agent(node, firstAgent);
+        }
+        agent.reset(node, firstAgent);
+        return agent;
+    }
+
+    /**
+     * adopt method
+     *
+     * Count an agent that was not created here: restored from a checkpoint
+     * or migrated from another partition. Such agents already exist, the
+     * cap does not apply to them.
+     */
+    public void adopt() {
+        peak.accumulateAndGet(live.incrementAndGet(), Math::max);
+    }
+
+    /**
+     * release method
+     *
+     * Count an agent out, it died or moved to another partition. Nothing
+     * may use the agent afterwards, it may be reused by create.
+     *
+     * @param agent Agent leaving the population.
+     */
+    public void release(Agent agent) {
+        live.decrementAndGet();
+        synchronized (free) {
+            if (free.size() < MAX_FREE) {
+                free.addFirst(agent);
+            }
+        }
+    }
+
+    /**
+     * liveAgents getter
+     * @return number of agents alive.
+     */
+    public int getLiveAgents() {
+        return live.get();
+    }
+
+    /**
+     * peakAgents getter
+     * @return highest number of agents alive at once.
+     */
+    public int getPeakAgents() {
+        return peak.get();
+    }
+
+    /**
+     * createdAgents getter
+     * @return number of agents created.
+     */
+    public long getCreatedAgents() {
+        return created.sum();
+    }
+
+    /**
+     * refusedAgents getter
+     * @return number of agents not created because of the cap.
+     */
+    public long getRefusedAgents() {
+        return refused.sum();
+    }
+
+    @Override
+    public String toString() {
+        return created.sum() + " created, at most " + peak.get() +
+                " alive at once" + (maxAgents == UNLIMITED ? ""
+                : " (cap " + maxAgents + ", " + refused.sum() + " refused)");
+    }
+}
@@ -0,0 +1,535 @@
+/**
+ * This class runs the end-to-end benchmark of the simulation: every
+ * scenario of the Resources directory plus generated square grids of
+ * growing size, each under every execution backend (one process with a
+ * thread per node, or the graph split across 2, 4... processes). Each run
+ * is a headless simulation in its own JVM, with the same seed, which writes
+ * its measures with --bench-report:
+ * - the wall time of the run,
+ * - the messages sent and passed on by the nodes per second of wall time,
+ * - the highest number of messages seen waiting in a mailbox,
+ * - the peak heap and peak number of threads of the JVM,
+ * - the median and 99th percentile of the time between a node catching
+ *   fire and its report entering the station log.
+ *
+ * A partitioned run writes one report per partition; its wall time and
+ * peaks are those of the slowest or biggest partition, its messages are
+ * added up and, since percentiles cannot be merged, its latencies are those
+ * of the worst partition. Heap and threads are added up over the processes.
+ *
+ * The results are written to results.csv and results.json in the output
+ * directory. Given a baseline (the results.csv of an earlier run), every
+ * measure is compared to it and the ones worse by more than the tolerance
+ * are reported as regressions, in which case the program exits with status
+ * 1. Small absolute changes (a few ms, a few messages) are never reported,
+ * so runs on a quiet graph do not flag noise, and neither are latencies
+ * moving up by a single bucket of their histogram (a sixteenth at most).
+ *
+ * Usage: java BenchmarkSuite [--scenarios=Resources] [--grids=50,100]
+ *        [--backends=1,2] [--speed=50] [--seed=1] [--out=bench]
+ *        [--baseline=file.csv] [--tolerance=0.2] [--timeout=600]
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+public class BenchmarkSuite {
+
+    /**
+     * This enum represents a measure of a run and how to compare it to the
+     * baseline.
+     */
+    private enum Measure {
+        WALL_MS("wall_ms", false, 200, 0),
+        MESSAGES_PER_S("messages_per_s", true, 100, 0),
+        PEAK_MAILBOX("peak_mailbox", false, 16, 0),
+        PEAK_HEAP_MB("peak_heap_mb", false, 16, 0),
+        PEAK_THREADS("peak_threads", false, 8, 0),
+        /* Percentiles are bucket bounds, one bucket up adds a sixteenth */
+        FIRE_LATENCY_P50_MS("fire_latency_p50_ms", false, 20,
+                LatencyHistogram.RESOLUTION),
+        FIRE_LATENCY_P99_MS("fire_latency_p99_ms", false, 50,
+                LatencyHistogram.RESOLUTION);
+
+        /* Name of the measure in the reports and results */
+        final String key;
+        /* boolean indicating whether a higher value is better */
+        final boolean higherIsBetter;
+        /* Smallest change reported as a regression, whatever the ratio */
+        final double minChange;
+        /* Smallest ratio of change the measure can show */
+        final double resolution;
+
+        Measure(String key, boolean higherIsBetter, double minChange,
+                double resolution) {
+            this.key = key;
+            this.higherIsBetter = higherIsBetter;
+            this.minChange = minChange;
+            this.resolution = resolution;
+        }
+    }
+
+    /**
+     * This class represents the measures of one scenario under one backend.
+     */
+    private static final class Result {
+        /* Input file of the scenario */
+        final String scenario;
+        /* Number of processes the graph was split across */
+        final int processes;
+        /* Number of nodes of the graph */
+        long nodes;
+        /* Value of each measure, empty if the run failed */
+        final Map<Measure, Double> values = new LinkedHashMap<>();
+
+        Result(String scenario, int processes) {
+            this.scenario = scenario;
+            this.processes = processes;
+        }
+
+        /* Key of the result when compared to the baseline */
+        String key() {
+            return scenario + "/" + processes;
+        }
+    }
+
+    /* Settings of the benchmark, see the usage above */
+    private final File scenarios;
+    private final int[] grids;
+    private final int[] backends;
+    private final double speed;
+    private final long seed;
+    private final File out;
+    private final String baseline;
+    private final double tolerance;
+    private final long timeoutSeconds;
+    /* Directory the generated grids are written to */
+    private final File generated;
+
+    /**
+     * BenchmarkSuite constructor
+     *
+     * @param options settings given on the command line, by name.
+     * @throws IOException if the output directories cannot be created.
+     */
+    private BenchmarkSuite(Map<String, String> options) throws IOException {
+        scenarios = new File(options.getOrDefault("scenarios", "Resources"));
+        grids = parseInts(options.getOrDefault("grids", "50,100"));
+        backends = parseInts(options.getOrDefault("backends", "1,2"));
+        speed = Double.parseDouble(options.getOrDefault("speed", "50"));
+        seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        out = new File(options.getOrDefault("out", "bench"));
+        baseline = options.get("baseline");
+        tolerance = Double.parseDouble(options.getOrDefault("tolerance",
+                "0.2"));
+        timeoutSeconds = Long.parseLong(options.getOrDefault("timeout",
+                "600"));
+        generated = new File(out, "graphs");
+        if (!new File(out, "logs").isDirectory()
+                && !new File(out, "logs").mkdirs()) {
+            throw new IOException("Cannot create " + out);
+        }
+        if (!generated.isDirectory() && !generated.mkdirs()) {
+            throw new IOException("Cannot create " + generated);
+        }
+    }
+
+    /**
+     * main
+     *
+     * Run the benchmark, write the results and compare them to the
+     * baseline if one is given.
+     *
+     * @param args command line args, see the usage above.
+     */
+    public static void main(String[] args) throws IOException,
+            InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+                options.put(arg.substring(2, arg.indexOf('=')),
+                        arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        System.exit(new BenchmarkSuite(options).run());
+    }
+
+    /* Comma separated list of integers */
+    private static int[] parseInts(String list) {
+        if (list.isEmpty()) {
+            return new int[0];
+        }
+        return Arrays.stream(list.split(",")).map(String::trim)
+                .mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * run method
+     *
+     * @return the exit status: 0, or 1 if a run failed or a measure
+     * regressed.
+     */
+    private int run() throws IOException, InterruptedException {
+        List<String> inputs = new ArrayList<>();
+        File[] files = scenarios.listFiles((dir, name) ->
+                name.endsWith(".txt"));
+        if (files == null) {
+            System.err.println("No scenario directory " + scenarios);
+        } else {
+            Arrays.sort(files);
+            for (File file : files) {
+                inputs.add(file.getName());
+            }
+        }
+        for (int size : grids) {
+            inputs.add(writeGrid(size));
+        }
+        List<Result> results = new ArrayList<>();
+        boolean failed = false;
+        for (String input : inputs) {
+            for (int processes : backends) {
+                Result result = runScenario(input, processes, results.size());
+                System.out.println(format(result));
+                failed |= result.values.isEmpty();
+                results.add(result);
+            }
+        }
+        writeCsv(results, new File(out, "results.csv"));
+        writeJson(results, new File(out, "results.json"));
+        System.out.println("Results written to " + new File(out,
+                "results.csv") + " and " + new File(out, "results.json"));
+        if (baseline != null) {
+            failed |= compare(results, readCsv(new File(baseline)));
+        }
+        return failed ? 1 : 0;
+    }
+
+    /**
+     * writeGrid method
+     *
+     * Generate a square grid of size x size nodes, each linked to its four
+     * neighbors, with the station in a corner and the fire in the middle.
+     *
+     * @param size number of nodes on a side.
+     * @return name of the input file of the grid.
+     * @throws IOException if the file cannot be written.
+     */
+    private String writeGrid(int size) throws IOException {
+        String name = "grid" + size + ".txt";
+        try (PrintWriter writer = new PrintWriter(new File(generated, name))) {
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    writer.println("node " + x + " " + y);
+                }
+            }
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    if (x + 1 < size) {
+                        writer.println("edge " + x + " " + y + " " + (x + 1)
+                                + " " + y);
+                    }
+                    if (y + 1 < size) {
+                        writer.println("edge " + x + " " + y + " " + x + " "
+                                + (y + 1));
+                    }
+                }
+            }
+            writer.println("station 0 0");
+            writer.println("fire " + size / 2 + " " + size / 2);
+        }
+        return name;
+    }
+
+    /**
+     * runScenario method
+     *
+     * Run a scenario headless in a new JVM and read the measures it wrote.
+     * The scenarios and generated grids are put on its classpath, where the
+     * input file is looked up.
+     *
+     * @param input input file of the scenario.
+     * @param processes number of processes to split the graph across.
+     * @param index number of the run, to give each run its own ports.
+     * @return the measures of the run, none if it failed.
+     */
+    private Result runScenario(String input, int processes, int index)
+            throws IOException, InterruptedException {
+        Result result = new Result(input, processes);
+        String name = input.replace(".txt", "") + "-" + processes;
+        File report = new File(out, "logs" + File.separator + name +
+                ".properties");
+        String java = System.getProperty("java.home") + File.separator +
+                "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path") +
+                File.pathSeparator + scenarios.getAbsolutePath() +
+                File.pathSeparator + generated.getAbsolutePath();
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-cp",
+                classpath, Headless.class.getName(), "--headless",
+                "--input=" + input, "--speed=" + speed, "--seed=" + seed,
+                "--partitions=" + processes,
+                "--port=" + (47000 + index % 100 * 16),
+                "--bench-report=" + report.getPath()));
+        List<File> reports = new ArrayList<>();
+        if (processes > 1) {
+            for (int p = 0; p < processes; p++) {
+                reports.add(new File(report.getPath() + ".p" + p));
+            }
+        } else {
+            reports.add(report);
+        }
+        for (File file : reports) {
+            Files.deleteIfExists(file.toPath());
+        }
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(out, "logs" + File.separator + name
+                        + ".log"))
+                .start();
+        if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            System.err.println(name + " did not finish in " + timeoutSeconds
+                    + " s");
+            return result;
+        }
+        for (File file : reports) {
+            if (!file.isFile()) {
+                System.err.println(name + " wrote no measures, see its log");
+                result.values.clear();
+                return result;
+            }
+            Properties measures = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                measures.load(in);
+            }
+            merge(result, measures);
+            Files.delete(file.toPath());
+        }
+        /* Messages per second of the whole run, not of the partitions */
+        double wall = result.values.get(Measure.WALL_MS);
+        result.values.put(Measure.MESSAGES_PER_S, wall == 0 ? 0
+                : Math.floor(result.values.get(Measure.MESSAGES_PER_S)
+                * 1000 / wall));
+        return result;
+    }
+
+    /**
+     * merge method
+     *
+     * Add the measures of one process to the result of the run. While
+     * merging, MESSAGES_PER_S holds the number of messages.
+     *
+     * @param result result of the run.
+     * @param measures measures written by one process.
+     */
+    private static void merge(Result result, Properties measures) {
+        result.nodes += Long.parseLong(measures.getProperty("nodes"));
+        for (Measure measure : Measure.values()) {
+            double value = Double.parseDouble(measures.getProperty(
+                    measure == Measure.MESSAGES_PER_S ? "messages"
+                            : measure.key));
+            Double previous = result.values.get(measure);
+            if (previous != null) {
+                switch (measure) {
+                    case MESSAGES_PER_S:
+                    case PEAK_HEAP_MB:
+                    case PEAK_THREADS:
+                        value += previous;
+                        break;
+                    default:
+                        value = Math.max(value, previous);
+                        break;
+                }
+            }
+            result.values.put(measure, value);
+        }
+    }
+
+    /* A measure as text, without decimals if it is a whole number */
+    private static String text(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value)
+                : String.valueOf(value);
+    }
+
+    /* One line describing a result */
+    private static String format(Result result) {
+        if (result.values.isEmpty()) {
+            return result.key() + ": FAILED";
+        }
+        StringBuilder line = new StringBuilder(result.key() + ": " +
+                result.nodes + " nodes");
+        for (Map.Entry<Measure, Double> value : result.values.entrySet()) {
+            line.append(", ").append(value.getKey().key).append('=')
+                    .append(text(value.getValue()));
+        }
+        return line.toString();
+    }
+
+    /**
+     * writeCsv method
+     *
+     * Write the results as CSV, a header line then one line per run. A
+     * failed run has empty measures.
+     *
+     * @param results measures of every run.
+     * @param file file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeCsv(List<Result> results, File file)
+            throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            StringBuilder line = new StringBuilder("scenario,processes,nodes");
+            for (Measure measure : Measure.values()) {
+                line.append(',').append(measure.key);
+            }
+            writer.println(line);
+            for (Result result : results) {
+                line.setLength(0);
+                line.append(result.scenario).append(',')
+                        .append(result.processes).append(',')
+                        .append(result.nodes);
+                for (Measure measure : Measure.values()) {
+                    Double value = result.values.get(measure);
+                    line.append(',').append(value == null ? "" : text(value));
+                }
+                writer.println(line);
+            }
+        }
+    }
+
+    /**
+     * writeJson method
+     *
+     * Write the results as a JSON array, one object per run. A failed run
+     * has no measures.
+     *
+     * @param results measures of every run.
+     * @param file file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeJson(List<Result> results, File file)
+            throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                StringBuilder line = new StringBuilder("  {\"scenario\":\"")
+                        .append(result.scenario).append("\",\"processes\":")
+                        .append(result.processes).append(",\"nodes\":")
+                        .append(result.nodes);
+                for (Map.Entry<Measure, Double> value
+                        : result.values.entrySet()) {
+                    line.append(",\"").append(value.getKey().key)
+                            .append("\":").append(text(value.getValue()));
+                }
+                line.append(i + 1 < results.size() ? "}," : "}");
+                writer.println(line);
+            }
+            writer.println("]");
+        }
+    }
+
+    /**
+     * readCsv method
+     *
+     * Read the results written by writeCsv.
+     *
+     * @param file file to read.
+     * @return the measures of every run, by key (see Result).
+     * @throws IOException if the file cannot be read.
+     */
+    private static Map<String, Result> readCsv(File file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String[] header = reader.readLine().split(",");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", -1);
+                Result result = new Result(fields[0],
+                        Integer.parseInt(fields[1]));
+                result.nodes = Long.parseLong(fields[2]);
+                for (int i = 3; i < header.length; i++) {
+                    for (Measure measure : Measure.values()) {
+                        if (measure.key.equals(header[i])
+                                && !fields[i].isEmpty()) {
+                            result.values.put(measure,
+                                    Double.parseDouble(fields[i]));
+                        }
+                    }
+                }
+                results.put(result.key(), result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * compare method
+     *
+     * Print how every measure changed since the baseline and write the
+     * comparison to report.txt in the output directory.
+     *
+     * @param results measures of every run.
+     * @param baseline measures of the baseline runs, by key.
+     * @return true if a measure regressed by more than the tolerance.
+     * @throws IOException if the report cannot be written.
+     */
+    private boolean compare(List<Result> results, Map<String, Result> baseline)
+            throws IOException {
+        int regressions = 0;
+        try (PrintWriter writer = new PrintWriter(new File(out,
+                "report.txt"))) {
+            String title = String.format("%-28s %-20s %12s %12s %8s",
+                    "run", "measure", "baseline", "now", "change");
+            System.out.println(title);
+            writer.println(title);
+            for (Result result : results) {
+                Result before = baseline.get(result.key());
+                if (before == null || result.values.isEmpty()) {
+                    continue;
+                }
+                for (Measure measure : Measure.values()) {
+                    Double then = before.values.get(measure);
+                    Double now = result.values.get(measure);
+                    if (then == null || now == null) {
+                        continue;
+                    }
+                    double worse = measure.higherIsBetter ? then - now
+                            : now - then;
+                    boolean regressed = worse >= measure.minChange
+                            && worse > Math.abs(then)
+                            * Math.max(tolerance, measure.resolution);
+                    String line = String.format("%-28s %-20s %12.2f %12.2f " +
+                                    "%+7.1f%%%s", result.key(), measure.key,
+                            then, now, then == 0 ? 0 : (now - then) * 100
+                                    / Math.abs(then),
+                            regressed ? "  REGRESSION" : "");
+                    if (regressed) {
+                        regressions++;
+                    }
+                    System.out.println(line);
+                    writer.println(line);
+                }
+            }
+            String summary = regressions + " regression(s) beyond " +
+                    tolerance * 100 + "% against " + this.baseline;
+            System.out.println(summary);
+            writer.println(summary);
+        }
+        return regressions > 0;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * This class saves the state of a running simulation to a file and restores
+ * a simulation from such a file. A checkpoint holds the simulated time, the
+ * state of every node (with the messages in its blocking queue, the reports
+ * it holds and its random number generator), every live agent and every
+ * pending ignition timer, so a restored run carries on where the checkpoint
+ * was taken.
+ *
+ * The simulation is paused while the checkpoint is taken. Pausing stops
+ * every unit of work at a boundary, but a node thread may have just taken a
+ * message from its queue without having registered it yet. The counts are
+ * then checked against the termination detector: every message, burning
+ * node and ignition timer holds exactly one unit of outstanding work. If
+ * they do not add up the pause is released and tried again a little later.
+ *
+ * The file starts with a small uncompressed header (magic number, version,
+ * number of nodes and simulated time), followed by the Deflate compressed
+ * body.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public final class Checkpoint {
+
+    /* Magic number at the start of every checkpoint: "FSCK" */
+    private static final int MAGIC = 0x4653434B;
+    /* Version of the checkpoint format */
+    private static final int VERSION = 6;
+    /* Number of attempts at finding a consistent point before giving up */
+    private static final int ATTEMPTS = 1000;
+
+    /**
+     * Checkpoint constructor
+     *
+     * This class only holds static helpers.
+     */
+    private Checkpoint() {
+    }
+
+    /**
+     * take method
+     *
+     * Pause the simulation at a consistent point, write its state to the
+     * given file and let it carry on. The state is serialized in memory
+     * while the simulation is paused and written to disk once it runs
+     * again.
+     *
+     * @param file name of the checkpoint file.
+     * @param nodes every node of the graph, indexed by node ID.
+     * @param wheel timing wheel of the simulation.
+     * @param gate gate used to pause the simulation.
+     * @param detector termination detector of the simulation.
+     * @return false if the run ended before a checkpoint could be taken.
+     * @throws IOException if the checkpoint cannot be written.
+     * @throws InterruptedException if interrupted while pausing.
+     */
+    public static boolean take(String file, Node[] nodes, TimingWheel wheel,
+                               PauseGate gate, TerminationDetector detector)
+            throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            if (detector.isFinished()) {
+                return false;
+            }
+            byte[] body = null;
+            gate.pause();
+            try {
+                body = serialize(nodes, wheel, detector);
+            } finally {
+                gate.resume();
+            }
+            if (body != null) {
+                try (OutputStream out = new FileOutputStream(file)) {
+                    out.write(body);
+                }
+                return true;
+            }
+            /* A thread was caught between two units of work, try again */
+            Thread.sleep(1);
+        }
+        return false;
+    }
+
+    /**
+     * serialize method
+     *
+     * Write the state of the paused simulation in memory.
+     *
+     * @param nodes every node of the graph, indexed by node ID.
+     * @param wheel timing wheel of the simulation.
+     * @param detector termination detector of the simulation.
+     * @return the checkpoint, null if the simulation is not at a consistent
+     * point.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    private static byte[] serialize(Node[] nodes, TimingWheel wheel,
+                                    TerminationDetector detector)
+            throws IOException {
+        /* Find the pending timers worth saving */
+        List<Node.Ignition> ignitions = new ArrayList<>();
+        List<Long> ignitionDelays = new ArrayList<>();
+        Map<Agent, Long> walkDelays = new HashMap<>();
+        wheel.forEachPending(timeout -> {
+            Runnable task = timeout.getTask();
+            if (task instanceof Node.Ignition) {
+                ignitions.add((Node.Ignition) task);
+                ignitionDelays.add(timeout.getRemainingMillis());
+            } else if (task instanceof Agent.WalkTick) {
+                walkDelays.put(((Agent.WalkTick) task).agent,
+                        timeout.getRemainingMillis());
+            }
+        });
+        /* Check every unit of outstanding work is accounted for */
+        long work = ignitions.size();
+        List<Agent> agents = new ArrayList<>();
+        for (Node n : nodes) {
+            work += n.getPendingMessages();
+            if (n.needsToSpread()) {
+                work++;
+            }
+            /* A report timer holds the unit of its node's held reports */
+            if (n.hasPendingReports()) {
+                work++;
+            }
+            if (n.getAgentOnNodeBoolean() && n.getAgent() != null) {
+                agents.add(n.getAgent());
+            }
+        }
+        if (work != detector.getOutstandingWork()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        VarInts.writeUnsigned(header, nodes.length);
+        VarInts.writeUnsigned(header, wheel.currentTimeMillis());
+        header.flush();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        DataOutputStream out = new DataOutputStream(deflater);
+        for (Node n : nodes) {
+            n.writeCheckpoint(out);
+        }
+        VarInts.writeUnsigned(out, agents.size());
+        for (Agent agent : agents) {
+            agent.writeCheckpoint(out);
+            Long delay = walkDelays.get(agent);
+            VarInts.writeUnsigned(out, delay != null ? delay : 0);
+        }
+        VarInts.writeUnsigned(out, ignitions.size());
+        for (int i = 0; i < ignitions.size(); i++) {
+            VarInts.writeUnsigned(out, ignitions.get(i).source.getNodeId());
+            VarInts.writeUnsigned(out, ignitions.get(i).target.getNodeId());
+            VarInts.writeUnsigned(out, ignitionDelays.get(i));
+        }
+        out.flush();
+        deflater.finish();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * restore method
+     *
+     * Restore a simulation from a checkpoint. The nodes must have been read
+     * from the same graph and already be connected to the services of the
+     * run (timing wheel, termination detector, metrics, ...), and no thread
+     * may have been started yet. Every restored message and timer is
+     * registered with the termination detector; burning nodes that still
+     * have to notify their neighbors are left to the caller.
+     *
+     * @param file name of the checkpoint file.
+     * @param nodes every node of the graph, indexed by node ID.
+     * @param wheel timing wheel of the simulation, not started yet.
+     * @return the restored agents, back on their nodes.
+     * @throws IOException if the checkpoint cannot be read or does not
+     * match the graph.
+     */
+    public static List<Agent> restore(String file, Node[] nodes,
+                                      TimingWheel wheel) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file");
+            }
+            int version = header.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " +
+                        version);
+            }
+            long nodeCount = VarInts.readUnsigned(header);
+            if (nodeCount != nodes.length) {
+                throw new IOException("Checkpoint was taken on a graph of " +
+                        nodeCount + " nodes, not " + nodes.length);
+            }
+            wheel.setStartTime(VarInts.readUnsigned(header));
+            DataInputStream body =
+                    new DataInputStream(new InflaterInputStream(in));
+            for (Node n : nodes) {
+                n.readCheckpoint(body);
+            }
+            int agentCount = (int) VarInts.readUnsigned(body);
+            List<Agent> agents = new ArrayList<>(agentCount);
+            for (int i = 0; i < agentCount; i++) {
+                Agent agent = Agent.readCheckpoint(body, nodes);
+                long delay = VarInts.readUnsigned(body);
+                if (agent.isWalking()) {
+                    agent.scheduleWalk(delay);
+                }
+                agents.add(agent);
+            }
+            int ignitionCount = (int) VarInts.readUnsigned(body);
+            for (int i = 0; i < ignitionCount; i++) {
+                Node source = nodes[(int) VarInts.readUnsigned(body)];
+                Node target = nodes[(int) VarInts.readUnsigned(body)];
+                source.scheduleIgnition(target, VarInts.readUnsigned(body));
+            }
+            return agents;
+        }
+    }
+}
@@ -7,6 +7,7 @@
  */
 
 
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
@@ -14,6 +15,7 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Slider;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
@@ -23,7 +25,9 @@ import javafx.scene.text.TextFlow;
 import javafx.stage.Stage;
 
 import java.awt.*;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.ListIterator;
 
 
 public class Display {
@@ -31,6 +35,8 @@ public class Display {
     private LinkedList<String> log;
     /* HashMap linking a log text to a Message object - for duplicates */
     private LinkedList<Message> existingMessage;
+    /* IDs of the reports in the log, so their copies are shown once */
+    private HashSet<Long> shownReports;
     /* Integer representing the screenDimension */
     private int screenDimension;
     /* double representing the right shift of each node in the canvas */
@@ -51,6 +57,22 @@ public class Display {
     private Canvas rootCanvas;
     /* Set up the scrollPane for the log */
     private ScrollPane sp;
+    /* Biggest row of a node location */
+    private int maxRow;
+    /* Biggest col of a node location */
+    private int maxCol;
+    /* Nodes of the simulation by state, null until it starts */
+    private volatile StateIndex stateIndex;
+    /* Renderer drawing huge graphs as pixels, null to draw ovals */
+    private PixelRenderer pixelRenderer;
+    /* Timeline of the run, enabled once the run is over */
+    private Slider timeline;
+    /* Label showing the time picked on the timeline */
+    private Label timelineLabel;
+    /* History of the run the timeline reads from, null until it is over */
+    private StateHistory stateHistory;
+    /* State code of each node at the time picked, by node ID */
+    private byte[] timelineCodes;
 
 
     /**
@@ -67,8 +89,18 @@ public class Display {
         this.window = window;
         /* set up the passed in list of nodes to our current list of nodes */
         this.allNodes = allNodes;
-        /* Find the user's screen size */
-        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+        /* instantiate the log  */
+        log = new LinkedList<>();
+        /* instantiate the existingMessage list */
+        existingMessage = new LinkedList<>();
+        shownReports = new HashSet<>();
+        /*
+         * Find the user's screen size, there is none when AWT runs headless
+         * (e.g. the GUI benchmark under Monocle)
+         */
+        Dimension screenSize = GraphicsEnvironment.isHeadless()
+                ? new Dimension(1920, 1080)
+                : Toolkit.getDefaultToolkit().getScreenSize();
         /* Set up the screen dimension */
         screenDimension = (int) (0.85 * Math.min(screenSize.getWidth(),
                 screenSize.getHeight()));
@@ -97,6 +129,18 @@ public class Display {
 
         /* Get the size of our list of nodes */
         int sizeNodes = allNodes.size();
+        /* Find the extent of the graph, once */
+        findMaxLocation();
+        /*
+         * Huge graphs cannot be drawn one oval at a time in a frame, they
+         * are drawn as pixels instead, without edges
+         */
+        if (sizeNodes >= PixelRenderer.NODE_THRESHOLD) {
+            pixelRenderer = new PixelRenderer(allNodes, maxRow, maxCol);
+            rootCanvas = new Canvas(pixelRenderer.getWidth(),
+                    pixelRenderer.getHeight());
+            return;
+        }
         /*
          * Ratio that will be used to find actual x and y coordinate of each
          * node on the canvas
@@ -138,13 +182,13 @@ public class Display {
              * canvas. This shift will be based on the highest column elements of
              * our node positions.
              */
-            rightShift = (canvasDimension - (ratio * findMaxCol())) / 2;
+            rightShift = (canvasDimension - (ratio * maxCol)) / 2;
             /*
              * Down shift that allows the final graph to be in the middle of the
              * canvas. This shift will be based on the highest row elements of
              * our node positions.
              */
-            downShift = (canvasDimension - (ratio * findMaxRow())) / 2;
+            downShift = (canvasDimension - (ratio * maxRow)) / 2;
             /*
              * Diameter of a circle. Based on the canvas dimension an on the
              * number of nodes we have in our list
@@ -164,15 +208,11 @@ public class Display {
 
         /* set up and draw the edges on the canvas */
         setUpEdges();
-        /* instantiate the log  */
-        log = new LinkedList<>();
-        /* instantiate the existingMessage list */
-        existingMessage = new LinkedList<>();
     }
 
     /* Get the biggest value between max row and max col */
     private double getBiggestValue(){
-        return Math.max(findMaxRow(), findMaxCol());
+        return Math.max(maxRow, maxCol);
     }
 
     /**
@@ -214,7 +254,7 @@ public class Display {
         logText.setMinSize(0.30 * screenDimension,
                 0.7 * screenDimension);
         updateLog(new Message(null, null,
-                null, "This is the Log Window",
+                "This is the Log Window",
                 1));
         sp.setContent(logText);
 
@@ -229,10 +269,22 @@ public class Display {
                 0.7 * screenDimension);
         cp.setContent(rootCanvas);
 
+        /* Set up the timeline, usable once the run is over */
+        HBox timelineBox = new HBox(10);
+        timelineBox.setAlignment(Pos.CENTER);
+        timeline = new Slider(0, 1, 1);
+        timeline.setPrefWidth(0.6 * screenDimension);
+        timeline.setDisable(true);
+        timeline.valueProperty().addListener(
+                (observable, oldValue, newValue) ->
+                        showTime(newValue.doubleValue()));
+        timelineLabel = new Label("Timeline: once the run is over");
+        timelineBox.getChildren().addAll(timeline, timelineLabel);
+
         /* Set up all the boxes and add the root to the return scene */
         buttons.getChildren().addAll(start, quit);
         hbox.getChildren().addAll(cp, sp);
-        root.getChildren().addAll(title, hbox, buttons);
+        root.getChildren().addAll(title, hbox, timelineBox, buttons);
         return new Scene(root, screenDimension, screenDimension);
     }
 
@@ -288,6 +340,63 @@ public class Display {
      * will be called.
      */
     public synchronized void drawCircleOnCanvas() throws InterruptedException {
+        /* Time the repaint for the flight recorder */
+        SimulationEvents.Repaint event = new SimulationEvents.Repaint();
+        event.begin();
+        /* Huge graphs are drawn as pixels, all at once */
+        if (pixelRenderer != null) {
+            rootCanvas.getGraphicsContext2D().drawImage(
+                    pixelRenderer.render(), 0, 0);
+        } else {
+            drawNodes();
+        }
+        /* Show the counts of the index, no need to count the nodes here */
+        StateIndex index = stateIndex;
+        if (index != null) {
+            window.setTitle("Mobile Agents - " + index.getCounts() +
+                    " front=" + index.getPerimeterSize());
+        }
+        if (event.shouldCommit()) {
+            event.nodes = allNodes.size();
+            event.commit();
+        }
+
+    }
+
+    /**
+     * nodeChanged method
+     * <p>
+     * Tell the GUI a node changed state or agent, so the pixel renderer
+     * draws it again on the next repaint. The oval drawing redraws every
+     * node anyway. Any thread may call this.
+     *
+     * @param n Node that changed.
+     */
+    public void nodeChanged(Node n) {
+        if (pixelRenderer != null) {
+            pixelRenderer.nodeChanged(n);
+        }
+    }
+
+    /**
+     * allNodesChanged method
+     * <p>
+     * Tell the GUI any node may have changed, e.g. after a checkpoint was
+     * restored or a replay jumped to a keyframe.
+     */
+    public void allNodesChanged() {
+        if (pixelRenderer != null) {
+            pixelRenderer.allNodesChanged();
+        }
+    }
+
+    /**
+     * drawNodes method
+     * <p>
+     * Draw each node as a circle, with a ring around it when an agent is on
+     * it.
+     */
+    private void drawNodes() {
         /* Loop through each node in our list of nodes */
         for (Node n : allNodes) {
             /* Set up the x and y coordinates to draw elements on our canvas */
@@ -311,7 +420,6 @@ public class Display {
             }
 
         }
-
     }
 
     /**
@@ -337,44 +445,99 @@ public class Display {
     }
 
     /**
-     * findMaxRow method
+     * findMaxLocation method
      * <p>
-     * This method loops through the list of nodes and keeps track fo the
-     * node that has the biggest row value. It will be used for the shifting
+     * This method loops through the list of nodes once and keeps track of
+     * the biggest row and col values. They will be used for the shifting
      * of the graph within the canvas.
-     *
-     * @return max row value in our list of nodes
      */
-    private double findMaxRow() {
-        int maxRow = 0;
+    private void findMaxLocation() {
+        maxRow = 0;
+        maxCol = 0;
         for (Node n : allNodes) {
-            if (n.getNodeLocation().y > maxRow) {
-                maxRow = n.getNodeLocation().y;
-            }
+            maxRow = Math.max(maxRow, n.getNodeLocation().y);
+            maxCol = Math.max(maxCol, n.getNodeLocation().x);
         }
-        return maxRow;
     }
 
     /**
-     * findMaxCol method
+     * stateIndex setter
      * <p>
-     * This method loops through the list of nodes and keeps track fo the
-     * node that has the biggest col value. It will be used for the shifting
-     * of the graph within the canvas.
+     * Once set, the title of the window shows how many nodes are in each
+     * state and on the fire front every time the graph is drawn.
+     *
+     * @param stateIndex nodes of the simulation by state.
+     */
+    public void setStateIndex(StateIndex stateIndex) {
+        this.stateIndex = stateIndex;
+    }
+
+
+    /**
+     * stateHistory setter
+     * <p>
+     * Enable the timeline once the run is over: moving it shows the graph
+     * as it was at the time picked, read from the history of the run. The
+     * agents are not shown. This must be called from the JavaFX thread.
+     *
+     * @param stateHistory history of the run.
+     */
+    public void setStateHistory(StateHistory stateHistory) {
+        this.stateHistory = stateHistory;
+        timelineCodes = new byte[allNodes.size()];
+        double end = stateHistory.getEndTime() / 1000.0;
+        timeline.setMin(stateHistory.getStartTime() / 1000.0);
+        timeline.setMax(end);
+        timeline.setValue(end);
+        timeline.setDisable(false);
+        showTime(end);
+    }
+
+    /**
+     * showTime method
+     * <p>
+     * Draw the graph as it was at a time of the run, only telling the
+     * renderer about the nodes that look different.
      *
-     * @return max col value in our list of nodes
+     * @param seconds simulated seconds into the run.
      */
-    private double findMaxCol() {
-        int maxCol = 0;
+    private void showTime(double seconds) {
+        if (stateHistory == null) {
+            return;
+        }
+        long time = (long) (seconds * 1000);
+        stateHistory.statesAt(time, timelineCodes);
         for (Node n : allNodes) {
-            if (n.getNodeLocation().x > maxCol) {
-                maxCol = n.getNodeLocation().x;
+            String state = TraceEvent.stateName(timelineCodes[n.getNodeId()]);
+            if (!state.equals(n.getState()) || n.getAgentOnNodeBoolean()) {
+                n.setState(state);
+                n.setAgentOnNodeBoolean(false);
+                nodeChanged(n);
             }
         }
-        return maxCol;
+        timelineLabel.setText("t = " + time / 1000.0 + " s");
+        try {
+            drawCircleOnCanvas();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        window.setTitle("Mobile Agents - t=" + time / 1000.0 + " s " +
+                stateHistory.countsAt(time));
     }
 
 
+    /**
+     * later method
+     *
+     * Run a task on the JavaFX thread, e.g. from a node thread, so the
+     * classes driving the run never use JavaFX themselves.
+     *
+     * @param task task to run, typically an update of the window.
+     */
+    public void later(Runnable task) {
+        Platform.runLater(task);
+    }
+
     /**
      * updateLog method
      * <p>
@@ -382,21 +545,37 @@ public class Display {
      * window. This will give the user some information concerning the state
      * of the game and certain illegal moves that have been performed.
      * This method is public as it will need to be called by the Base Station
-     * several times to update the Log Info.
+     * several times to update the Log Info. With several base stations the
+     * entries of all of them are merged, ordered by the time their message
+     * was created.
      *
      * @param message String representing the message to show.
      */
     public synchronized void updateLog(Message message) {
-        /* Check if the message already exists, if yes avoid duplicates */
-        if (existingMessage.contains(message)) {
+        /*
+         * Check if a copy of the report is already shown, if yes avoid
+         * duplicates; the same event happening again is a new report
+         */
+        if (message.getReportId() != 0
+                && !shownReports.add(message.getReportId())) {
             return;
         }
+        /* Time the append for the flight recorder */
+        SimulationEvents.LogAppend event = new SimulationEvents.LogAppend();
+        event.begin();
         /* Clear the current logText, needed in order to update it */
         logText.getChildren().clear();
+        /* Find where the message goes, entries mostly come in order */
+        int index = existingMessage.size();
+        ListIterator<Message> it = existingMessage.listIterator(index);
+        while (it.hasPrevious()
+                && it.previous().timestamp > message.timestamp) {
+            index--;
+        }
         /* Add the new message to existingMessage */
-        existingMessage.add(message);
+        existingMessage.add(index, message);
         /* Add the actual message String to the log */
-        log.add(message.infoMessage + "\n");
+        log.add(index, message.getText() + "\n");
         String info = "";
         for (String s : log) {
             info = info + s;
@@ -407,6 +586,15 @@ public class Display {
         Label label2 = new Label(null, new TextFlow(log));
         logText.getChildren().addAll(label2);
         sp.setContent(logText);
+        if (event.shouldCommit()) {
+            event.logSize = this.log.size();
+            if (message.getSourceHeader() != null) {
+                event.sourceX = message.getSourceHeader().x;
+                event.sourceY = message.getSourceHeader().y;
+            }
+            event.priority = message.getPriority();
+            event.commit();
+        }
     }
 
 
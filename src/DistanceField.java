@@ -0,0 +1,201 @@
+/**
+ * This class holds, for every node, its distance in hops to the nearest
+ * node known to be in danger or on fire (yellow or red). Agents walking
+ * with the gradient strategy (--walk=gradient) step downhill on it towards
+ * the fire front instead of walking at random.
+ *
+ * The distances are kept up to date incrementally: a node turning yellow
+ * or red becomes a new source and the distances are lowered from there,
+ * one breadth first search that stops where the distances do not change.
+ * The fire itself never goes out, so distances mostly go down; only a node
+ * in danger reported safe by a sensor (yellow back to blue) stops being a
+ * source. Then the distances that may have come from it are forgotten and
+ * found again from the nodes around them, not from scratch.
+ *
+ * The field also holds which nodes an agent already walked on (a bitmap
+ * shared by all the agents), so agents at the same distance from the fire
+ * spread out rather than follow each other.
+ *
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class DistanceField {
+
+    /* Distance of a node no yellow or red node can be reached from */
+    public static final int UNKNOWN = Integer.MAX_VALUE;
+
+    /* All the nodes of the graph, indexed by node ID */
+    private final Node[] nodes;
+    /* Hops from each node to the nearest yellow or red node */
+    private final AtomicIntegerArray distances;
+    /* One bit per node an agent walked on */
+    private final AtomicLongArray covered;
+    /* Nodes whose neighbours have to be lowered, guarded by this */
+    private final ArrayDeque<Node> frontier;
+
+    /**
+     * DistanceField constructor
+     *
+     * @param nodes all the nodes of the graph, indexed by node ID.
+     */
+    public DistanceField(Node[] nodes) {
+        this.nodes = nodes;
+        distances = new AtomicIntegerArray(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            distances.set(i, UNKNOWN);
+        }
+        covered = new AtomicLongArray((nodes.length + 63) / 64);
+        frontier = new ArrayDeque<>();
+    }
+
+    /**
+     * scan method
+     *
+     * Add every node currently yellow or red as a source, typically once
+     * the graph is set up or restored.
+     */
+    public void scan() {
+        for (Node n : nodes) {
+            if (isFire(n)) {
+                addSource(n);
+            }
+        }
+    }
+
+    /**
+     * addSource method
+     *
+     * Lower the distances around a node that turned yellow or red.
+     *
+     * @param source Node that turned yellow or red.
+     */
+    public synchronized void addSource(Node source) {
+        if (distances.get(source.getNodeId()) == 0) {
+            return;
+        }
+        distances.set(source.getNodeId(), 0);
+        frontier.add(source);
+        while (!frontier.isEmpty()) {
+            Node n = frontier.poll();
+            int next = distances.get(n.getNodeId()) + 1;
+            for (Node m : n.getAdjacentPoint()) {
+                if (next < distances.get(m.getNodeId())) {
+                    distances.set(m.getNodeId(), next);
+                    frontier.add(m);
+                }
+            }
+        }
+    }
+
+    /**
+     * removeSource method
+     *
+     * Raise the distances around a node that stopped being yellow or red:
+     * every node whose distance may have come from the node (the distances
+     * going up one hop at a time from it) is forgotten, then lowered again
+     * from the nodes around them whose distances still hold.
+     *
+     * @param source Node that is no longer yellow or red.
+     */
+    public synchronized void removeSource(Node source) {
+        if (distances.get(source.getNodeId()) != 0) {
+            return;
+        }
+        /* Forget the distances that may have come from the source */
+        ArrayDeque<Node> forgotten = new ArrayDeque<>();
+        ArrayDeque<Integer> hops = new ArrayDeque<>();
+        distances.set(source.getNodeId(), UNKNOWN);
+        forgotten.add(source);
+        frontier.add(source);
+        hops.add(0);
+        while (!frontier.isEmpty()) {
+            Node n = frontier.poll();
+            int next = hops.poll() + 1;
+            for (Node m : n.getAdjacentPoint()) {
+                if (distances.get(m.getNodeId()) == next) {
+                    distances.set(m.getNodeId(), UNKNOWN);
+                    forgotten.add(m);
+                    frontier.add(m);
+                    hops.add(next);
+                }
+            }
+        }
+        /* Lower them again from the neighbours whose distances hold */
+        for (Node n : forgotten) {
+            for (Node m : n.getAdjacentPoint()) {
+                int near = distances.get(m.getNodeId());
+                if (near != UNKNOWN
+                        && near + 1 < distances.get(n.getNodeId())) {
+                    distances.set(n.getNodeId(), near + 1);
+                }
+            }
+            if (distances.get(n.getNodeId()) != UNKNOWN) {
+                frontier.add(n);
+            }
+        }
+        while (!frontier.isEmpty()) {
+            Node n = frontier.poll();
+            int next = distances.get(n.getNodeId()) + 1;
+            for (Node m : n.getAdjacentPoint()) {
+                if (next < distances.get(m.getNodeId())) {
+                    distances.set(m.getNodeId(), next);
+                    frontier.add(m);
+                }
+            }
+        }
+    }
+
+    /**
+     * distance method
+     *
+     * @param n Node to look up.
+     * @return hops from the node to the nearest yellow or red node, UNKNOWN
+     * if none is known.
+     */
+    public int distance(Node n) {
+        return distances.get(n.getNodeId());
+    }
+
+    /**
+     * cover method
+     *
+     * Mark a node as walked on by an agent.
+     *
+     * @param n Node an agent walked on.
+     */
+    public void cover(Node n) {
+        int id = n.getNodeId();
+        long bit = 1L << (id & 63);
+        long word;
+        do {
+            word = covered.get(id >>> 6);
+            if ((word & bit) != 0) {
+                return;
+            }
+        } while (!covered.compareAndSet(id >>> 6, word, word | bit));
+    }
+
+    /**
+     * isCovered method
+     *
+     * @param n Node to look up.
+     * @return true if an agent already walked on the node.
+     */
+    public boolean isCovered(Node n) {
+        int id = n.getNodeId();
+        return (covered.get(id >>> 6) & (1L << (id & 63))) != 0;
+    }
+
+    /**
+     * isFire method
+     *
+     * @param n Node to look at.
+     * @return true if the node is in danger or on fire.
+     */
+    static boolean isFire(Node n) {
+        return n.getState().equals("yellow") || n.getState().equals("red");
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * This enum represents what a Message is about. A message carries its event
+ * code and a few primitive fields (the node it is about, an agent ID, a
+ * count) rather than a ready-made sentence: the text shown in the log of the
+ * base station is only formatted once something displays it.
+ *
+ */
+
+public enum EventCode {
+    /* Instruction to change the state of a node to alert - yellow */
+    CHANGE_TO_ALERT("change_to_alert"),
+    /* Instruction to change the state of a node to burning - red */
+    CHANGE_TO_BURN("change_to_burn"),
+    /* Instruction to create an agent on a node */
+    CREATE_AGENT("create_agent"),
+    /* Instruction to make a node clone its agent */
+    CLONE_AGENT("clone_agent"),
+    /* Instruction to stop the node thread at the end of the simulation */
+    TERMINATE("terminate"),
+    /* Report: the node became in danger */
+    NODE_IN_DANGER(null),
+    /* Report: the node caught on fire */
+    NODE_ON_FIRE(null),
+    /* Report: an agent was created on the node */
+    AGENT_CREATED(null),
+    /* Report: an agent died on the node */
+    AGENT_DIED(null),
+    /* Report: an agent walked on the node */
+    AGENT_WALKED(null),
+    /* Report: an agent reached a yellow node */
+    AGENT_REACHED_FIRE(null),
+    /* Report: how many nodes an agent walked on before it died */
+    AGENT_SUMMARY(null),
+    /* Batch of reports going to the base station */
+    REPORT_BATCH(null),
+    /* Free text, e.g. a line of the log replayed from a trace */
+    TEXT(null),
+    /*
+     * Codes added later go last, so the codes of the messages saved in
+     * checkpoints keep their number
+     */
+    /* Instruction to change the state of a node in danger back to safe */
+    CHANGE_TO_SAFE("change_to_safe"),
+    /* Report: a sensor confirmed the node is safe */
+    NODE_SAFE(null);
+
+    /* Name of the instruction, null for the other messages */
+    private final String instruction;
+
+    EventCode(String instruction) {
+        this.instruction = instruction;
+    }
+
+    /**
+     * isInstruction method
+     *
+     * @return true if the code is an instruction for a node rather than a
+     * report or a free text.
+     */
+    public boolean isInstruction() {
+        return instruction != null;
+    }
+
+    /**
+     * isCritical method
+     *
+     * @return true if the code is a report that must always reach the base
+     * station: nodes in danger, on fire or safe again, agents created,
+     * dying or reaching the fire (see Telemetry).
+     */
+    public boolean isCritical() {
+        switch (this) {
+            case NODE_IN_DANGER:
+            case NODE_ON_FIRE:
+            case NODE_SAFE:
+            case AGENT_CREATED:
+            case AGENT_DIED:
+            case AGENT_REACHED_FIRE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * fromText method
+     *
+     * @param text text of a message.
+     * @return the instruction named by the text, TEXT if it names none.
+     */
+    public static EventCode fromText(String text) {
+        for (EventCode code : values()) {
+            if (code.instruction != null && code.instruction.equals(text)) {
+                return code;
+            }
+        }
+        return TEXT;
+    }
+
+    /**
+     * format method
+     *
+     * Write the text of a message with this code.
+     *
+     * @param message Message to describe.
+     * @return the text of the message.
+     */
+    String format(Message message) {
+        if (instruction != null) {
+            return instruction;
+        }
+        StringBuilder text = new StringBuilder(64);
+        switch (this) {
+            case NODE_IN_DANGER:
+                return node(text.append("Node: "), message)
+                        .append(" became in danger").toString();
+            case NODE_ON_FIRE:
+                return node(text.append("Node: "), message)
+                        .append(" caught on fire").toString();
+            case NODE_SAFE:
+                return node(text.append("Node: "), message)
+                        .append(" confirmed safe").toString();
+            case AGENT_CREATED:
+                return node(text.append("Agent with ID: ")
+                        .append(message.getAgentId())
+                        .append(" created on Node: "), message).toString();
+            case AGENT_DIED:
+                return node(text.append("Agent with ID: ")
+                        .append(message.getAgentId())
+                        .append(" died on Node: "), message).toString();
+            case AGENT_WALKED:
+                return node(text.append("Agent: ")
+                        .append(message.getAgentId())
+                        .append(" walked on node: "), message)
+                        .append(' ').toString();
+            case AGENT_REACHED_FIRE:
+                return node(text.append("Agent: ")
+                        .append(message.getAgentId())
+                        .append(" reached a yellow node at: "), message)
+                        .append(' ').toString();
+            case AGENT_SUMMARY:
+                return text.append("Agent: ").append(message.getAgentId())
+                        .append(" walked on ").append(message.getCount())
+                        .append(" nodes").toString();
+            case REPORT_BATCH:
+                return text.append("Batch of ").append(message.getCount())
+                        .append(" reports").toString();
+            default:
+                return "";
+        }
+    }
+
+    /* Append the location of the node the message is about */
+    private static StringBuilder node(StringBuilder text, Message message) {
+        return text.append('(').append(message.getSourceHeader().x)
+                .append(", ").append(message.getSourceHeader().y)
+                .append(')');
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * This class saves pictures of the simulation as numbered PNG files
+ * (--frames), one every few seconds of simulated time, so batch and
+ * headless runs have something to show. It draws with java.awt images only,
+ * so a run started with Headless saves frames without a display; a run
+ * started with Coordinator still starts JavaFX, which needs one.
+ *
+ * Taking a frame only copies the state and agent flag of every node, on the
+ * timing wheel so the frame is consistent. Drawing the frame and encoding
+ * it run on a pool of worker threads, several frames at once; when the
+ * workers fall too far behind, frames are dropped (and counted) rather than
+ * holding up the simulation. The edges never change, they are drawn once
+ * into a background every frame starts from. Graphs of PixelRenderer's
+ * NODE_THRESHOLD nodes or more are drawn without their edges.
+ *
+ */
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FrameExporter {
+
+    /* Default size of the frames in pixels */
+    public static final int DEFAULT_SIZE = 800;
+    /* Blank border around the graph in pixels */
+    private static final int MARGIN = 10;
+    /* Number of frames waiting for a worker before frames are dropped */
+    private static final int BACKLOG = 8;
+    /* Flag set in a node code when an agent is on the node */
+    private static final int AGENT_FLAG = 4;
+    /* Colors of the states, by state code (see TraceEvent) */
+    private static final Color[] STATE_COLORS = {Color.BLUE,
+            new Color(0xADFF2F), Color.YELLOW, Color.RED};
+    /* Color of the ring around a node with an agent */
+    private static final Color AGENT_COLOR = new Color(0xF4A460);
+
+    /* All the nodes of the graph */
+    private final Node[] nodes;
+    /* Directory the frames are written to */
+    private final File directory;
+    /* Name of the frame files before their number */
+    private final String prefix;
+    /* Timing wheel the frames are taken on */
+    private final TimingWheel timingWheel;
+    /* Location of each node in the frame, in pixels */
+    private final int[] x;
+    private final int[] y;
+    /* Diameter of a node in pixels */
+    private final int diameter;
+    /* Background of every frame: white with the edges drawn */
+    private final BufferedImage background;
+    /* Workers drawing and encoding the frames */
+    private final ThreadPoolExecutor workers;
+    /* Number of the next frame */
+    private final AtomicInteger nextFrame;
+    /* Number of frames written and dropped */
+    private final LongAdder written;
+    private final LongAdder dropped;
+    /* boolean indicating whether no more frames are taken, guarded by this */
+    private boolean closed;
+
+    /**
+     * FrameExporter constructor
+     *
+     * Work out where each node goes in the frames and draw the edges.
+     *
+     * @param allNodes list of all the nodes of the graph.
+     * @param directory directory the frames are written to, created if
+     *                  needed.
+     * @param prefix name of the frame files before their number.
+     * @param size width and height of the frames in pixels.
+     * @param timingWheel the shared timing wheel.
+     * @throws IOException if the directory cannot be created.
+     */
+    public FrameExporter(LinkedList<Node> allNodes, String directory,
+                         String prefix, int size, TimingWheel timingWheel)
+            throws IOException {
+        if (size <= 2 * MARGIN) {
+            throw new IllegalArgumentException("Frames must be bigger than "
+                    + 2 * MARGIN + " pixels");
+        }
+        this.directory = new File(directory);
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.prefix = prefix;
+        this.timingWheel = timingWheel;
+        nodes = new Node[allNodes.size()];
+        for (Node n : allNodes) {
+            nodes[n.getNodeId()] = n;
+        }
+        int extent = 1;
+        for (Node n : nodes) {
+            extent = Math.max(extent, Math.max(n.getNodeLocation().x,
+                    n.getNodeLocation().y));
+        }
+        double scale = (double) (size - 2 * MARGIN) / extent;
+        diameter = (int) Math.max(4, Math.min(12, scale * 0.6));
+        x = new int[nodes.length];
+        y = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            x[i] = MARGIN + (int) (nodes[i].getNodeLocation().x * scale);
+            y[i] = MARGIN + (int) (nodes[i].getNodeLocation().y * scale);
+        }
+        background = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        drawEdges();
+        int threads = Math.max(1,
+                Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(BACKLOG),
+                task -> {
+                    Thread t = new Thread(task, "frame-encoder-" +
+                            workerCount.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        nextFrame = new AtomicInteger();
+        written = new LongAdder();
+        dropped = new LongAdder();
+        closed = false;
+    }
+
+    /**
+     * start method
+     *
+     * Take a frame now and then every interval of simulated time.
+     *
+     * @param intervalMillis simulated ms between two frames.
+     */
+    public void start(long intervalMillis) {
+        capture();
+        timingWheel.schedule(() -> {
+            if (!isClosed()) {
+                start(intervalMillis);
+            }
+        }, intervalMillis);
+    }
+
+    /**
+     * capture method
+     *
+     * Take a frame of the current state of the graph and hand it to the
+     * workers, or drop it if they are too far behind. Nothing is taken once
+     * the exporter is closed. The wheel thread is not waited for at the end
+     * of the run, so a tick may still be taking a frame while the last one
+     * is taken: frames are taken under the lock of the exporter, one at a
+     * time, so no two of them get the same number.
+     */
+    public synchronized void capture() {
+        if (!closed) {
+            take();
+        }
+    }
+
+    /* Take a frame, under the lock of the exporter */
+    private void take() {
+        byte[] codes = new byte[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            codes[i] = (byte) (TraceEvent.stateCode(nodes[i].getState())
+                    | (nodes[i].getAgentOnNodeBoolean() ? AGENT_FLAG : 0));
+        }
+        int frame = nextFrame.get();
+        long time = timingWheel.currentTimeMillis();
+        try {
+            workers.execute(() -> write(frame, time, codes));
+            nextFrame.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * close method
+     *
+     * Take a last frame of the end of the run and wait for the workers to
+     * write every frame taken.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * workers.
+     */
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            /* The last frame must not be dropped, wait for room if needed */
+            while (workers.getQueue().remainingCapacity() == 0) {
+                Thread.sleep(10);
+            }
+            take();
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * isClosed method
+     *
+     * @return true if no more frames are taken.
+     */
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * write method
+     *
+     * Draw a frame and encode it to its PNG file. Runs on a worker.
+     *
+     * @param frame number of the frame.
+     * @param time simulated ms at which the frame was taken.
+     * @param codes state code and agent flag of every node.
+     */
+    private void write(int frame, long time, byte[] codes) {
+        BufferedImage image = new BufferedImage(background.getWidth(),
+                background.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.drawImage(background, 0, 0, null);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setStroke(new BasicStroke(Math.max(1, diameter / 4f)));
+        for (int i = 0; i < codes.length; i++) {
+            g.setColor(STATE_COLORS[codes[i] & 3]);
+            g.fillOval(x[i], y[i], diameter, diameter);
+            if ((codes[i] & AGENT_FLAG) != 0) {
+                g.setColor(AGENT_COLOR);
+                g.drawOval(x[i], y[i], diameter, diameter);
+            }
+        }
+        g.setColor(Color.BLACK);
+        g.drawString("t = " + time / 1000.0 + " s", MARGIN,
+                image.getHeight() - MARGIN);
+        g.dispose();
+        File file = new File(directory, String.format("%s%06d.png", prefix,
+                frame));
+        try {
+            ImageIO.write(image, "png", file);
+            written.increment();
+        } catch (IOException e) {
+            System.err.println("Error writing " + file + ": " +
+                    e.getMessage());
+        }
+    }
+
+    /* Draw the edges once on a white background */
+    private void drawEdges() {
+        Graphics2D g = background.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, background.getWidth(), background.getHeight());
+        if (nodes.length < PixelRenderer.NODE_THRESHOLD) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.LIGHT_GRAY);
+            int radius = diameter / 2;
+            for (Node n : nodes) {
+                for (Node adj : n.getAdjacentPoint()) {
+                    /* Each edge once */
+                    if (adj.getNodeId() > n.getNodeId()) {
+                        g.drawLine(x[n.getNodeId()] + radius,
+                                y[n.getNodeId()] + radius,
+                                x[adj.getNodeId()] + radius,
+                                y[adj.getNodeId()] + radius);
+                    }
+                }
+            }
+        }
+        g.dispose();
+    }
+
+    @Override
+    public String toString() {
+        return written.sum() + " frames written to " + directory +
+                (dropped.sum() > 0 ? " (" + dropped.sum() + " dropped)" : "");
+    }
+}
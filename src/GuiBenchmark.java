@@ -0,0 +1,272 @@
+/**
+ * This class measures how many events per second the GUI keeps up with
+ * (--bench-gui). Instead of simulating, it feeds a stream of events into
+ * the Display the same way a run does (each node change asks for a repaint,
+ * each station report for a log entry, both through Platform.runLater) at
+ * a rate doubled every step, and reports for each step:
+ * - the time a repaint of the graph takes,
+ * - the time a log entry takes to append,
+ * - the latency of the JavaFX thread (how long a task posted with runLater
+ *   waits before it runs) and the interval between two JavaFX pulses,
+ * - the backlog of runLater tasks not run yet.
+ *
+ * A rate is sustainable if, at the end of its step, no more than 100 ms
+ * worth of events are still waiting and 99% of the posted tasks ran within
+ * 100 ms. The benchmark stops at the first rate that is not and reports
+ * the highest sustainable one for the size of the graph.
+ *
+ * The events are random node changes and reports (one report for four node
+ * changes), or the events of a recorded trace given with --replay, played
+ * in a loop.
+ *
+ */
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class GuiBenchmark implements Runnable {
+
+    /* Rate of the first step, in events per second */
+    private static final int FIRST_RATE = 250;
+    /* Highest rate tried, in events per second */
+    private static final int MAX_RATE = 1 << 20;
+    /* Wall time of a step in ms */
+    private static final long STEP_MILLIS = 2000;
+    /* Latency above which the GUI is not keeping up, in ms */
+    private static final long MAX_LATENCY_MILLIS = 100;
+    /* Time given to the backlog to drain after the last step, in ms */
+    private static final long DRAIN_MILLIS = 30000;
+    /* Node changes for each report in the synthetic stream */
+    private static final int CHANGES_PER_REPORT = 4;
+    /* States a node goes through in the synthetic stream */
+    private static final String[] STATES = {"yellow", "red", "blue"};
+
+    /* GUI under test */
+    private final Display GUI;
+    /* All the nodes of the graph, indexed by node ID */
+    private final Node[] nodes;
+    /* Recorded events to play in a loop, null for a synthetic stream */
+    private final List<TraceEvent> recorded;
+    /* Generator of the synthetic stream */
+    private final Random random;
+    /* Next recorded event to play */
+    private int nextRecorded;
+    /* Tasks posted with runLater and not run yet */
+    private final AtomicInteger pending;
+    /* Highest number of pending tasks during the current step */
+    private final AtomicInteger peakPending;
+    /* Measures of the current step, in ns */
+    private volatile LatencyHistogram frameTime;
+    private volatile LatencyHistogram logTime;
+    private volatile LatencyHistogram latency;
+    private volatile LatencyHistogram pulseInterval;
+    /* Time of the last JavaFX pulse in ns, 0 before the first */
+    private long lastPulse;
+
+    /**
+     * GuiBenchmark constructor
+     *
+     * @param GUI the GUI to measure, shown already.
+     * @param nodes all the nodes of the graph, indexed by node ID.
+     * @param traceFile trace whose events are played, null for random
+     *                  events.
+     * @throws IOException if the trace cannot be read.
+     */
+    public GuiBenchmark(Display GUI, Node[] nodes, String traceFile)
+            throws IOException {
+        this.GUI = GUI;
+        this.nodes = nodes;
+        random = new Random(0);
+        pending = new AtomicInteger();
+        peakPending = new AtomicInteger();
+        if (traceFile == null) {
+            recorded = null;
+        } else {
+            recorded = new ArrayList<>();
+            try (TraceReader reader = new TraceReader(traceFile)) {
+                for (int c = 0; c < reader.getChunkCount(); c++) {
+                    if (!reader.isKeyframe(c)) {
+                        recorded.addAll(reader.readEvents(c));
+                    }
+                }
+            }
+            if (recorded.isEmpty()) {
+                throw new IOException("No event in " + traceFile);
+            }
+        }
+    }
+
+    /**
+     * run method
+     *
+     * Body of the benchmark thread: run the steps at increasing rates,
+     * print a line per step and the result, then close the program.
+     */
+    @Override
+    public void run() {
+        /* Time the pulses of the JavaFX thread */
+        Platform.runLater(() -> new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                LatencyHistogram pulses = pulseInterval;
+                if (lastPulse != 0 && pulses != null) {
+                    pulses.record(now - lastPulse);
+                }
+                lastPulse = now;
+            }
+        }.start());
+        System.out.println("GUI benchmark on " + nodes.length + " nodes, " +
+                (recorded == null ? "random events"
+                        : recorded.size() + " recorded events"));
+        int sustained = 0;
+        for (int rate = FIRST_RATE; rate <= MAX_RATE; rate *= 2) {
+            boolean kept = step(rate);
+            if (!kept) {
+                break;
+            }
+            sustained = rate;
+        }
+        /* Let the GUI catch up before closing it */
+        long deadline = System.nanoTime() + DRAIN_MILLIS * 1000000;
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(10000000);
+        }
+        System.out.println("Highest sustainable rate for " + nodes.length +
+                " nodes: " + (sustained == 0 ? "below " + FIRST_RATE
+                : sustained) + " events/s");
+        Platform.exit();
+    }
+
+    /**
+     * step method
+     *
+     * Send events at the given rate for STEP_MILLIS and print what was
+     * measured.
+     *
+     * @param rate events per second.
+     * @return true if the GUI kept up with the rate.
+     */
+    private boolean step(int rate) {
+        frameTime = new LatencyHistogram();
+        logTime = new LatencyHistogram();
+        latency = new LatencyHistogram();
+        pulseInterval = new LatencyHistogram();
+        peakPending.set(pending.get());
+        long start = System.nanoTime();
+        long end = start + STEP_MILLIS * 1000000;
+        long sent = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            /* Send the events that are due, then wait for the next one */
+            long due = (now - start) * rate / 1000000000L;
+            for (; sent <= due; sent++) {
+                sendEvent();
+            }
+            LockSupport.parkNanos(1000000);
+        }
+        int backlog = pending.get();
+        boolean kept = backlog <= rate * MAX_LATENCY_MILLIS / 1000
+                && latency.getPercentile(99) <= MAX_LATENCY_MILLIS * 1000000;
+        System.out.println(String.format("%8d events/s: frame p50=%.2f " +
+                        "p99=%.2f ms, log append p50=%.3f p99=%.3f ms, " +
+                        "runLater latency p50=%.2f p99=%.2f ms, pulse " +
+                        "interval p99=%.2f ms, backlog max=%d end=%d -> %s",
+                rate, millis(frameTime, 50), millis(frameTime, 99),
+                millis(logTime, 50), millis(logTime, 99),
+                millis(latency, 50), millis(latency, 99),
+                millis(pulseInterval, 99), peakPending.get(), backlog,
+                kept ? "sustained" : "not sustained"));
+        return kept;
+    }
+
+    /* Percentile of a histogram of ns, in ms */
+    private static double millis(LatencyHistogram histogram,
+                                 double percentile) {
+        return histogram.getCount() == 0 ? 0
+                : histogram.getPercentile(percentile) / 1e6;
+    }
+
+    /**
+     * sendEvent method
+     *
+     * Apply the next event to the graph and post the GUI work it causes
+     * during a run.
+     */
+    private void sendEvent() {
+        if (recorded != null) {
+            TraceEvent event = recorded.get(nextRecorded);
+            nextRecorded = (nextRecorded + 1) % recorded.size();
+            switch (event.type) {
+                case TraceEvent.STATE_CHANGE:
+                    changed(nodes[event.node].setState(
+                            TraceEvent.stateName(event.value)));
+                    break;
+                case TraceEvent.AGENT_ON:
+                    changed(nodes[event.node].setAgentOnNodeBoolean(true));
+                    break;
+                case TraceEvent.AGENT_OFF:
+                    changed(nodes[event.node].setAgentOnNodeBoolean(false));
+                    break;
+                case TraceEvent.AGENT_MOVE:
+                    changed(nodes[event.node].setAgentOnNodeBoolean(false));
+                    changed(nodes[event.value].setAgentOnNodeBoolean(true));
+                    break;
+                case TraceEvent.STATION_LOG:
+                    logged(new Message(null, null, event.text,
+                            event.value));
+                    break;
+                default:
+                    break;
+            }
+            return;
+        }
+        Node n = nodes[random.nextInt(nodes.length)];
+        if (random.nextInt(CHANGES_PER_REPORT + 1) == 0) {
+            logged(Message.report(n.getNodeLocation(), EventCode.NODE_ON_FIRE,
+                    null, 0, 1));
+        } else {
+            changed(n.setState(STATES[random.nextInt(STATES.length)]));
+        }
+    }
+
+    /* Ask for a repaint after a node changed, as Node.updateGUI does */
+    private void changed(Node n) {
+        GUI.nodeChanged(n);
+        post(() -> {
+            long start = System.nanoTime();
+            try {
+                GUI.drawCircleOnCanvas();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            frameTime.record(System.nanoTime() - start);
+        });
+    }
+
+    /* Add a report to the log, as a base station does */
+    private void logged(Message message) {
+        post(() -> {
+            long start = System.nanoTime();
+            GUI.updateLog(message);
+            logTime.record(System.nanoTime() - start);
+        });
+    }
+
+    /* Run a task on the JavaFX thread, counting it while it waits */
+    private void post(Runnable task) {
+        long posted = System.nanoTime();
+        peakPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+        Platform.runLater(() -> {
+            latency.record(System.nanoTime() - posted);
+            task.run();
+            pending.decrementAndGet();
+        });
+    }
+}
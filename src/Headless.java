@@ -0,0 +1,42 @@
+/**
+ * This class is the entry point of the runs without a GUI: --headless runs,
+ * the processes of a partitioned run and the launcher starting them, and
+ * the queries on a recorded trace. It does not extend Application and runs
+ * the simulation through Simulation, which does not use JavaFX: these runs
+ * need neither a display nor the JavaFX runtime, e.g.
+ * java Headless --input=sample.txt.
+ *
+ * The program exits once the run is over, whatever threads are left (the
+ * JavaFX toolkit thread, when it was started anyway, is not a daemon).
+ *
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class Headless {
+
+    /**
+     * main
+     *
+     * Run the simulation (or answer the queries) without a GUI and exit.
+     *
+     * @param args command line args, see SimulationConfig
+     */
+    public static void main(String[] args) throws IOException,
+            InterruptedException {
+        SimulationConfig config = SimulationConfig.parse(Arrays.asList(args));
+        int status = 0;
+        if (config.getPartitions() > 1 && config.getPartition() < 0) {
+            /* Split the graph across several processes */
+            status = Simulation.launchPartitions(args, config);
+        } else if (config.getReplayFile() != null
+                && !config.getQueries().isEmpty()) {
+            /* Answer the queries from a recorded run */
+            new Simulation(config).queryTrace();
+        } else {
+            new Simulation(config).runHeadless();
+        }
+        System.exit(status);
+    }
+}
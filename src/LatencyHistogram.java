@@ -0,0 +1,139 @@
+/**
+ * This class records latencies in a histogram whose buckets grow with the
+ * values: each power of two is split into SUB_BUCKETS buckets of the same
+ * width, so a bucket is at most 1/SUB_BUCKETS of the values it holds wide
+ * (the values below SUB_BUCKETS each have a bucket of their own). Recording
+ * a value is a single LongAdder increment, so any number of threads can
+ * record at the same time without contention. Percentiles are approximated
+ * by the upper bound of the bucket they fall in, within RESOLUTION of the
+ * true value.
+ *
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+    /* Bits of a value below its highest bit that pick its bucket */
+    private static final int SUB_BITS = 4;
+    /* Number of buckets each power of two is split into */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /* Number of buckets - up to the highest bit of a positive long */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    /* Largest error of a percentile, relative to its value */
+    public static final double RESOLUTION = 1.0 / SUB_BUCKETS;
+
+    /* Number of values recorded in each bucket */
+    private final LongAdder[] buckets;
+    /* Sum of all the values recorded */
+    private final LongAdder total;
+
+    /**
+     * LatencyHistogram constructor
+     *
+     * Set up an empty histogram.
+     */
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        total = new LongAdder();
+    }
+
+    /**
+     * record method
+     *
+     * Record a single latency.
+     *
+     * @param value latency to record, negative values count as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        buckets[bucketOf(v)].increment();
+        total.add(v);
+    }
+
+    /**
+     * bucketOf method
+     *
+     * @param value value to record, not negative.
+     * @return the bucket holding the value.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        /* The highest bit picks the power of two, the next ones the bucket */
+        int highest = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highest - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS
+                + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * upperBound method
+     *
+     * @param bucket a bucket.
+     * @return the highest value the bucket holds.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * getCount method
+     *
+     * @return number of values recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * getMean method
+     *
+     * @return mean of the values recorded, 0 if there is none.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total.sum() / count;
+    }
+
+    /**
+     * getPercentile method
+     *
+     * @param percentile percentile to find, between 0 and 100.
+     * @return upper bound of the bucket holding the percentile, 0 if no
+     * value was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return upperBound(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,363 @@
+/**
+ * This class represents the mailbox of a Node: the queue its neighbors put
+ * messages on and its own thread takes them from. Unlike an unbounded
+ * PriorityBlockingQueue, the mailbox keeps its memory bounded when the
+ * node is flooded (typically around the base station, when many fires
+ * report at once). Messages are sorted into lanes, each with its own
+ * overload policy:
+ *
+ * - control (burn, create agent, clone agent, terminate): never dropped.
+ *   These are bounded by the graph itself, each node burns only once.
+ * - alert: coalesced, a node only needs one pending alert.
+ * - station report: bounded. Once the lane is full, new reports are dropped
+ *   but for the critical ones (see EventCode.isCritical), which are merged
+ *   into a single overflow batch taken before the lane. Like the control
+ *   messages, these are bounded by the graph itself.
+ * - agent telemetry: bounded and sampled, once the lane is half full only
+ *   one report in SAMPLE_RATE is kept, and none once it is full.
+ *
+ * Messages are taken lane by lane, control messages first.
+ *
+ * The mailbox has many producers (the neighbors of the node) and a single
+ * consumer (the node), so it takes no lock (the overflow batch aside, only
+ * used once the report lane is full): each lane is an MpscQueue and
+ * the bounds are kept with an atomic count per lane, reserved before a
+ * message is put in and given back once it is taken. The node parks while
+ * the mailbox is empty and producers unpark it, the same way MpscQueue does.
+ * The duplicate check scans the lane without a lock, so the same message
+ * offered by two neighbors at the very same moment may get in twice; the
+ * node copes with that like with any other repeated message.
+ *
+ */
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class Mailbox {
+
+    /* Maximum number of station reports waiting in the mailbox */
+    public static final int REPORT_CAPACITY = 256;
+    /* Maximum number of agent telemetry reports waiting in the mailbox */
+    public static final int TELEMETRY_CAPACITY = 64;
+    /* One telemetry report in SAMPLE_RATE is kept once the lane is half full */
+    public static final int SAMPLE_RATE = 4;
+
+    /* Lanes of the mailbox, in the order they are taken from */
+    private static final int CONTROL = 0;
+    private static final int ALERT = 1;
+    private static final int REPORT = 2;
+    private static final int TELEMETRY = 3;
+    private static final int LANES = 4;
+
+    /**
+     * This enum represents what happened to a message offered to the
+     * mailbox.
+     */
+    public enum Outcome {
+        /* The message was put in the mailbox */
+        ACCEPTED,
+        /* The very same message was already waiting in the mailbox */
+        DUPLICATE,
+        /* An equivalent message was already waiting in the mailbox */
+        COALESCED,
+        /* The lane of the message was full */
+        OVERFLOWED,
+        /* The lane was full, the critical reports of the message were
+        merged into the overflow batch already waiting */
+        BATCHED,
+        /* The message was left out by sampling */
+        SAMPLED_OUT
+    }
+
+    /* Messages waiting in each lane */
+    private final MpscQueue<Message>[] lanes;
+    /* Number of messages waiting (or about to be put) in each lane */
+    private final AtomicIntegerArray counts;
+    /* Number of telemetry reports offered while sampling */
+    private final AtomicLong sampled;
+    /* Critical reports that found the report lane full, guarded by itself */
+    private final ReportBatch overflow;
+    /* Source of the first report in the overflow batch, guarded by overflow */
+    private Point overflowSource;
+    /* boolean indicating whether the overflow batch has reports waiting */
+    private volatile boolean overflowing;
+    /* Node thread parked waiting for a message, if any */
+    private volatile Thread waiter;
+    /* Highest number of messages seen waiting, only written by the node */
+    private volatile int peak;
+
+    /**
+     * Mailbox constructor
+     *
+     * Set up an empty mailbox.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Mailbox() {
+        lanes = new MpscQueue[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new MpscQueue<>();
+        }
+        counts = new AtomicIntegerArray(LANES);
+        sampled = new AtomicLong();
+        overflow = new ReportBatch();
+    }
+
+    /**
+     * laneOf method
+     *
+     * @param message a message.
+     * @return the lane the message goes in.
+     */
+    private static int laneOf(Message message) {
+        switch (MessageType.of(message)) {
+            case ALERT:
+                return ALERT;
+            case STATION_REPORT:
+                return REPORT;
+            case AGENT_TELEMETRY:
+                return TELEMETRY;
+            default:
+                return CONTROL;
+        }
+    }
+
+    /**
+     * offer method
+     *
+     * Put a message in the mailbox, unless the overload policy of its lane
+     * leaves it out. This never blocks.
+     *
+     * @param message Message to put in the mailbox.
+     * @return what happened to the message.
+     */
+    public Outcome offer(Message message) {
+        int lane = laneOf(message);
+        switch (lane) {
+            case ALERT:
+                if (!counts.compareAndSet(ALERT, 0, 1)) {
+                    return Outcome.COALESCED;
+                }
+                break;
+            case REPORT:
+                if (containsSame(lanes[REPORT], message)) {
+                    return Outcome.DUPLICATE;
+                }
+                if (!reserve(REPORT, REPORT_CAPACITY)) {
+                    return keepCritical(message);
+                }
+                break;
+            case TELEMETRY:
+                if (containsSame(lanes[TELEMETRY], message)) {
+                    return Outcome.DUPLICATE;
+                }
+                int waiting = counts.get(TELEMETRY);
+                if (waiting >= TELEMETRY_CAPACITY) {
+                    return Outcome.OVERFLOWED;
+                }
+                if (waiting >= TELEMETRY_CAPACITY / 2
+                        && sampled.getAndIncrement() % SAMPLE_RATE != 0) {
+                    return Outcome.SAMPLED_OUT;
+                }
+                if (!reserve(TELEMETRY, TELEMETRY_CAPACITY)) {
+                    return Outcome.OVERFLOWED;
+                }
+                break;
+            default:
+                counts.incrementAndGet(lane);
+                break;
+        }
+        lanes[lane].offer(message);
+        wakeUp();
+        return Outcome.ACCEPTED;
+    }
+
+    /* Unpark the node if it waits for a message */
+    private void wakeUp() {
+        Thread consumer = waiter;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * keepCritical method
+     *
+     * Merge the critical reports of a report that found the report lane
+     * full into the overflow batch. The first one to get in stands for the
+     * whole batch, as one message waiting in the mailbox.
+     *
+     * @param message report that found the lane full.
+     * @return ACCEPTED if it started the overflow batch, BATCHED if it was
+     * merged into the waiting one, OVERFLOWED if it held no critical report.
+     */
+    private Outcome keepCritical(Message message) {
+        synchronized (overflow) {
+            boolean waiting = overflowing;
+            if (!overflow.addCritical(message)) {
+                return Outcome.OVERFLOWED;
+            }
+            if (waiting) {
+                return Outcome.BATCHED;
+            }
+            overflowSource = message.getSourceHeader();
+            counts.incrementAndGet(REPORT);
+            overflowing = true;
+        }
+        wakeUp();
+        return Outcome.ACCEPTED;
+    }
+
+    /**
+     * drainOverflow method
+     *
+     * @return the reports of the overflow batch as a single message, null
+     * if it is empty.
+     */
+    private Message drainOverflow() {
+        synchronized (overflow) {
+            if (!overflowing) {
+                return null;
+            }
+            overflowing = false;
+            counts.decrementAndGet(REPORT);
+            return overflow.drain(overflowSource);
+        }
+    }
+
+    /**
+     * reserve method
+     *
+     * Reserve a place in a bounded lane.
+     *
+     * @param lane lane to reserve a place in.
+     * @param capacity maximum number of messages in the lane.
+     * @return true if there was room left in the lane.
+     */
+    private boolean reserve(int lane, int capacity) {
+        while (true) {
+            int waiting = counts.get(lane);
+            if (waiting >= capacity) {
+                return false;
+            }
+            if (counts.compareAndSet(lane, waiting, waiting + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * containsSame method
+     *
+     * A flooded message is a single object reaching the node through
+     * several neighbors, only keep one copy of it.
+     *
+     * @param queue lane to look in.
+     * @param message Message to look for.
+     * @return true if the very same message is in the lane.
+     */
+    private static boolean containsSame(MpscQueue<Message> queue,
+                                        Message message) {
+        return queue.containsSame(message);
+    }
+
+    /**
+     * poll method
+     *
+     * @return the next message, or null if the mailbox is empty.
+     */
+    private Message poll() {
+        for (int i = 0; i < LANES; i++) {
+            if (i == REPORT && overflowing) {
+                return drainOverflow();
+            }
+            Message message = lanes[i].poll();
+            if (message != null) {
+                counts.decrementAndGet(i);
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * take method
+     *
+     * Take the next message out of the mailbox, waiting for one if it is
+     * empty. Only the thread of the node calls this.
+     *
+     * @return the next message.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Message take() throws InterruptedException {
+        /* The mailbox only grows between two takes, so this sees its peak */
+        int waiting = size();
+        if (waiting > peak) {
+            peak = waiting;
+        }
+        Message message = poll();
+        if (message != null) {
+            return message;
+        }
+        waiter = Thread.currentThread();
+        try {
+            while ((message = poll()) == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+        return message;
+    }
+
+    /**
+     * size method
+     *
+     * @return number of messages waiting in the mailbox.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < LANES; i++) {
+            size += counts.get(i);
+        }
+        return size;
+    }
+
+    /**
+     * peak getter
+     * @return highest number of messages seen waiting in the mailbox.
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    /**
+     * snapshot method
+     *
+     * Only exact while no message is being offered or taken, e.g. while
+     * the simulation is paused.
+     *
+     * @return a copy of the messages waiting in the mailbox, in the order
+     * they would be taken.
+     */
+    public List<Message> snapshot() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < LANES; i++) {
+            if (i == REPORT && overflowing) {
+                synchronized (overflow) {
+                    overflow.forEach((report, count) -> messages.add(report));
+                }
+            }
+            for (Message m : lanes[i]) {
+                messages.add(m);
+            }
+        }
+        return messages;
+    }
+}
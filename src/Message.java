@@ -7,52 +7,361 @@
  */
 
 import java.awt.*;
-import java.util.LinkedList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Message implements Comparable<Message>{
 
+    /*
+     * Destination of the reports, standing for whichever base station is
+     * nearest. Shared by every report, it must never be modified.
+     */
+    public static final Point STATION = new Point(-1, -1);
+
+    /* Last report ID given in this process */
+    private static final AtomicLong lastReportId = new AtomicLong();
+    /* Bits of a report ID below the partition it was made in */
+    private static final int REPORT_ID_BITS = 40;
+    /* Number of visited nodes a message first has room for */
+    private static final int VISITED_CAPACITY = 8;
+
     /* Point representing the Node where the message was created */
     private Point sourceHeader;
     /* Point representing the message's final destination */
-    public final Point destinationHeader;
-    /* Linked list of points indicating previously visited nodes */
-    public final LinkedList<Point> previousHeader;
-    /* String representing the actual message to be passed */
-    public String infoMessage;
+    public Point destinationHeader;
+    /*
+     * Nodes the message visited, as packed points (see pack), only the
+     * first visitedCount are used. Guarded by the message: a flooded
+     * message is shared by every node it reached. Null until the first
+     * visit, and kept when an instruction is recycled, so passing a message
+     * on allocates nothing once the array is big enough.
+     */
+    private long[] visited;
+    /* Number of nodes the message visited */
+    private int visitedCount;
+    /* What the message is about */
+    private EventCode code;
+    /* ID of the agent the message is about, null if none */
+    private String agentId;
+    /* Number the message carries (steps of an agent, size of a batch) */
+    private int count;
+    /* Text of the message, formatted on first use unless free text */
+    private String text;
     /* Int representing the priority of the message (number from 1-3) */
     private int priority;
+    /* Wall clock time (System.nanoTime) at which the message was created */
+    public long timestamp;
+    /*
+     * ID of the message across the partitions of a distributed run, 0 until
+     * the message is first sent to another partition
+     */
+    long linkId;
+    /*
+     * ID of the report across the run, shared by its copies so they are
+     * told apart from the other reports, 0 for an instruction
+     */
+    long reportId;
+    /* Reports carried by the message, null unless it is a batch of them */
+    ReportBatch batch;
+    /* boolean indicating whether the message goes back to the pool */
+    private boolean pooled;
 
     /**
      * Message constructor.
      *
      * This constructor simply sets up the passed in variables to their
-     * relative pre-defined correspondents.
+     * relative pre-defined correspondents. The text is either the name of
+     * an instruction (such as change_to_alert) or free text to show in the
+     * log.
      *
      * @param sourceHeader Point representing where the message was created
      *                     (its source)
      * @param destinationHeader Point representing the final destination of
      *                          the message (note that the point (-1,-1)
      *                          represents the base station.
-     * @param previousHeader LinkedList of points representing the previously
-     *                      visited nodes of the message.
      * @param infoMessage String representing the actual message
      * @param priority Priority, could be 1-2-3, 1 being the highest
      *                 priority, 3 being the lowest.
      */
     public Message(Point sourceHeader, Point destinationHeader,
-                   LinkedList<Point> previousHeader, String infoMessage,
-                   int priority){
+                   String infoMessage, int priority){
+        this(sourceHeader, destinationHeader,
+                EventCode.fromText(infoMessage), null, 0, priority);
+        if (code == EventCode.TEXT) {
+            this.text = infoMessage;
+        }
+        this.reportId = lastReportId.incrementAndGet();
+    }
 
+    /**
+     * Message constructor.
+     *
+     * @param sourceHeader Point of the node the message is about.
+     * @param destinationHeader Point of the destination, STATION for a
+     *                          report.
+     * @param code what the message is about.
+     * @param agentId ID of the agent the message is about, null if none.
+     * @param count number the message carries.
+     * @param priority priority, 1 being the highest.
+     */
+    private Message(Point sourceHeader, Point destinationHeader,
+                    EventCode code, String agentId, int count,
+                    int priority) {
         /* Initial location of the message */
         this.sourceHeader = sourceHeader;
         /* Final destination of the message */
         this.destinationHeader = destinationHeader;
-        /* List of locations where the point has traveled */
-        this.previousHeader = previousHeader;
-        /* actual message to be passed in */
-        this.infoMessage = infoMessage;
+        /* What the message is about and its fields */
+        this.code = code;
+        this.agentId = agentId;
+        this.count = count;
         /* priority - 3 levels, high:1, medium:2, low: 3 */
         this.priority = priority;
+        /* creation time, used to measure how long the message travelled */
+        this.timestamp = System.nanoTime();
+    }
+
+    /**
+     * report method
+     *
+     * Create a report going to the nearest base station. This allocates
+     * the report, the only allocation in the life of a report: it is kept
+     * by the log and the history once it reached a station, so it cannot go
+     * back to a pool like the instructions.
+     *
+     * @param source Point of the node the report is about.
+     * @param code what the report is about.
+     * @param agentId ID of the agent the report is about, null if none.
+     * @param count number the report carries, 0 if none.
+     * @param priority priority of the report, 3 for the agent telemetry.
+     * @return the report.
+     */
+    public static Message report(Point source, EventCode code,
+                                 String agentId, int count, int priority) {
+        Message report = new Message(source, STATION, code, agentId, count,
+                priority);
+        report.reportId = lastReportId.incrementAndGet();
+        return report;
+    }
+
+    /**
+     * setPartition method
+     *
+     * Number the reports made in this process after the partition it runs,
+     * so the reports of different partitions never share an ID.
+     *
+     * @param partition partition run by this process.
+     */
+    public static void setPartition(int partition) {
+        lastReportId.set((long) (partition + 1) << REPORT_ID_BITS);
+    }
+
+    /**
+     * instruction method
+     *
+     * Get an instruction for a single node. The message is taken from the
+     * pool when one is free there, and goes back to it once the node is
+     * done with it (see recycle), so the instructions do not allocate in
+     * the long run.
+     *
+     * @param source Point of the node sending the instruction.
+     * @param destination Point of the node the instruction is for.
+     * @param code the instruction.
+     * @param priority priority of the instruction.
+     * @return the instruction.
+     */
+    public static Message instruction(Point source, Point destination,
+                                      EventCode code, int priority) {
+        Message message = MessagePool.obtain();
+        if (message == null) {
+            message = new Message(source, destination, code, null, 0,
+                    priority);
+        } else {
+            message.sourceHeader = source;
+            message.destinationHeader = destination;
+            message.code = code;
+            message.priority = priority;
+            message.timestamp = System.nanoTime();
+        }
+        message.pooled = true;
+        return message;
+    }
+
+    /**
+     * recycle method
+     *
+     * Give an instruction back to the pool once its node is done with it.
+     * Nothing may use the message afterwards. Other messages are left to
+     * the garbage collector: a report may still be in a log or a batch.
+     */
+    public void recycle() {
+        if (!pooled) {
+            return;
+        }
+        pooled = false;
+        sourceHeader = null;
+        destinationHeader = null;
+        visitedCount = 0;
+        agentId = null;
+        text = null;
+        batch = null;
+        linkId = 0;
+        MessagePool.release(this);
+    }
+
+    /**
+     * sourceHeader getter
+     * @return location of the node where the message was created.
+     */
+    public Point getSourceHeader() {
+        return sourceHeader;
+    }
+
+    /**
+     * priority getter
+     * @return priority of the message, 1 being the highest.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * code getter
+     * @return what the message is about.
+     */
+    public EventCode getCode() {
+        return code;
+    }
+
+    /**
+     * agentId getter
+     * @return ID of the agent the message is about, null if none.
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * count getter
+     * @return number the message carries (steps of an agent, size of a
+     * batch), 0 if none.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * getText method
+     *
+     * The text is only formatted the first time it is asked for, typically
+     * by the log window; the simulation itself never needs it.
+     *
+     * @return the human readable text of the message.
+     */
+    public String getText() {
+        String formatted = text;
+        if (formatted == null) {
+            formatted = code.format(this);
+            text = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * isForBaseStation method
+     *
+     * @return true if the message is a log entry going to the base station
+     * (its destination is the point (-1,-1)).
+     */
+    public boolean isForBaseStation() {
+        return destinationHeader == STATION || (destinationHeader != null
+                && destinationHeader.x == -1 && destinationHeader.y == -1);
+    }
+
+    /**
+     * addVisited method
+     *
+     * Note that the message went through a node.
+     *
+     * @param p Point of the node.
+     */
+    public synchronized void addVisited(Point p) {
+        if (visited == null) {
+            visited = new long[VISITED_CAPACITY];
+        } else if (visitedCount == visited.length) {
+            visited = Arrays.copyOf(visited, 2 * visitedCount);
+        }
+        visited[visitedCount++] = pack(p);
+    }
+
+    /**
+     * hasVisited method
+     *
+     * @param p Point of a node.
+     * @return true if the message went through the node.
+     */
+    public synchronized boolean hasVisited(Point p) {
+        long packed = pack(p);
+        for (int i = 0; i < visitedCount; i++) {
+            if (visited[i] == packed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * visitedCount getter
+     * @return number of nodes the message went through.
+     */
+    public synchronized int getVisitedCount() {
+        return visitedCount;
+    }
+
+    /**
+     * reportId getter
+     * @return ID of the report across the run, 0 for an instruction.
+     */
+    public long getReportId() {
+        return reportId;
+    }
+
+    /**
+     * equals method Override.
+     *
+     * Two messages are equal if they are copies of the same report (same
+     * report ID), e.g. a report that came through different paths or was
+     * read back from a checkpoint. Two reports telling the same thing, such
+     * as an agent walking on the same node again, are not equal. An
+     * instruction is only equal to itself.
+     *
+     * @param obj Object to compare with.
+     * @return true if obj is a copy of the same report.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Message)) {
+            return false;
+        }
+        Message other = (Message) obj;
+        return reportId != 0 && reportId == other.reportId;
+    }
+
+    /**
+     * hashCode method Override.
+     *
+     * @return hash code consistent with equals.
+     */
+    @Override
+    public int hashCode() {
+        return reportId != 0 ? Long.hashCode(reportId)
+                : System.identityHashCode(this);
     }
 
     /**
@@ -72,4 +381,107 @@ public class Message implements Comparable<Message>{
         }
         return this.priority-o.priority;
     }
+
+    /**
+     * writeTo method
+     *
+     * Write the message in a compact binary form, used by the checkpoints.
+     * The text is not written, only the event code and fields it is
+     * formatted from (free text aside). A batch of reports is written with
+     * the reports it carries.
+     *
+     * @param out where to write the message.
+     * @throws IOException if the message cannot be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        writePoint(out, sourceHeader);
+        writePoint(out, destinationHeader);
+        long[] visited;
+        synchronized (this) {
+            visited = visitedCount == 0 ? new long[0]
+                    : Arrays.copyOf(this.visited, visitedCount);
+        }
+        VarInts.writeUnsigned(out, visited.length);
+        for (long p : visited) {
+            VarInts.writeSigned(out, (int) (p >> 32));
+            VarInts.writeSigned(out, (int) p);
+        }
+        out.writeByte(code.ordinal());
+        out.writeBoolean(agentId != null);
+        if (agentId != null) {
+            out.writeUTF(agentId);
+        }
+        VarInts.writeUnsigned(out, count);
+        if (code == EventCode.TEXT) {
+            out.writeUTF(getText());
+        }
+        out.writeByte(priority);
+        VarInts.writeUnsigned(out, reportId);
+        out.writeBoolean(batch != null);
+        if (batch != null) {
+            batch.writeTo(out);
+        }
+    }
+
+    /**
+     * readFrom method
+     *
+     * Read back a message written by writeTo.
+     *
+     * @param in where to read the message from.
+     * @return the message read.
+     * @throws IOException if the message cannot be read.
+     */
+    public static Message readFrom(DataInput in) throws IOException {
+        Point source = readPoint(in);
+        Point destination = readPoint(in);
+        if (destination.equals(STATION)) {
+            destination = STATION;
+        }
+        int visited = (int) VarInts.readUnsigned(in);
+        Point[] previous = new Point[visited];
+        for (int i = 0; i < visited; i++) {
+            previous[i] = readPoint(in);
+        }
+        EventCode code = EventCode.values()[in.readUnsignedByte()];
+        String agentId = in.readBoolean() ? in.readUTF() : null;
+        int count = (int) VarInts.readUnsigned(in);
+        String text = code == EventCode.TEXT ? in.readUTF() : null;
+        Message message = new Message(source, destination, code, agentId,
+                count, in.readUnsignedByte());
+        for (Point p : previous) {
+            message.addVisited(p);
+        }
+        message.text = text;
+        message.reportId = VarInts.readUnsigned(in);
+        /* The reports made after a restore follow the ones read back */
+        long id = message.reportId;
+        long last = lastReportId.get();
+        while (id >>> REPORT_ID_BITS == last >>> REPORT_ID_BITS && id > last
+                && !lastReportId.compareAndSet(last, id)) {
+            last = lastReportId.get();
+        }
+        if (in.readBoolean()) {
+            message.batch = new ReportBatch();
+            message.batch.readFrom(in);
+        }
+        return message;
+    }
+
+    /* A point as a single long, x in the high half */
+    private static long pack(Point p) {
+        return ((long) p.x << 32) | (p.y & 0xFFFFFFFFL);
+    }
+
+    /* Write a point as two zig-zag varints */
+    static void writePoint(DataOutput out, Point p) throws IOException {
+        VarInts.writeSigned(out, p.x);
+        VarInts.writeSigned(out, p.y);
+    }
+
+    /* Read a point written by writePoint */
+    static Point readPoint(DataInput in) throws IOException {
+        int x = (int) VarInts.readSigned(in);
+        return new Point(x, (int) VarInts.readSigned(in));
+    }
 }
@@ -0,0 +1,73 @@
+/**
+ * This class counts messages by MessageType. Each type has its own
+ * LongAdder, so the threads counting messages never contend on a shared
+ * counter.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MessageCounters {
+
+    /* One counter per message type, indexed by ordinal */
+    private final LongAdder[] counters;
+
+    /**
+     * MessageCounters constructor
+     *
+     * Set up a counter at 0 for each message type.
+     */
+    public MessageCounters() {
+        counters = new LongAdder[MessageType.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * increment method
+     *
+     * @param type type of the message to count.
+     */
+    public void increment(MessageType type) {
+        counters[type.ordinal()].increment();
+    }
+
+    /**
+     * get method
+     *
+     * @param type type of the messages.
+     * @return number of messages of this type counted so far.
+     */
+    public long get(MessageType type) {
+        return counters[type.ordinal()].sum();
+    }
+
+    /**
+     * total method
+     *
+     * @return number of messages of any type counted so far.
+     */
+    public long total() {
+        long total = 0;
+        for (LongAdder counter : counters) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * toMap method
+     *
+     * @return the count of each message type, by type name.
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (MessageType type : MessageType.values()) {
+            map.put(type.name(), get(type));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * This class keeps the instruction messages nodes are done with, so new
+ * instructions can reuse them instead of allocating. An instruction goes to
+ * a single node, which gives it back once it processed it (Message.recycle).
+ *
+ * The pool is a fixed array of slots. A thread only looks at a few slots
+ * around a place picked from its ID, taking a message with a compare and
+ * set on its slot: no lock, no allocation, and since a slot either holds a
+ * free message or nothing, taking or giving back a message is always safe
+ * whatever happened to the slot meanwhile. When the slots looked at are all
+ * empty (or all full) the caller allocates (or drops the message).
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class MessagePool {
+
+    /* Number of slots, a power of two */
+    private static final int SLOTS = 1024;
+    /* Number of slots a thread looks at */
+    private static final int PROBES = 8;
+
+    /* Free messages, null for an empty slot */
+    private static final AtomicReferenceArray<Message> slots =
+            new AtomicReferenceArray<>(SLOTS);
+
+    private MessagePool() {
+    }
+
+    /**
+     * obtain method
+     *
+     * @return a free message, null if none was found.
+     */
+    static Message obtain() {
+        int home = home();
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & (SLOTS - 1);
+            Message message = slots.get(slot);
+            if (message != null && slots.compareAndSet(slot, message, null)) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * release method
+     *
+     * Give a message back to the pool. The message is left to the garbage
+     * collector if the pool is full around the current thread.
+     *
+     * @param message free message.
+     */
+    static void release(Message message) {
+        int home = home();
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & (SLOTS - 1);
+            if (slots.get(slot) == null
+                    && slots.compareAndSet(slot, null, message)) {
+                return;
+            }
+        }
+    }
+
+    /* First slot the current thread looks at */
+    private static int home() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 54);
+    }
+}
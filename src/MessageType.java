@@ -0,0 +1,58 @@
+/**
+ * This enum represents the different kinds of Message objects passed among
+ * the nodes. It is only used to group messages in the metrics of the
+ * simulation; it is coarser than the EventCode the message carries.
+ *
+ */
+
+public enum MessageType {
+    /* Instruction to change the state of a node to alert - yellow */
+    ALERT,
+    /* Instruction to change the state of a node to burning - red */
+    BURN,
+    /* Instruction to create an agent on a node */
+    CREATE_AGENT,
+    /* Instruction to make a node clone its agent */
+    CLONE_AGENT,
+    /* Instruction to change the state of a node back to safe - blue */
+    SAFE,
+    /* Log entry sent to the base station about a node or an agent */
+    STATION_REPORT,
+    /* Log entry sent to the base station about an agent walking around */
+    AGENT_TELEMETRY,
+    /* Instruction to stop the node thread at the end of the simulation */
+    TERMINATE;
+
+    /**
+     * of method
+     *
+     * Find the type of a message. Messages going to the base station are
+     * reports, the low priority ones being the agent telemetry unless they
+     * are critical (see EventCode.isCritical), like an agent reaching the
+     * fire.
+     *
+     * @param message Message to classify.
+     * @return the type of the message.
+     */
+    public static MessageType of(Message message) {
+        if (message.isForBaseStation()) {
+            return message.getPriority() == 3
+                    && !message.getCode().isCritical() ? AGENT_TELEMETRY
+                    : STATION_REPORT;
+        }
+        switch (message.getCode()) {
+            case CHANGE_TO_ALERT:
+                return ALERT;
+            case CHANGE_TO_BURN:
+                return BURN;
+            case CREATE_AGENT:
+                return CREATE_AGENT;
+            case CLONE_AGENT:
+                return CLONE_AGENT;
+            case CHANGE_TO_SAFE:
+                return SAFE;
+            default:
+                return TERMINATE;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * This class represents an unbounded lock-free queue with many producer
+ * threads and a single consumer thread, like the mailbox of a node (all its
+ * neighbors put messages in, only the node takes them out) or of an agent.
+ *
+ * It is a linked list: producers swap their link in as the tail with a
+ * single atomic exchange and then link the previous tail to it, the
+ * consumer moves the head along without any atomic operation.
+ * A producer that has swapped the tail but not linked it yet hides the
+ * messages behind it for a moment, which is fine since it always links it
+ * right after.
+ *
+ * When the queue is empty the consumer parks, and producers unpark it after
+ * linking their message. The consumer publishes itself before checking the
+ * queue one last time and the producer links its message before checking
+ * for a consumer, so one of them always sees the other.
+ *
+ * The links the consumer is done with are kept in a few spare slots, taken
+ * with a compare and set like the pooled messages (see MessagePool), so a
+ * queue that does not grow allocates nothing once it has warmed up. Only
+ * the producer that swapped a link in writes its next link, and the
+ * consumer is done with a link once it moved past it, so a spare link is
+ * never written to by anybody else.
+ *
+ */
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class MpscQueue<E> implements Iterable<E> {
+
+    /**
+     * This class represents a link of the queue. The value of the head link
+     * has already been taken.
+     */
+    private static final class Link<E> {
+        /* Element held by the link, null once taken */
+        E value;
+        /* Next link, null for the tail */
+        volatile Link<E> next;
+
+        Link(E value) {
+            this.value = value;
+        }
+    }
+
+    /* Number of spare links kept by a queue */
+    private static final int SPARE_LINKS = 8;
+
+    /* Last link of the queue, swapped by the producers */
+    private final AtomicReference<Link<E>> tail;
+    /* Link holding the last element taken, only moved by the consumer */
+    private volatile Link<E> head;
+    /* Consumer thread parked waiting for an element, if any */
+    private volatile Thread waiter;
+    /* Links taken out of the queue, null for an empty slot */
+    private final AtomicReferenceArray<Link<E>> spares;
+
+    /**
+     * MpscQueue constructor
+     *
+     * Set up an empty queue.
+     */
+    public MpscQueue() {
+        Link<E> stub = new Link<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+        spares = new AtomicReferenceArray<>(SPARE_LINKS);
+    }
+
+    /**
+     * offer method
+     *
+     * Put an element at the end of the queue. This never blocks and any
+     * thread may call it.
+     *
+     * @param element element to put in the queue, not null.
+     */
+    public void offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        Link<E> link = spareLink();
+        if (link == null) {
+            link = new Link<>(element);
+        } else {
+            link.value = element;
+        }
+        tail.getAndSet(link).next = link;
+        Thread consumer = waiter;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * poll method
+     *
+     * Take the first element out of the queue. Only the consumer thread
+     * calls this.
+     *
+     * @return the first element, or null if the queue is empty.
+     */
+    public E poll() {
+        Link<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        E element = next.value;
+        next.value = null;
+        Link<E> done = head;
+        head = next;
+        releaseLink(done);
+        return element;
+    }
+
+    /* A spare link, null if there is none */
+    private Link<E> spareLink() {
+        for (int i = 0; i < SPARE_LINKS; i++) {
+            Link<E> link = spares.get(i);
+            if (link != null && spares.compareAndSet(i, link, null)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /* Keep a link the consumer moved past, if a spare slot is free */
+    private void releaseLink(Link<E> link) {
+        link.next = null;
+        for (int i = 0; i < SPARE_LINKS; i++) {
+            if (spares.get(i) == null && spares.compareAndSet(i, null, link)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * take method
+     *
+     * Take the first element out of the queue, waiting for one if it is
+     * empty. Only the consumer thread calls this.
+     *
+     * @return the first element.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        waiter = Thread.currentThread();
+        try {
+            while ((element = poll()) == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+        return element;
+    }
+
+    /**
+     * isEmpty method
+     *
+     * @return true if no element is waiting in the queue.
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * contains method
+     *
+     * Any thread may call this, though the answer may be out of date as
+     * soon as it is given.
+     *
+     * @param element element to look for.
+     * @return true if an equal element is waiting in the queue.
+     */
+    public boolean contains(Object element) {
+        for (E e : this) {
+            if (e.equals(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * containsSame method
+     *
+     * Same as contains, but looks for the very same element and walks the
+     * links without an iterator, so it allocates nothing. Any thread may
+     * call this.
+     *
+     * @param element element to look for.
+     * @return true if the element itself is waiting in the queue.
+     */
+    public boolean containsSame(E element) {
+        for (Link<E> link = head.next; link != null; link = link.next) {
+            if (link.value == element) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * iterator method
+     *
+     * Walk through the elements waiting in the queue, first to last. Any
+     * thread may call this, elements taken meanwhile are skipped.
+     *
+     * @return an iterator over the waiting elements.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Link<E> link = head;
+            private E next = advance();
+
+            private E advance() {
+                while ((link = link.next) != null) {
+                    E value = link.value;
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E element = next;
+                next = advance();
+                return element;
+            }
+        };
+    }
+}
@@ -6,17 +6,18 @@
  *
  */
 
-import javafx.application.Platform;
 import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.LinkedList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Node implements Runnable {
 
     /* Node's personal blocking queue */
-    private final BlockingQueue<Message> nodeBlockQueue;
+    private final Mailbox nodeBlockQueue;
     /* Boolean indicating whether the node is the base station or not */
     public boolean isBaseStation;
     /* integer keeping track of the number of agents created on the node */
@@ -31,10 +32,67 @@ public class Node implements Runnable {
     public Display GUI;
     /* boolean indicating whether we can exit the thread or not */
     private boolean exit;
-    /* boolean indicating whether there currently is an agent on the node */
-    private boolean isAgentOnNode;
-    /* Instance of the current agent on the node */
-    private Agent agent;
+    /* Agent slot of the node: no agent, an agent requested, or an agent */
+    private final AtomicInteger agentSlot;
+    /* The node has no agent */
+    private static final int NO_AGENT = 0;
+    /* A create_agent message is on its way to the node */
+    private static final int AGENT_REQUESTED = 1;
+    /* The node has an agent */
+    private static final int AGENT_ON_NODE = 2;
+    /* boolean indicating whether the node already cloned its agent */
+    private boolean cloned;
+    /*
+     * Instance of the current agent on the node, set by the agent (on the
+     * timing wheel) as it moves and read by the node thread
+     */
+    private volatile Agent agent;
+    /* Timer scheduler shared by all the nodes of the simulation */
+    private TimingWheel timingWheel;
+    /* Counts outstanding work to detect the end of the simulation */
+    private TerminationDetector terminationDetector;
+    /* boolean indicating whether the burning node notified its neighbors */
+    private boolean spread;
+    /* Metrics of the node, exposed through JMX */
+    private NodeMetrics metrics;
+    /* Integer identifying the node, from 0 to the number of nodes - 1 */
+    private final int nodeId;
+    /* Recorder of the simulation trace, null if the run is not recorded */
+    private TraceRecorder traceRecorder;
+    /* Random number generator of the node */
+    private SimRandom random;
+    /* Gate used to pause the simulation, for instance for a checkpoint */
+    private PauseGate pauseGate;
+    /* Message taken from the queue and not processed yet */
+    private volatile Message inHand;
+    /* Number of messages taken from the queue, only written by the node */
+    private volatile long handled;
+    /* Neighbor the node last passed a report on to, null if none yet */
+    private volatile Node lastHop;
+    /* Link to the other partitions, null if the graph is not partitioned */
+    private PartitionLink partitionLink;
+    /* boolean indicating whether the node is owned by another partition */
+    private boolean remote;
+    /* Routes the reports to the nearest station, null to flood them */
+    private StationRouter router;
+    /* Reports held to be passed on together, guarded by itself */
+    private final ReportBatch pendingReports;
+    /* boolean indicating whether a timer will send the held reports */
+    private boolean flushScheduled;
+    /* Simulated ms the reports are held, 0 to pass them on right away */
+    private long reportWindow;
+    /* How much the agents on the node report */
+    private Telemetry telemetry;
+    /* Agents alive in the simulation */
+    private AgentPopulation agentPopulation;
+    /* Distances to the fire the agents walk down, null for random walks */
+    private DistanceField distanceField;
+    /* Nodes of the simulation by state */
+    private StateIndex stateIndex;
+    /* History of the states of the run, null until it starts */
+    private StateHistory stateHistory;
+    /* File log of the base stations, null if there is none */
+    private StationLog stationLog;
 
     /**
      * Node Constructor
@@ -43,19 +101,24 @@ public class Node implements Runnable {
      * state, a location, an initial blocking queue, and a boolean indicating
      * whether there is an agent on the node or not. It will simply set up
      * and initialize all the passed in variables.
+     * @param nodeId Integer identifying the node, from 0 to the number of
+     *               nodes - 1
      * @param adjacentNodes Linked list of adjacent nodes
      * @param state string representing the state of the node
      * @param nodeLocation Point representing the location of the node
      * @param isBaseStation Boolean indicating whether the node is the base
      *                      station or not
-     * @param nodeBlockQueue Node's personal blocking queue
+     * @param nodeBlockQueue Node's personal mailbox
      * @param isAgentOnNode boolean indicating whether there currently is an
      *                      agent on the node
      */
-    public Node(LinkedList<Node> adjacentNodes, String state, Point nodeLocation,
+    public Node(int nodeId, LinkedList<Node> adjacentNodes, String state,
+                Point nodeLocation,
                 boolean isBaseStation,
-                BlockingQueue<Message> nodeBlockQueue,
+                Mailbox nodeBlockQueue,
                 boolean isAgentOnNode) {
+        /* ID of the node, used in the binary files */
+        this.nodeId = nodeId;
         /* List of adjacent points */
         this.adjacentNodes = adjacentNodes;
         /* State can be green, blue, yellow or red */
@@ -68,10 +131,13 @@ public class Node implements Runnable {
         this.nodeBlockQueue = nodeBlockQueue;
         /* Set the initial exit variable to false */
         exit = false;
-        /* set up the agent on node boolean */
-        this.isAgentOnNode = isAgentOnNode;
+        /* set up the agent slot */
+        this.agentSlot = new AtomicInteger(isAgentOnNode ? AGENT_ON_NODE
+                : NO_AGENT);
         /* Initialize the agentCounter to 0 */
         agentCounter = 0;
+        /* No report held yet */
+        pendingReports = new ReportBatch();
 
     }
 
@@ -109,23 +175,57 @@ public class Node implements Runnable {
      * @return Boolean indicating if an agent is on the node or not.
      */
     public boolean getAgentOnNodeBoolean(){
-        return this.isAgentOnNode;
+        return agentSlot.get() == AGENT_ON_NODE;
     }
 
     /**
      * setAgentOnNodeBoolean method
      *
-     * simple method to update the isAgentOnNode variable
+     * simple method to update the agent slot, whoever held it
      *
      * @param isAgentOnNode boolean indicating if an agent is on a current
      *                      node or not.
      * @return the current node.
      */
     public Node setAgentOnNodeBoolean(boolean isAgentOnNode){
-        this.isAgentOnNode = isAgentOnNode;
+        agentSlot.set(isAgentOnNode ? AGENT_ON_NODE : NO_AGENT);
+        if (GUI != null) {
+            GUI.nodeChanged(this);
+        }
         return this;
     }
 
+    /**
+     * requestAgent method
+     *
+     * Claim the agent slot of the node for a create_agent message, so a
+     * node never has more than one such message on its way.
+     *
+     * @return true if the slot was free and the message may be sent.
+     */
+    public boolean requestAgent() {
+        return agentSlot.compareAndSet(NO_AGENT, AGENT_REQUESTED);
+    }
+
+    /**
+     * placeAgent method
+     *
+     * Claim the agent slot of the node for an agent moving in or being
+     * created, so two agents never end up on the same node.
+     *
+     * @return true if the node had no agent and now holds the slot.
+     */
+    public boolean placeAgent() {
+        if (agentSlot.compareAndSet(AGENT_REQUESTED, AGENT_ON_NODE)
+                || agentSlot.compareAndSet(NO_AGENT, AGENT_ON_NODE)) {
+            if (GUI != null) {
+                GUI.nodeChanged(this);
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * addAdjacentPoint method
      * <p>
@@ -159,6 +259,34 @@ public class Node implements Runnable {
         return this;
     }
 
+    /**
+     * changeState method
+     * <p>
+     * Change the state of the node while the simulation is running.
+     *
+     * @param newState the new state of the node.
+     */
+    private void changeState(String newState) {
+        String oldState = this.state;
+        this.state = newState;
+        if (GUI != null) {
+            GUI.nodeChanged(this);
+        }
+        SimulationEvents.stateChanged(this, oldState, newState);
+        if (traceRecorder != null) {
+            traceRecorder.stateChanged(this);
+        }
+        /* Keep the ghost copies in the other partitions up to date */
+        if (partitionLink != null) {
+            partitionLink.stateChanged(this);
+        }
+        /* A burning station no longer takes reports */
+        if (router != null && isBaseStation && newState.equals("red")) {
+            router.invalidate();
+        }
+        stateUpdated();
+    }
+
     /**
      * getNodeLocation method
      * <p>
@@ -206,45 +334,686 @@ public class Node implements Runnable {
         this.GUI = GUI;
     }
 
+    /**
+     * setTimingWheel method
+     * <p>
+     * This method simply references the timer scheduler shared by all the
+     * nodes.
+     *
+     * @param timingWheel the shared timer scheduler
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     * timingWheel getter
+     * @return the timer scheduler shared by all the nodes.
+     */
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    /**
+     * setTerminationDetector method
+     * <p>
+     * This method simply references the detector that keeps track of the
+     * outstanding work of the simulation.
+     *
+     * @param terminationDetector the shared termination detector
+     */
+    public void setTerminationDetector(TerminationDetector terminationDetector) {
+        this.terminationDetector = terminationDetector;
+    }
+
+    /**
+     * terminationDetector getter
+     * @return the detector keeping track of the outstanding work.
+     */
+    public TerminationDetector getTerminationDetector() {
+        return terminationDetector;
+    }
+
+    /**
+     * setMetrics method
+     * <p>
+     * This method simply references the metrics of the node.
+     *
+     * @param metrics the metrics of the node
+     */
+    public void setMetrics(NodeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * metrics getter
+     * @return the metrics of the node.
+     */
+    public NodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * setTraceRecorder method
+     * <p>
+     * This method simply references the recorder of the simulation trace.
+     *
+     * @param traceRecorder the trace recorder, null to not record the run
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * traceRecorder getter
+     * @return the recorder of the simulation trace, null if the run is not
+     * recorded.
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * setRandom method
+     * <p>
+     * This method simply sets the random number generator of the node.
+     *
+     * @param random the random number generator of the node
+     */
+    public void setRandom(SimRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * random getter
+     * @return the random number generator of the node.
+     */
+    public SimRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * setPauseGate method
+     * <p>
+     * This method simply references the gate used to pause the simulation.
+     *
+     * @param pauseGate the shared pause gate
+     */
+    public void setPauseGate(PauseGate pauseGate) {
+        this.pauseGate = pauseGate;
+    }
+
+    /**
+     * pauseGate getter
+     * @return the gate used to pause the simulation.
+     */
+    public PauseGate getPauseGate() {
+        return pauseGate;
+    }
+
+    /**
+     * setPartitionLink method
+     * <p>
+     * This method references the link to the other partitions of the
+     * graph. A node owned by another partition is only a ghost copy here:
+     * it has no thread, messages for it are sent over the link and its
+     * state is kept up to date by its owner.
+     *
+     * @param partitionLink link to the other partitions
+     * @param remote true if the node is owned by another partition
+     */
+    public void setPartitionLink(PartitionLink partitionLink, boolean remote) {
+        this.partitionLink = partitionLink;
+        this.remote = remote;
+    }
+
+    /**
+     * router setter
+     *
+     * @param router routes the reports to the nearest base station, null
+     *               to flood them through the graph instead.
+     */
+    public void setRouter(StationRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * reportWindow setter
+     *
+     * @param reportWindow simulated milliseconds the node holds the reports
+     *                     it passes on to send them together, 0 to pass
+     *                     every report on right away.
+     */
+    public void setReportWindow(long reportWindow) {
+        this.reportWindow = reportWindow;
+    }
+
+    /**
+     * telemetry setter
+     *
+     * @param telemetry how much the agents on the node report.
+     */
+    public void setTelemetry(Telemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * telemetry getter
+     * @return how much the agents on the node report.
+     */
+    public Telemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * agentPopulation setter
+     *
+     * @param agentPopulation agents alive in the simulation.
+     */
+    public void setAgentPopulation(AgentPopulation agentPopulation) {
+        this.agentPopulation = agentPopulation;
+    }
+
+    /**
+     * agentPopulation getter
+     * @return agents alive in the simulation.
+     */
+    public AgentPopulation getAgentPopulation() {
+        return agentPopulation;
+    }
+
+    /**
+     * distanceField setter
+     *
+     * @param distanceField distances to the fire the agents walk down, null
+     *                      for agents walking at random.
+     */
+    public void setDistanceField(DistanceField distanceField) {
+        this.distanceField = distanceField;
+    }
+
+    /**
+     * distanceField getter
+     * @return distances to the fire the agents walk down, null for agents
+     * walking at random.
+     */
+    public DistanceField getDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * stateIndex setter
+     *
+     * @param stateIndex nodes of the simulation by state.
+     */
+    public void setStateIndex(StateIndex stateIndex) {
+        this.stateIndex = stateIndex;
+    }
+
+    /**
+     * stateHistory setter
+     *
+     * @param stateHistory history of the states of the run.
+     */
+    public void setStateHistory(StateHistory stateHistory) {
+        this.stateHistory = stateHistory;
+    }
+
+    /**
+     * stationLog setter
+     *
+     * @param stationLog file log of the base stations, null for none.
+     */
+    public void setStationLog(StationLog stationLog) {
+        this.stationLog = stationLog;
+    }
+
+    /**
+     * stateUpdated method
+     *
+     * Tell the state index, the history and the distance field about the
+     * new state of the node. Called on every state change, including those
+     * of ghost copies.
+     */
+    public void stateUpdated() {
+        if (stateIndex != null) {
+            stateIndex.stateChanged(this);
+        }
+        if (stateHistory != null) {
+            stateHistory.stateChanged(this);
+        }
+        if (distanceField != null) {
+            if (DistanceField.isFire(this)) {
+                distanceField.addSource(this);
+            } else if (distanceField.distance(this) == 0) {
+                distanceField.removeSource(this);
+            }
+        }
+    }
+
+    /**
+     * isRemote method
+     * @return true if the node is a ghost copy of a node owned by another
+     * partition.
+     */
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /**
+     * partitionLink getter
+     * @return the link to the other partitions, null if the graph is not
+     * partitioned.
+     */
+    public PartitionLink getPartitionLink() {
+        return partitionLink;
+    }
+
+    /**
+     * getPendingMessages method
+     *
+     * @return number of messages waiting in the blocking queue or taken
+     * from it but not processed yet.
+     */
+    public int getPendingMessages() {
+        return nodeBlockQueue.size() + (inHand != null ? 1 : 0);
+    }
+
+    /**
+     * needsToSpread method
+     * @return true if the node is burning but has not notified its
+     * neighbors yet.
+     */
+    public boolean needsToSpread() {
+        return state.equals("red") && !spread;
+    }
+
+    /**
+     * nodeId getter
+     * @return the integer identifying the node.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * getMailboxDepth method
+     * @return the number of messages waiting in the node's blocking queue.
+     */
+    public int getMailboxDepth() {
+        return nodeBlockQueue.size();
+    }
+
+    /**
+     * getPeakMailboxDepth method
+     * @return the highest number of messages seen waiting in the node's
+     * blocking queue.
+     */
+    public int getPeakMailboxDepth() {
+        return nodeBlockQueue.getPeak();
+    }
+
+    /**
+     * getMailboxSnapshot method
+     * @return a copy of the messages waiting in the node's blocking queue,
+     * only exact while the simulation is paused (see Mailbox).
+     */
+    public java.util.List<Message> getMailboxSnapshot() {
+        return nodeBlockQueue.snapshot();
+    }
+
+    /**
+     * handledMessages getter
+     * @return the number of messages the node took from its blocking
+     * queue, a measure of its progress.
+     */
+    public long getHandledMessages() {
+        return handled;
+    }
+
+    /**
+     * lastHop getter
+     * @return the neighbor the node last passed a report on to, null if
+     * none yet.
+     */
+    public Node getLastHop() {
+        return lastHop;
+    }
+
+    /**
+     * agent getter
+     * @return the agent currently on the node, null if there is none.
+     */
+    public Agent getAgent() {
+        return agent;
+    }
+
     /**
      * addToBlockingQueue method
      * <p>
-     * Simple method that adds a Message object to the blocking
-     * queue of our current node.
+     * Simple method that adds a Message object to the mailbox of our
+     * current node. Every message put in the mailbox counts as outstanding
+     * work until the node is done processing it. The mailbox may leave the
+     * message out (a duplicate, or an overloaded lane), see Mailbox.
      *
      * @param message Message representing the message to be passed in.
      * @throws InterruptedException exception handling for message passing.
      */
     public void addToBlockingQueue(Message message) throws InterruptedException {
-        if (!nodeBlockQueue.contains(message)) {
-            nodeBlockQueue.put(message);
+        /* The node lives in another partition, send the message there */
+        if (remote) {
+            partitionLink.send(this, message);
+            message.recycle();
+            return;
+        }
+        /* Count the work before the node thread can see the message */
+        terminationDetector.workStarted();
+        Mailbox.Outcome outcome = nodeBlockQueue.offer(message);
+        if (outcome == Mailbox.Outcome.ACCEPTED) {
+            SimulationEvents.messageEnqueued(this, message);
+        } else {
+            terminationDetector.workCancelled();
+            if (outcome == Mailbox.Outcome.DUPLICATE) {
+                metrics.messageDropped(message);
+            } else if (outcome == Mailbox.Outcome.COALESCED
+                    || outcome == Mailbox.Outcome.BATCHED) {
+                metrics.messageCoalesced(message);
+            } else {
+                metrics.messageOverflowed(message);
+            }
+            message.recycle();
+        }
+    }
+
+    /**
+     * sendTo method
+     * <p>
+     * Send a message created by the current node straight to one of its
+     * adjacent nodes.
+     *
+     * @param n Node to send the message to.
+     * @param message Message object to be sent
+     * @throws InterruptedException exception handling for message passing.
+     */
+    private void sendTo(Node n, Message message) throws InterruptedException {
+        metrics.messageSent(message);
+        n.addToBlockingQueue(message);
+    }
+
+    /**
+     * shutdown method
+     * <p>
+     * Release the node thread once the simulation is over. The node will
+     * exit as soon as it takes the terminate message from its queue.
+     */
+    public void shutdown() {
+        nodeBlockQueue.offer(Message.instruction(nodeLocation, nodeLocation,
+                EventCode.TERMINATE, 1));
+    }
+
+    /**
+     * updateGUI method
+     * <p>
+     * Ask the GUI to redraw the graph. Nothing is drawn when the simulation
+     * runs without a GUI.
+     */
+    public void updateGUI() {
+        if (GUI == null) {
+            return;
+        }
+        GUI.later(() -> {
+            try {
+                GUI.drawCircleOnCanvas();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * updateLog method
+     * <p>
+     * Add a message that reached the base station to the GUI log and to
+     * the file log. Nothing is logged to the GUI when the simulation runs
+     * without one. A batch of reports is unpacked, each report gets its own
+     * entry; a report that reached the station several times says so.
+     *
+     * @param message Message that reached the base station.
+     */
+    private void updateLog(Message message) {
+        if (message.batch != null) {
+            message.batch.forEach(this::updateLog);
+            return;
+        }
+        updateLog(message, 1);
+    }
+
+    /**
+     * updateLog method
+     *
+     * @param report report that reached the base station.
+     * @param count number of copies of the report that reached it.
+     */
+    private void updateLog(Message report, int count) {
+        if (stationLog != null) {
+            stationLog.log(this, report, count);
+        }
+        Message message = count == 1 ? report : counted(report, count);
+        if (traceRecorder != null) {
+            traceRecorder.stationLog(this, message);
+        }
+        if (GUI != null) {
+            GUI.later(() -> {
+                GUI.updateLog(message);
+                metrics.getSimulation().stationLogged(report);
+            });
+        } else {
+            metrics.getSimulation().stationLogged(report);
         }
     }
 
+    /* Copy of a report saying how many copies reached the station */
+    private Message counted(Message report, int count) {
+        Message message = new Message(nodeLocation, report.destinationHeader,
+                report.getText() + " (x" + count + ")", report.getPriority());
+        /* Still a copy of the report for the log window */
+        message.reportId = report.reportId;
+        return message;
+    }
+
     /**
      * send Method
      * <p>
-     * This method simply sends a message to all the adjacent node of our
-     * current Node
+     * This method simply sends a message created on our current Node to all
+     * of its adjacent nodes
      *
      * @param message Message object to be sent
      */
     public void send(Message message) throws InterruptedException {
+        metrics.messageSent(message);
+        if (message.isForBaseStation()) {
+            route(message);
+        } else {
+            flood(message);
+        }
+    }
+
+    /**
+     * route Method
+     * <p>
+     * This method passes a report on towards the nearest live base station.
+     * The report is held with the other reports (and batches of reports)
+     * the node has to pass on, until the end of the current report window
+     * or until the batch is full; they are then sent on together as a
+     * single message.
+     *
+     * @param message report to be passed on
+     */
+    private void route(Message message) throws InterruptedException {
+        if (isBaseStation) {
+            /* We have reached a base station, add the log to GUI */
+            updateLog(message);
+            return;
+        }
+        if (router == null) {
+            flood(message);
+            return;
+        }
+        if (reportWindow <= 0) {
+            forward(message);
+            return;
+        }
+        boolean full;
+        synchronized (pendingReports) {
+            pendingReports.add(message);
+            full = pendingReports.size() >= ReportBatch.MAX_REPORTS;
+            if (!full && !flushScheduled) {
+                /* The timer holds the held reports' unit of work */
+                flushScheduled = true;
+                terminationDetector.workStarted();
+                timingWheel.schedule(new ReportFlush(this), flushDelay());
+            }
+        }
+        if (full) {
+            flushReports();
+        }
+    }
+
+    /**
+     * flushDelay method
+     * <p>
+     * The reports are sent on in windows shared by all the nodes, and the
+     * further a node is from its station the earlier in the window it sends
+     * them: one tick earlier per hop. The batch of a node then reaches the
+     * next hop just before that one sends its own, so a report goes all the
+     * way to the station within one window, merged on the way with the
+     * reports of the other nodes.
+     *
+     * @return simulated milliseconds until the node sends its reports on.
+     */
+    private long flushDelay() {
+        long hops = Math.max(router.distance(this), 0);
+        long lead = hops * timingWheel.getTickMillis() % reportWindow;
+        return reportWindow - Math.floorMod(
+                timingWheel.currentTimeMillis() + lead, reportWindow);
+    }
+
+    /**
+     * flushReports method
+     * <p>
+     * Send the held reports on as a single batch.
+     */
+    private void flushReports() throws InterruptedException {
+        Message batch;
+        synchronized (pendingReports) {
+            if (pendingReports.isEmpty()) {
+                return;
+            }
+            batch = pendingReports.drain(nodeLocation);
+        }
+        forward(batch);
+    }
+
+    /**
+     * This class represents the timer task sending the reports held by a
+     * node once its report window is over.
+     */
+    static final class ReportFlush implements Runnable {
+
+        /* Node holding the reports */
+        final Node node;
+
+        /**
+         * ReportFlush constructor
+         *
+         * @param node Node holding the reports.
+         */
+        ReportFlush(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            synchronized (node.pendingReports) {
+                node.flushScheduled = false;
+            }
+            try {
+                node.flushReports();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            node.terminationDetector.workDone();
+        }
+    }
+
+    /**
+     * forward Method
+     * <p>
+     * This method passes a report (or a batch of them) on to the neighbor
+     * one hop closer to the nearest live base station. If that neighbor is
+     * burning or the report already went through it, the routes are stale:
+     * they are computed again and, if there is still no usable route, the
+     * report is flooded like any other message. A report that cannot reach
+     * any live station (they all burnt, or none is connected to the node)
+     * is dropped: flooding it would not get it anywhere either, since
+     * burning nodes pass nothing on.
+     *
+     * @param message report to be passed on
+     */
+    private void forward(Message message) throws InterruptedException {
+        Node next = router.nextHop(this);
+        if (next != null && !canRelay(next, message)) {
+            router.invalidate();
+            next = router.nextHop(this);
+        }
+        if (next == null) {
+            metrics.messageDropped(message);
+            return;
+        }
+        if (!canRelay(next, message)) {
+            flood(message);
+            return;
+        }
+        message.addVisited(nodeLocation);
+        lastHop = next;
+        next.addToBlockingQueue(message);
+    }
+
+    /**
+     * canRelay method
+     *
+     * @param next neighbor on the route of a report.
+     * @param message report to be passed on.
+     * @return true if the report can be passed on to the neighbor.
+     */
+    private static boolean canRelay(Node next, Message message) {
+        return !next.getState().equals("red")
+                && !message.hasVisited(next.getNodeLocation());
+    }
+
+    /**
+     * flood Method
+     * <p>
+     * This method simply passes a message on to all the adjacent node of our
+     * current Node
+     *
+     * @param message Message object to be passed on
+     */
+    private void flood(Message message) throws InterruptedException {
         /*
          * If the message has reached the based station, no need to keep
          * sending it. Note that this takes care of the case when a message
          * is sent from the Base Station to the Base Station.
          */
-        if (message.destinationHeader.equals(new Point(-1, -1))
-                && isBaseStation) {
+        if (message.isForBaseStation() && isBaseStation) {
             /* We have reached our base station, add the log to GUI */
-            Platform.runLater(() -> GUI.updateLog(message));
+            updateLog(message);
         }
         /* Add the current node to the list of visited nodes by the message */
-        message.previousHeader.add(nodeLocation);
+        message.addVisited(nodeLocation);
         for (Node n : adjacentNodes) {
-            /* Except if it is already contained in the previousHeader */
-            if (message.previousHeader.contains(n.getNodeLocation())) {
+            /* Except if the message already went through it */
+            if (message.hasVisited(n.getNodeLocation())) {
                 continue;
             /* Or if the state of the node is red */
             } else if (n.getState().equals("red")) {
@@ -261,29 +1030,80 @@ public class Node implements Runnable {
      * This method changes the states of the adjacent node of a current RED
      * node to red after a random delay. Note that the currently yellow nodes
      * (adjacent nodes) will be notified to become red by their current red
-     * neighbor. As soon as the current red node notifies all of its neighbor
-     * to become red, the current thread will exit.
-     *
-     * @throws InterruptedException exception handling for the thread sleep.
+     * neighbor. Each neighbor gets its own timer on the shared timing wheel,
+     * so the neighbors ignite on their own schedules and the current thread
+     * never has to sleep. Each pending timer counts as outstanding work.
      */
-    private void changeStatesToRed() throws InterruptedException {
+    private void changeStatesToRed() {
         /* Loop through the list of adjacent nodes */
         for (Node n : adjacentNodes) {
             /* grab a random value representing the time to wait */
-            int randTime = (int) (Math.random() * (7000 - 1000)) + 1000;
+            int randTime = random.nextInt(7000 - 1000) + 1000;
             /*
-             * Sleep the thread for a specific amount of time, this will be
-             * necessary as we do not want our newly alert nodes to directly
-             * turn red. Give a certain delay before instructing these nodes
-             * to become red (on fire).
+             * We do not want our newly alert nodes to directly turn red.
+             * Give a certain delay before instructing these nodes to become
+             * red (on fire).
              */
-            Thread.sleep(randTime);
-            /* Now we can instruct the adj node to burn */
-            if (n.state.equals("yellow")) {
-                n.nodeBlockQueue.add(new Message(this.nodeLocation,
-                        n.getNodeLocation(), new LinkedList<>(),
-                        "change_to_burn", 1));
+            scheduleIgnition(n, randTime);
+        }
+    }
+
+    /**
+     * scheduleIgnition method
+     *
+     * Register a timer that will instruct an adjacent node to burn after a
+     * delay. The pending timer counts as outstanding work.
+     *
+     * @param n adjacent Node to set on fire.
+     * @param delay delay in simulated milliseconds.
+     */
+    public void scheduleIgnition(Node n, long delay) {
+        terminationDetector.workStarted();
+        timingWheel.schedule(new Ignition(this, n), delay);
+    }
+
+    /**
+     * This class represents the timer task instructing a node to burn. It
+     * is a class of its own (rather than a lambda) so a checkpoint can find
+     * out which node it sets on fire.
+     */
+    static final class Ignition implements Runnable {
+
+        /* Burning node the fire comes from */
+        final Node source;
+        /* Node to set on fire */
+        final Node target;
+
+        /**
+         * Ignition constructor
+         *
+         * @param source burning Node the fire comes from.
+         * @param target Node to set on fire.
+         */
+        Ignition(Node source, Node target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * run method
+         *
+         * Instruct the target node to burn. Note that the node may not have
+         * processed its change_to_alert message yet (it is still blue or
+         * green), it burns all the same.
+         */
+        @Override
+        public void run() {
+            if (!target.state.equals("red")) {
+                try {
+                    source.sendTo(target, Message.instruction(
+                            source.nodeLocation, target.getNodeLocation(),
+                            EventCode.CHANGE_TO_BURN, 1));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
             }
+            source.terminationDetector.workDone();
         }
     }
 
@@ -304,9 +1124,8 @@ public class Node implements Runnable {
                      * add a message to the blocking queue of that node,
                      * instructing it to change its state to yellow
                      */
-                    n.addToBlockingQueue(new Message(this.nodeLocation,
-                            n.getNodeLocation(),
-                            new LinkedList<>(), "change_to_alert",
+                    sendTo(n, Message.instruction(this.nodeLocation,
+                            n.getNodeLocation(), EventCode.CHANGE_TO_ALERT,
                             2));
                 }
             } catch (InterruptedException e) {
@@ -331,121 +1150,134 @@ public class Node implements Runnable {
          * A destinationHeader of -1, -1 means we are looking for the base
          * station!
          */
-        if (message.destinationHeader.equals(new Point(-1, -1))
-                && isBaseStation) {
+        if (message.isForBaseStation() && isBaseStation) {
             /* We have reached our base station, add the log to GUI */
-            Platform.runLater(() -> GUI.updateLog(message));
+            updateLog(message);
         }
         /*
          * If the message passed in is not at the correct destination, keep
          * passing it
          */
         else if (!message.destinationHeader.equals(nodeLocation)) {
-            send(message);
+            metrics.messageForwarded(message);
+            SimulationEvents.messageForwarded(this, message);
+            if (message.isForBaseStation()) {
+                route(message);
+            } else {
+                flood(message);
+            }
             /* We are at our correct location */
         } else {
-            switch (message.infoMessage) {
+            switch (message.getCode()) {
                 /* Change the state to alert */
-                case "change_to_alert":
+                case CHANGE_TO_ALERT:
                     /* Send a log message to the base station */
-                    send(new Message(nodeLocation, new Point(-1, -1),
-                            new LinkedList<>(), "Node: (" +
-                            nodeLocation.x +
-                            ", " + nodeLocation.y + ")" +
-                            " " +
-                            "became in danger", 1));
+                    send(Message.report(nodeLocation,
+                            EventCode.NODE_IN_DANGER, null, 0, 1));
                     /*
                      * make the agent clone itself if there is an agent on
                      * the node
                      */
-                    if (isAgentOnNode) {
+                    if (getAgentOnNodeBoolean()) {
                         cloneAgent();
                     }
-                    this.state = "yellow";
+                    changeState("yellow");
                     /* Update the GUI */
-                    Platform.runLater(() -> {
-                        try {
-                            GUI.drawCircleOnCanvas();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    });
+                    updateGUI();
                     break;
                     /* Change the node state to burning */
-                case "change_to_burn":
-                    this.state = "red";
+                case CHANGE_TO_BURN:
+                    changeState("red");
                     /* Send a message to Base station saying node is on fire */
-                    send(new Message(nodeLocation, new Point(-1, -1),
-                            new LinkedList<>(), "Node: (" +
-                            nodeLocation.x +
-                            ", " + nodeLocation.y + ")" +
-                            " " +
-                            "caught on fire", 1));
-                    if (agent != null) {
-                        send(new Message(nodeLocation,
-                                new Point(-1,-1), new LinkedList<>(),
-                                "Agent " +
-                                "with ID: "+ agent.agentID + " died on Node: ("
-                                        + nodeLocation.x +
-                                ", " + nodeLocation.y + ")",1));
-                        isAgentOnNode = false;
-                        agent.addToBlockingQueue("kill_yourself");
-                    }
+                    send(Message.report(nodeLocation, EventCode.NODE_ON_FIRE,
+                            null, 0, 1));
+                    killAgent();
                     /* Update the GUI */
-                    Platform.runLater(() -> {
-                        try {
-                            GUI.drawCircleOnCanvas();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    });
+                    updateGUI();
+                    break;
+                /* A sensor confirmed the node is safe */
+                case CHANGE_TO_SAFE:
+                    /* Only a node in danger goes back, a fire stays */
+                    if (state.equals("yellow")) {
+                        /* It may clone an agent again if in danger again */
+                        cloned = false;
+                        changeState("blue");
+                        send(Message.report(nodeLocation,
+                                EventCode.NODE_SAFE, null, 0, 1));
+                        updateGUI();
+                    }
                     break;
                 /* Case if which we need to clone the agent */
-                case "clone_agent":
+                case CLONE_AGENT:
                     cloneAgent();
                     break;
                 /* Case in which we need to create a new agent */
-                case "create_agent":
+                case CREATE_AGENT:
                     createAgent();
                     /* Update the GUI */
-                    Platform.runLater(() -> {
-                        try {
-                            GUI.drawCircleOnCanvas();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    });
+                    updateGUI();
                     /*
                      * Send a message to the base station saying a new agent
-                     * has been created
+                     * has been created, unless the population was full
                      */
-                    send(new Message(nodeLocation,
-                            new Point(-1,-1), new LinkedList<>(),
-                            "Agent " +
-                            "with ID: "+ agent.agentID + " created on Node: " +
-                            "(" + nodeLocation.x +
-                            ", " + nodeLocation.y + ")",1));
+                    if (agent != null) {
+                        send(Message.report(nodeLocation,
+                                EventCode.AGENT_CREATED, agent.agentID, 0,
+                                1));
+                    }
+                    break;
+                default:
                     break;
             }
         }
     }
 
+    /**
+     * killAgent method
+     *
+     * Kill the agent on the node, which caught on fire. The agent walks on
+     * the timing wheel under its own lock, so it is only killed under that
+     * lock and if it is still on the node: it may have moved on (or died
+     * and been reused elsewhere) since it was read.
+     *
+     * @throws InterruptedException exception handling for the message passing.
+     */
+    private void killAgent() throws InterruptedException {
+        Agent dead = agent;
+        if (dead == null) {
+            return;
+        }
+        synchronized (dead) {
+            if (dead.getNode() != this) {
+                return;
+            }
+            send(Message.report(nodeLocation, EventCode.AGENT_DIED,
+                    dead.agentID, 0, 1));
+            setAgentOnNodeBoolean(false);
+            if (traceRecorder != null) {
+                traceRecorder.agentOff(this);
+            }
+            /* The agent may be reused once dead, let it go */
+            agent = null;
+            dead.kill();
+        }
+    }
+
     /**
      * createAgent method
      *
-     * Create an agent on your current node. This will be run as a new thread
-     * that needs to be started.
+     * Create an agent on your current node. The agent simply sits on the
+     * node, no thread is started for it. No agent is created if the
+     * population of agents is at its cap.
      */
     private void createAgent() throws InterruptedException {
         /* Only create an agent if there is no other agent on the node */
-        if (!isAgentOnNode) {
-            /* Set isAgentOnNode to true */
-            isAgentOnNode = true;
-            /* Create the new thread agent */
-            Thread t = new Thread(new Agent(new PriorityBlockingQueue<>(),
-                    new LinkedList<>(), this, false));
-            /* Start it */
-            t.start();
+        if (placeAgent()) {
+            /* The population may be full, then the fire goes unwatched */
+            if (agentPopulation.create(this, false) == null) {
+                setAgentOnNodeBoolean(false);
+                return;
+            }
         }
         /* If we create an agent on a yellow node, clone this agent */
         if (state.equals("yellow")){
@@ -458,26 +1290,30 @@ public class Node implements Runnable {
      * cloneAgent method
      *
      * This method sends a message to all adjacent nodes that are not red to
-     * tell them to create an agent on their node!
+     * tell them to create an agent on their node! The fire front only has
+     * to be covered once: a node clones its agent at most once, and only
+     * asks for an agent where there is none and none is on its way.
      *
      * @throws InterruptedException exception handling for the message passing.
      */
     private void cloneAgent() throws InterruptedException {
+        if (cloned) {
+            return;
+        }
+        cloned = true;
         /* Loop through the adjacent nodes */
         for (Node n: adjacentNodes){
             /*
-             * Do not clone if an agent already exists on the node or if the
-             * node is burning
+             * Do not clone if an agent already exists on the node (or is
+             * about to) or if the node is burning
              */
-            if (!n.getState().equals("red") && !n.isAgentOnNode) {
+            if (!n.getState().equals("red") && n.requestAgent()) {
                 /*
                  * Add a message to the adjacent node's blocking queue
                  * telling it to clone itself.
                  */
-                n.addToBlockingQueue(new Message(nodeLocation,
-                        n.getNodeLocation(),new LinkedList<>(),
-                        "create_agent"
-                        ,1));
+                sendTo(n, Message.instruction(nodeLocation,
+                        n.getNodeLocation(), EventCode.CREATE_AGENT, 1));
             }
         }
     }
@@ -485,33 +1321,74 @@ public class Node implements Runnable {
     /**
      * run method
      *
-     * This method will be called after each thread is started in Coordinator
+     * This method will be called after each thread is started in Simulation
      * .java. In this method, the thread will at first check if the current
      * node is on fire. If yes, it will ask its neighbors to turn yellow,
      * then red. Otherwise, the thread will simply grab messages from its
      * blocking queue, process them and wait for new messages. Whenever the
-     * node is burning, the thread will be exited and stopped.
+     * node is burning, it stops processing messages: the ones it still
+     * receives are simply discarded. The thread is exited and stopped when
+     * the simulation is over and the node receives the terminate message.
      */
     @Override
     public void run() {
         try {
             while (!exit) {
-                 if (this.state.equals("red")) {
-                    /* Change the state of all the adjacent nodes to alert */
-                    changeStatesToYellow();
+                 if (this.state.equals("red") && !spread) {
+                    pauseGate.enter();
+                    try {
+                        /* Change the state of all the adjacent nodes to alert */
+                        changeStatesToYellow();
+                        /*
+                         * Change the states of all adjacent nodes to red
+                         * after a delay
+                         */
+                        changeStatesToRed();
+                        spread = true;
+                    } finally {
+                        pauseGate.exit();
+                    }
                     /*
-                     * Change the states of all adjacent nodes to red after a
-                     * delay
+                     * Whatever set the node on fire is only done now that
+                     * the node notified its neighbors
                      */
-                     changeStatesToRed();
-                    exit = true;
+                    terminationDetector.workDone();
                 } else {
                 /* Grab element from the blocking queue - process it,
                 otherwise wait.
                  */
                     Message message = nodeBlockQueue.take();
-                    /* call message processing method */
-                    processMessage(message);
+                    handled++;
+                    SimulationEvents.messageDequeued(this, message);
+                    /* The simulation is over, exit the thread */
+                    if (message.getCode() == EventCode.TERMINATE) {
+                        exit = true;
+                        continue;
+                    }
+                    /*
+                     * Keep the message at hand while waiting for a pause to
+                     * end, so a checkpoint still sees it
+                     */
+                    inHand = message;
+                    pauseGate.enter();
+                    try {
+                        inHand = null;
+                        /* call message processing method */
+                        if (!spread) {
+                            processMessage(message);
+                        } else {
+                            metrics.messageDropped(message);
+                        }
+                    } finally {
+                        pauseGate.exit();
+                    }
+                    /* The node is done with the message */
+                    message.recycle();
+                    /* If the node just caught fire, wait until it
+                    notified its neighbors */
+                    if (!this.state.equals("red") || spread) {
+                        terminationDetector.workDone();
+                    }
                 }
             }
         } catch (InterruptedException e) {
@@ -519,6 +1396,90 @@ public class Node implements Runnable {
         }
     }
 
+    /**
+     * writeCheckpoint method
+     *
+     * Write the state of the node to a checkpoint: its state, whether it
+     * notified its neighbors, its agent counter, whether it cloned its
+     * agent, the state of its random
+     * number generator, every message waiting in its queue and the reports
+     * it holds. This must only be called while the simulation is paused.
+     *
+     * @param out where to write the checkpoint.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeByte(TraceEvent.stateCode(state));
+        out.writeBoolean(spread);
+        VarInts.writeUnsigned(out, agentCounter);
+        out.writeBoolean(cloned);
+        out.writeLong(random.getState());
+        java.util.List<Message> messages = nodeBlockQueue.snapshot();
+        Message held = inHand;
+        VarInts.writeUnsigned(out, messages.size() + (held != null ? 1 : 0));
+        if (held != null) {
+            held.writeTo(out);
+        }
+        for (Message m : messages) {
+            m.writeTo(out);
+        }
+        synchronized (pendingReports) {
+            pendingReports.writeTo(out);
+        }
+    }
+
+    /**
+     * hasPendingReports method
+     * @return true if the node holds reports waiting for its report timer.
+     */
+    public boolean hasPendingReports() {
+        synchronized (pendingReports) {
+            return flushScheduled;
+        }
+    }
+
+    /**
+     * readCheckpoint method
+     *
+     * Restore the state of the node from a checkpoint written by
+     * writeCheckpoint. The messages are put back on the queue and count as
+     * outstanding work, the held reports get a new report timer. This must
+     * be called before the node thread starts.
+     *
+     * @param in where to read the checkpoint from.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    public void readCheckpoint(DataInput in) throws IOException {
+        state = TraceEvent.stateName(in.readUnsignedByte());
+        spread = in.readBoolean();
+        agentCounter = (int) VarInts.readUnsigned(in);
+        cloned = in.readBoolean();
+        random.setState(in.readLong());
+        setAgentOnNodeBoolean(false);
+        agent = null;
+        int messages = (int) VarInts.readUnsigned(in);
+        for (int i = 0; i < messages; i++) {
+            Message message = Message.readFrom(in);
+            /* The agent slot is held for the create_agent on its way */
+            if (message.getCode() == EventCode.CREATE_AGENT) {
+                requestAgent();
+            }
+            terminationDetector.workStarted();
+            if (nodeBlockQueue.offer(message) != Mailbox.Outcome.ACCEPTED) {
+                terminationDetector.workCancelled();
+            }
+        }
+        synchronized (pendingReports) {
+            pendingReports.readFrom(in);
+            if (!pendingReports.isEmpty()) {
+                flushScheduled = true;
+                terminationDetector.workStarted();
+                timingWheel.schedule(new ReportFlush(this),
+                        Math.max(reportWindow, 1));
+            }
+        }
+    }
+
     /**
      * equals method Override.
      *
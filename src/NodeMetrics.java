@@ -0,0 +1,161 @@
+/**
+ * This class keeps the metrics of a single Node: how many messages it sent,
+ * forwarded, dropped and merged. Every update also goes to the aggregate
+ * metrics of the simulation. Updates are LongAdder increments, so they add
+ * no contention to the message passing of the node.
+ *
+ */
+
+import java.util.Map;
+
+public class NodeMetrics implements NodeMetricsMXBean {
+
+    /* Node the metrics belong to */
+    private final Node node;
+    /* Aggregate metrics of the simulation */
+    private final SimulationMetrics simulation;
+    /* Messages created and sent by the node */
+    private final MessageCounters sent;
+    /* Messages passed on by the node */
+    private final MessageCounters forwarded;
+    /* Messages dropped by the node */
+    private final MessageCounters dropped;
+    /* Messages left out by the overload policy of the node's mailbox */
+    private final MessageCounters overflowed;
+    /* Messages merged into one already waiting in the node's mailbox */
+    private final MessageCounters coalesced;
+
+    /**
+     * NodeMetrics constructor
+     *
+     * @param node Node the metrics belong to.
+     * @param simulation aggregate metrics of the simulation.
+     */
+    public NodeMetrics(Node node, SimulationMetrics simulation) {
+        this.node = node;
+        this.simulation = simulation;
+        sent = new MessageCounters();
+        forwarded = new MessageCounters();
+        dropped = new MessageCounters();
+        overflowed = new MessageCounters();
+        coalesced = new MessageCounters();
+    }
+
+    /**
+     * simulation getter
+     * @return aggregate metrics of the simulation.
+     */
+    public SimulationMetrics getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * messageSent method
+     *
+     * Count a message created and sent by the node.
+     *
+     * @param message Message sent.
+     */
+    public void messageSent(Message message) {
+        MessageType type = MessageType.of(message);
+        sent.increment(type);
+        simulation.sent.increment(type);
+    }
+
+    /**
+     * messageForwarded method
+     *
+     * Count a message passed on by the node.
+     *
+     * @param message Message forwarded.
+     */
+    public void messageForwarded(Message message) {
+        MessageType type = MessageType.of(message);
+        forwarded.increment(type);
+        simulation.forwarded.increment(type);
+    }
+
+    /**
+     * messageDropped method
+     *
+     * Count a message dropped by the node (a duplicate of a message already
+     * in its queue, or a message received while burning).
+     *
+     * @param message Message dropped.
+     */
+    public void messageDropped(Message message) {
+        MessageType type = MessageType.of(message);
+        dropped.increment(type);
+        simulation.dropped.increment(type);
+    }
+
+    /**
+     * messageOverflowed method
+     *
+     * Count a message the mailbox of the node left out because it was
+     * overloaded (over capacity or sampled out).
+     *
+     * @param message Message left out.
+     */
+    public void messageOverflowed(Message message) {
+        MessageType type = MessageType.of(message);
+        overflowed.increment(type);
+        simulation.overflowed.increment(type);
+    }
+
+    /**
+     * messageCoalesced method
+     *
+     * Count a message the mailbox of the node did not keep as such because
+     * an equivalent one was waiting (a pending alert), or because its
+     * critical reports were merged into the waiting overflow batch. Nothing
+     * it carries is lost.
+     *
+     * @param message Message merged.
+     */
+    public void messageCoalesced(Message message) {
+        MessageType type = MessageType.of(message);
+        coalesced.increment(type);
+        simulation.coalesced.increment(type);
+    }
+
+    @Override
+    public String getState() {
+        return node.getState();
+    }
+
+    @Override
+    public int getMailboxDepth() {
+        return node.getMailboxDepth();
+    }
+
+    @Override
+    public int getPeakMailboxDepth() {
+        return node.getPeakMailboxDepth();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSent() {
+        return sent.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesForwarded() {
+        return forwarded.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesDropped() {
+        return dropped.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesOverflowed() {
+        return overflowed.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesCoalesced() {
+        return coalesced.toMap();
+    }
+}
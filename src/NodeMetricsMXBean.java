@@ -0,0 +1,53 @@
+/**
+ * This interface describes the metrics of a single Node exposed through
+ * JMX. See NodeMetrics.
+ *
+ */
+
+import java.util.Map;
+
+public interface NodeMetricsMXBean {
+
+    /**
+     * @return current state of the node.
+     */
+    String getState();
+
+    /**
+     * @return number of messages waiting in the node's blocking queue.
+     */
+    int getMailboxDepth();
+
+    /**
+     * @return highest number of messages seen waiting in the node's
+     * blocking queue.
+     */
+    int getPeakMailboxDepth();
+
+    /**
+     * @return number of messages created and sent by the node, by type.
+     */
+    Map<String, Long> getMessagesSent();
+
+    /**
+     * @return number of messages passed on by the node, by type.
+     */
+    Map<String, Long> getMessagesForwarded();
+
+    /**
+     * @return number of messages dropped by the node, by type.
+     */
+    Map<String, Long> getMessagesDropped();
+
+    /**
+     * @return number of messages left out by the overload policy of the
+     * node's mailbox, by type.
+     */
+    Map<String, Long> getMessagesOverflowed();
+
+    /**
+     * @return number of messages merged into one already waiting in the
+     * node's mailbox, by type.
+     */
+    Map<String, Long> getMessagesCoalesced();
+}
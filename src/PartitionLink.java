@@ -0,0 +1,861 @@
+/**
+ * This class connects the partitions of a distributed simulation. When the
+ * graph is too large for a single process, it is split across several
+ * simulation processes, each one owning the nodes of a region of the graph
+ * and running their threads. The nodes owned by the other partitions are
+ * only kept as ghost copies: a message sent to a ghost is encoded and sent
+ * over a socket channel to the partition owning the node, and the owner of
+ * a boundary node sends its state changes to the partitions holding a ghost
+ * copy of it. An agent walking onto a ghost migrates to the other partition.
+ *
+ * Every partition has its own timing wheel, the clocks are kept consistent
+ * with conservative synchronization: a message takes LOOKAHEAD_MILLIS of
+ * simulated time to reach another partition, and a partition never lets its
+ * clock go further than the clock of every other partition plus that
+ * lookahead. A message can then never arrive in the past of the partition
+ * receiving it. The clocks travel in the header of every frame, so a
+ * partition with nothing to send still sends empty frames (heartbeats).
+ *
+ * Records are batched in binary frames, one frame per peer and per turn of
+ * the link thread, which handles every channel with a single selector.
+ * A message keeps an ID across the partitions, so a flooded message that
+ * comes back to a partition it already reached is dropped. The IDs are
+ * numbered in sequence by the partition the message comes from, and each
+ * partition only remembers the last SEEN_WINDOW IDs of every partition
+ * beyond the highest one it saw: an older ID counts as seen.
+ *
+ * The end of the run is detected by partition 0 with the four counter
+ * method: every frame also holds the number of records sent and received by
+ * its partition and whether the partition is idle (no outstanding work
+ * besides the unit held by the link). Once every partition is idle, the
+ * totals match and two consecutive waves of reports agree, no message can
+ * be in flight and partition 0 tells every partition to stop.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PartitionLink implements Runnable {
+
+    /* Simulated time a message takes to reach another partition, in ms */
+    public static final long LOOKAHEAD_MILLIS = 50;
+    /* IDs of each partition remembered below the highest one seen */
+    private static final int SEEN_WINDOW = 1 << 16;
+    /* Wall clock time between two frames when there is nothing to send */
+    private static final long HEARTBEAT_NANOS = 2000000;
+    /* Wall clock time to wait for the other partitions to start, in ms */
+    private static final long CONNECT_TIMEOUT_MILLIS = 60000;
+    /* Record holding a message for a node */
+    private static final int MESSAGE = 1;
+    /* Record holding the new state of a boundary node */
+    private static final int STATE = 2;
+    /* Record holding an agent migrating to another partition */
+    private static final int AGENT = 3;
+    /* Frame flag: the partition sending the frame is idle */
+    private static final int IDLE = 1;
+    /* Frame flag: the run is over */
+    private static final int TERMINATE = 2;
+
+    /* Index of this partition */
+    private final int partition;
+    /* Every node of the graph, indexed by node ID */
+    private final Node[] nodes;
+    /* Partition owning each node, indexed by node ID */
+    private final int[] owner;
+    /* Partitions holding a ghost copy of each local node */
+    private final int[][] ghostPeers;
+    /* Connection to each other partition, null at the index of this one */
+    private final Peer[] peers;
+    /* Number of messages and agents sent to other partitions */
+    private final LongAdder sent;
+    /* Number of messages and agents received from other partitions */
+    private final LongAdder received;
+    /* Last ID given to a message sent from this partition */
+    private final AtomicLong nextLinkId;
+    /* IDs of the messages that already reached this partition, by the
+    partition they come from */
+    private final SeenWindow[] seen;
+    /* Timing wheel of this partition */
+    private TimingWheel wheel;
+    /* Termination detector of this partition */
+    private TerminationDetector detector;
+    /* Selector handling every channel */
+    private Selector selector;
+    /* Thread running the link */
+    private Thread thread;
+    /* boolean indicating whether we can exit the link thread or not */
+    private volatile boolean exit;
+    /* boolean indicating whether the run is over */
+    private volatile boolean terminated;
+    /* Totals of the last termination wave (partition 0 only), -1 if none */
+    private long waveTotal;
+    /* Number of reports of each peer at the last termination wave */
+    private long[] waveReports;
+
+    /**
+     * PartitionLink constructor
+     *
+     * Split the graph into partitions and work out which nodes of this
+     * partition have ghost copies elsewhere. Every process computes the
+     * same split from the same graph.
+     *
+     * @param partition index of this partition.
+     * @param partitions number of partitions.
+     * @param nodes every node of the graph, indexed by node ID.
+     */
+    public PartitionLink(int partition, int partitions, Node[] nodes) {
+        if (partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("Partition " + partition +
+                    " out of " + partitions);
+        }
+        this.partition = partition;
+        this.nodes = nodes;
+        this.owner = assign(nodes, partitions);
+        this.ghostPeers = new int[nodes.length][];
+        for (Node n : nodes) {
+            Set<Integer> holders = new LinkedHashSet<>();
+            if (owner[n.getNodeId()] == partition) {
+                for (Node adjacent : n.getAdjacentPoint()) {
+                    if (owner[adjacent.getNodeId()] != partition) {
+                        holders.add(owner[adjacent.getNodeId()]);
+                    }
+                }
+            }
+            ghostPeers[n.getNodeId()] =
+                    holders.stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.peers = new Peer[partitions];
+        this.sent = new LongAdder();
+        this.received = new LongAdder();
+        this.nextLinkId = new AtomicLong();
+        this.seen = new SeenWindow[partitions];
+        for (int p = 0; p < partitions; p++) {
+            seen[p] = new SeenWindow();
+        }
+        this.waveTotal = -1;
+        this.waveReports = new long[partitions];
+    }
+
+    /**
+     * assign method
+     *
+     * Split the graph into regions of (almost) equal size: the nodes are
+     * sorted by location, column after column, and cut into slices. Nodes
+     * close to each other mostly end up in the same partition, which keeps
+     * the number of boundary nodes down.
+     *
+     * @param nodes every node of the graph, indexed by node ID.
+     * @param partitions number of partitions.
+     * @return the partition owning each node, indexed by node ID.
+     */
+    static int[] assign(Node[] nodes, int partitions) {
+        Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byX = Integer.compare(nodes[a].getNodeLocation().x,
+                    nodes[b].getNodeLocation().x);
+            return byX != 0 ? byX : Integer.compare(
+                    nodes[a].getNodeLocation().y, nodes[b].getNodeLocation().y);
+        });
+        int[] owner = new int[nodes.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            owner[order[rank]] = (int) ((long) rank * partitions / order.length);
+        }
+        return owner;
+    }
+
+    /**
+     * isLocal method
+     *
+     * @param n a node of the graph.
+     * @return true if the node is owned by this partition.
+     */
+    public boolean isLocal(Node n) {
+        return owner[n.getNodeId()] == partition;
+    }
+
+    /**
+     * connect method
+     *
+     * Open a connection to every other partition over the loopback
+     * interface. Partition i listens on basePort + i, connects to the
+     * partitions below it and accepts the connections of the partitions
+     * above it. This blocks until every partition is connected.
+     *
+     * @param basePort port of partition 0.
+     * @throws IOException if a connection cannot be opened.
+     */
+    public void connect(int basePort) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(loopback, basePort + partition));
+            for (int p = 0; p < partition; p++) {
+                SocketChannel channel = connectTo(new InetSocketAddress(
+                        loopback, basePort + p));
+                ByteBuffer hello = ByteBuffer.allocate(4);
+                hello.putInt(partition).flip();
+                while (hello.hasRemaining()) {
+                    channel.write(hello);
+                }
+                peers[p] = new Peer(p, channel);
+            }
+            for (int p = partition + 1; p < peers.length; p++) {
+                SocketChannel channel = server.accept();
+                ByteBuffer hello = ByteBuffer.allocate(4);
+                while (hello.hasRemaining()) {
+                    if (channel.read(hello) < 0) {
+                        throw new IOException("Partition closed the " +
+                                "connection while connecting");
+                    }
+                }
+                int peer = hello.getInt(0);
+                peers[peer] = new Peer(peer, channel);
+            }
+        }
+        selector = Selector.open();
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.channel.configureBlocking(false);
+                peer.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                peer.key = peer.channel.register(selector,
+                        SelectionKey.OP_READ, peer);
+            }
+        }
+    }
+
+    /**
+     * connectTo method
+     *
+     * Connect to another partition, retrying while it is not listening yet.
+     *
+     * @param address address the partition listens on.
+     * @return the connected channel.
+     * @throws IOException if the partition cannot be reached in time.
+     */
+    private SocketChannel connectTo(InetSocketAddress address)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return SocketChannel.open(address);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    throw new IOException("Interrupted while connecting");
+                }
+            }
+        }
+    }
+
+    /**
+     * start method
+     *
+     * Start exchanging frames with the other partitions. The link holds a
+     * unit of work of the termination detector until every partition is
+     * done, and bounds the clock of the timing wheel.
+     *
+     * @param wheel timing wheel of this partition, not started yet.
+     * @param detector termination detector of this partition.
+     */
+    public void start(TimingWheel wheel, TerminationDetector detector) {
+        this.wheel = wheel;
+        this.detector = detector;
+        detector.workStarted();
+        wheel.setAdvanceLimit(this::getAdvanceLimit);
+        thread = new Thread(this, "partition-link");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * getAdvanceLimit method
+     *
+     * @return simulated time, in milliseconds, the clock of this partition
+     * may not go past.
+     */
+    public long getAdvanceLimit() {
+        long limit = Long.MAX_VALUE;
+        for (Peer peer : peers) {
+            if (peer != null) {
+                limit = Math.min(limit, peer.clock + LOOKAHEAD_MILLIS);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * send method
+     *
+     * Send a message to a node owned by another partition. The message is
+     * encoded right away (the sender may keep changing it) and goes out
+     * with the next frame.
+     *
+     * @param target ghost copy of the node the message is for.
+     * @param message Message to send.
+     */
+    public void send(Node target, Message message) {
+        Peer peer = peers[owner[target.getNodeId()]];
+        long id;
+        synchronized (message) {
+            if (message.linkId == 0) {
+                message.linkId = ((long) (partition + 1) << 40)
+                        | nextLinkId.incrementAndGet();
+                firstSeen(message.linkId);
+            }
+            id = message.linkId;
+        }
+        try {
+            synchronized (peer) {
+                peer.records.writeByte(MESSAGE);
+                VarInts.writeUnsigned(peer.records, target.getNodeId());
+                VarInts.writeUnsigned(peer.records, id);
+                message.writeTo(peer.records);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sent.increment();
+    }
+
+    /**
+     * stateChanged method
+     *
+     * Send the new state of a local node to every partition holding a
+     * ghost copy of it.
+     *
+     * @param n Node whose state changed.
+     */
+    public void stateChanged(Node n) {
+        for (int p : ghostPeers[n.getNodeId()]) {
+            Peer peer = peers[p];
+            try {
+                synchronized (peer) {
+                    peer.records.writeByte(STATE);
+                    VarInts.writeUnsigned(peer.records, n.getNodeId());
+                    peer.records.writeByte(TraceEvent.stateCode(n.getState()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * sendAgent method
+     *
+     * Send an agent to the partition owning the node it moved to.
+     *
+     * @param agent Agent whose node is a ghost copy.
+     */
+    public void sendAgent(Agent agent) {
+        Peer peer = peers[owner[agent.getNode().getNodeId()]];
+        try {
+            synchronized (peer) {
+                peer.records.writeByte(AGENT);
+                agent.writeCheckpoint(peer.records);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sent.increment();
+    }
+
+    /**
+     * close method
+     *
+     * Stop the link thread, send whatever is still queued and close every
+     * connection. This is called once the run is over.
+     */
+    public void close() {
+        exit = true;
+        try {
+            thread.join();
+            selector.close();
+            for (Peer peer : peers) {
+                if (peer != null && peer.channel.isOpen()) {
+                    peer.channel.configureBlocking(true);
+                    for (ByteBuffer frame : peer.pending) {
+                        while (frame.hasRemaining()) {
+                            peer.channel.write(frame);
+                        }
+                    }
+                    peer.channel.close();
+                }
+            }
+        } catch (IOException e) {
+            /* The other partition may already be gone */
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * run method
+     *
+     * This method will be called when the link thread is started. Every
+     * turn, it reads the frames that arrived, sends a frame to each
+     * partition that has records waiting or has not heard from this one for
+     * a while, and (on partition 0) checks whether the run is over.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!exit) {
+                selector.select(1);
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Peer peer = (Peer) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            read(peer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(peer);
+                        }
+                    } catch (IOException e) {
+                        closePeer(peer, e);
+                    }
+                }
+                if (partition == 0 && !terminated) {
+                    checkTermination();
+                }
+                for (Peer peer : peers) {
+                    if (peer != null && peer.channel.isOpen()) {
+                        try {
+                            flush(peer, terminated ? TERMINATE : 0);
+                        } catch (IOException e) {
+                            closePeer(peer, e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Partition link failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * flush method
+     *
+     * Send a frame holding the records waiting for a peer, if there are
+     * any, if the clock moved or if the peer has not heard from this
+     * partition for a while.
+     *
+     * @param peer Peer to send the frame to.
+     * @param flags flags of the frame.
+     * @throws IOException if the frame cannot be sent.
+     */
+    private void flush(Peer peer, int flags) throws IOException {
+        /*
+         * Read the clock before taking the records, a record taken here
+         * was sent at this time or later.
+         */
+        long time = wheel.currentTimeMillis();
+        long nanos = System.nanoTime();
+        byte[] body;
+        synchronized (peer) {
+            if (peer.buffer.size() == 0 && time == peer.lastTime
+                    && nanos - peer.lastNanos < HEARTBEAT_NANOS
+                    && flags == peer.lastFlags) {
+                return;
+            }
+            body = peer.buffer.toByteArray();
+            peer.buffer.reset();
+        }
+        /* Read the counters before the idle flag, see checkTermination */
+        long receivedCount = received.sum();
+        boolean idle = detector.getOutstandingWork() == 1;
+        long sentCount = sent.sum();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(
+                body.length + 32);
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeInt(0);
+        VarInts.writeUnsigned(out, time);
+        VarInts.writeUnsigned(out, sentCount);
+        VarInts.writeUnsigned(out, receivedCount);
+        out.writeByte(flags | (idle ? IDLE : 0));
+        out.write(body);
+        ByteBuffer buffer = ByteBuffer.wrap(frame.toByteArray());
+        buffer.putInt(0, buffer.limit() - 4);
+        peer.pending.add(buffer);
+        peer.lastTime = time;
+        peer.lastNanos = nanos;
+        peer.lastFlags = flags;
+        write(peer);
+    }
+
+    /**
+     * write method
+     *
+     * Write as much of the pending frames of a peer as the channel takes,
+     * and ask the selector to tell when it can take more.
+     *
+     * @param peer Peer to write to.
+     * @throws IOException if the frames cannot be written.
+     */
+    private void write(Peer peer) throws IOException {
+        while (!peer.pending.isEmpty()) {
+            ByteBuffer frame = peer.pending.peek();
+            peer.channel.write(frame);
+            if (frame.hasRemaining()) {
+                peer.key.interestOps(SelectionKey.OP_READ
+                        | SelectionKey.OP_WRITE);
+                return;
+            }
+            peer.pending.poll();
+        }
+        peer.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * read method
+     *
+     * Read what a peer sent and handle every complete frame.
+     *
+     * @param peer Peer to read from.
+     * @throws IOException if the channel cannot be read.
+     */
+    private void read(Peer peer) throws IOException {
+        if (peer.channel.read(peer.input) < 0) {
+            peer.key.cancel();
+            peer.channel.close();
+            return;
+        }
+        peer.input.flip();
+        while (peer.input.remaining() >= 4) {
+            int length = peer.input.getInt(peer.input.position());
+            if (peer.input.remaining() < 4 + length) {
+                /* Make room for frames larger than the buffer */
+                if (4 + length > peer.input.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(peer.input);
+                    peer.input = larger;
+                    return;
+                }
+                break;
+            }
+            byte[] frame = new byte[length];
+            peer.input.position(peer.input.position() + 4);
+            peer.input.get(frame);
+            receive(peer, frame);
+        }
+        peer.input.compact();
+    }
+
+    /**
+     * receive method
+     *
+     * Handle a frame sent by a peer: deliver its records and note the
+     * clock and the termination report of the peer.
+     *
+     * @param peer Peer the frame comes from.
+     * @param frame the frame, without its length.
+     * @throws IOException if the frame is malformed.
+     */
+    private void receive(Peer peer, byte[] frame) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(frame);
+        DataInputStream in = new DataInputStream(bytes);
+        long time = VarInts.readUnsigned(in);
+        long sentCount = VarInts.readUnsigned(in);
+        long receivedCount = VarInts.readUnsigned(in);
+        int flags = in.readUnsignedByte();
+        while (bytes.available() > 0) {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case MESSAGE:
+                    Node target = nodes[(int) VarInts.readUnsigned(in)];
+                    long id = VarInts.readUnsigned(in);
+                    Message message = Message.readFrom(in);
+                    /*
+                     * A flooded message can come back through another
+                     * boundary node, it is already flooding here
+                     */
+                    if (firstSeen(id)) {
+                        message.linkId = id;
+                        deliver(target, message, time);
+                    } else {
+                        received.increment();
+                        target.getMetrics().messageDropped(message);
+                    }
+                    break;
+                case STATE:
+                    Node ghost = nodes[(int) VarInts.readUnsigned(in)];
+                    ghost.setState(TraceEvent.stateName(in.readUnsignedByte()));
+                    ghost.stateUpdated();
+                    break;
+                case AGENT:
+                    arrive(Agent.readCheckpoint(in, nodes), time);
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+        peer.sentReport = sentCount;
+        peer.receivedReport = receivedCount;
+        peer.idle = (flags & IDLE) != 0;
+        peer.reports++;
+        /*
+         * Only move the bound of the clock once the records of the frame
+         * are on the timing wheel
+         */
+        peer.clock = time;
+        if ((flags & TERMINATE) != 0) {
+            terminate();
+        }
+    }
+
+    /**
+     * deliver method
+     *
+     * Put a message from another partition on the timing wheel, so it
+     * reaches its node once it has travelled for LOOKAHEAD_MILLIS.
+     *
+     * @param target Node the message is for.
+     * @param message Message to deliver.
+     * @param time simulated time at which the message was sent.
+     */
+    private void deliver(Node target, Message message, long time) {
+        detector.workStarted();
+        received.increment();
+        wheel.schedule(() -> {
+            try {
+                target.addToBlockingQueue(message);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            detector.workDone();
+        }, time + LOOKAHEAD_MILLIS - wheel.currentTimeMillis());
+    }
+
+    /**
+     * arrive method
+     *
+     * Let an agent that migrated from another partition carry on walking,
+     * once it has travelled for LOOKAHEAD_MILLIS.
+     *
+     * @param agent Agent set up on its new node.
+     * @param time simulated time at which the agent left.
+     */
+    private void arrive(Agent agent, long time) {
+        received.increment();
+        wheel.schedule(() -> {
+            try {
+                agent.arrived();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }, time + LOOKAHEAD_MILLIS - wheel.currentTimeMillis());
+    }
+
+    /**
+     * checkTermination method
+     *
+     * Check whether the run is over (partition 0 only). The counters are
+     * read before the idle flag everywhere: a message received after its
+     * partition reported idle shows up as sent but not received, so the
+     * totals do not match. Two consecutive waves of reports with the same
+     * matching totals mean no message was in flight in between.
+     */
+    private void checkTermination() {
+        long receivedTotal = received.sum();
+        boolean allIdle = detector.getOutstandingWork() == 1;
+        long sentTotal = sent.sum();
+        for (Peer peer : peers) {
+            if (peer != null) {
+                allIdle &= peer.idle;
+                sentTotal += peer.sentReport;
+                receivedTotal += peer.receivedReport;
+            }
+        }
+        if (!allIdle || sentTotal != receivedTotal) {
+            waveTotal = -1;
+            return;
+        }
+        if (waveTotal == sentTotal) {
+            for (Peer peer : peers) {
+                if (peer != null && peer.reports <= waveReports[peer.id]) {
+                    /* Wait for every partition to report again */
+                    return;
+                }
+            }
+            terminate();
+        } else {
+            /* Start a new wave */
+            waveTotal = sentTotal;
+            for (Peer peer : peers) {
+                if (peer != null) {
+                    waveReports[peer.id] = peer.reports;
+                }
+            }
+        }
+    }
+
+    /**
+     * terminate method
+     *
+     * The run is over: release the unit of work held by the link, which
+     * lets the termination detector of this partition finish.
+     */
+    private void terminate() {
+        if (!terminated) {
+            terminated = true;
+            detector.workDone();
+        }
+    }
+
+    /**
+     * closePeer method
+     *
+     * Give up on a peer whose connection failed. This is expected once the
+     * run is over, as the partitions do not all stop at the same time.
+     *
+     * @param peer Peer to give up on.
+     * @param e the failure.
+     */
+    private void closePeer(Peer peer, IOException e) {
+        if (!terminated) {
+            System.err.println("Lost partition " + peer.id + ": " +
+                    e.getMessage());
+        }
+        peer.key.cancel();
+        try {
+            peer.channel.close();
+        } catch (IOException ignored) {
+            /* Nothing more to do */
+        }
+    }
+
+    /**
+     * firstSeen method
+     *
+     * Note that a message reached this partition.
+     *
+     * @param id ID of the message across the partitions.
+     * @return true if the message had not reached this partition yet.
+     */
+    private boolean firstSeen(long id) {
+        return seen[(int) (id >>> 40) - 1].add(id & ((1L << 40) - 1));
+    }
+
+    /**
+     * This class remembers which of the last messages of a partition
+     * reached this one: one bit per sequence number, for SEEN_WINDOW
+     * numbers up to the highest one seen.
+     */
+    private static final class SeenWindow {
+
+        /* One bit per sequence number, modulo SEEN_WINDOW */
+        private final long[] bits = new long[SEEN_WINDOW / 64];
+        /* Highest sequence number seen, 0 if none */
+        private long highest;
+
+        /**
+         * add method
+         *
+         * @param sequence sequence number of a message, from 1.
+         * @return true if the message was not seen yet (and is not older
+         * than the window).
+         */
+        private synchronized boolean add(long sequence) {
+            if (sequence > highest) {
+                /* The numbers now out of the window free their bits */
+                if (sequence - highest >= SEEN_WINDOW) {
+                    Arrays.fill(bits, 0);
+                } else {
+                    for (long s = highest + 1; s <= sequence; s++) {
+                        int slot = (int) (s % SEEN_WINDOW);
+                        bits[slot >>> 6] &= ~(1L << slot);
+                    }
+                }
+                highest = sequence;
+            } else if (sequence <= highest - SEEN_WINDOW) {
+                return false;
+            }
+            int slot = (int) (sequence % SEEN_WINDOW);
+            long bit = 1L << slot;
+            if ((bits[slot >>> 6] & bit) != 0) {
+                return false;
+            }
+            bits[slot >>> 6] |= bit;
+            return true;
+        }
+    }
+
+    /**
+     * This class represents the connection to another partition.
+     */
+    private static final class Peer {
+
+        /* Index of the partition */
+        private final int id;
+        /* Channel connected to the partition */
+        private final SocketChannel channel;
+        /* Key of the channel in the selector */
+        private SelectionKey key;
+        /* Records waiting for the next frame, guarded by the peer */
+        private final ByteArrayOutputStream buffer;
+        private final DataOutputStream records;
+        /* Frames not fully written yet */
+        private final ArrayDeque<ByteBuffer> pending;
+        /* Bytes read from the channel and not handled yet */
+        private ByteBuffer input;
+        /* Simulated time reached by the partition, in milliseconds */
+        private volatile long clock;
+        /* Last termination report of the partition */
+        private long sentReport;
+        private long receivedReport;
+        private boolean idle;
+        /* Number of reports received from the partition */
+        private long reports;
+        /* Clock, wall time and flags of the last frame sent */
+        private long lastTime;
+        private long lastNanos;
+        private int lastFlags;
+
+        /**
+         * Peer constructor
+         *
+         * @param id index of the partition.
+         * @param channel channel connected to the partition.
+         */
+        private Peer(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+            this.buffer = new ByteArrayOutputStream();
+            this.records = new DataOutputStream(buffer);
+            this.pending = new ArrayDeque<>();
+            this.input = ByteBuffer.allocate(1 << 16);
+            this.lastTime = -1;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * This class lets the simulation be paused at a consistent point, for
+ * instance to take a checkpoint. Every worker (node thread, agent thread,
+ * timing wheel) wraps each unit of work (processing one message, firing the
+ * timers of one tick) between enter and exit. Once pause returns, no unit
+ * of work is in progress and none can start until resume is called.
+ *
+ * The number of units in progress is kept in a LongAdder, so entering and
+ * exiting only touch a counter cell of the current thread plus a volatile
+ * read when the simulation is not paused.
+ *
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class PauseGate {
+
+    /* Number of units of work in progress */
+    private final LongAdder active;
+    /* boolean indicating whether a pause was requested */
+    private volatile boolean pausing;
+    /* Lock used to wait for a pause to end or to take effect */
+    private final Object lock;
+
+    /**
+     * PauseGate constructor
+     *
+     * The gate starts open.
+     */
+    public PauseGate() {
+        active = new LongAdder();
+        pausing = false;
+        lock = new Object();
+    }
+
+    /**
+     * enter method
+     *
+     * Start a unit of work, waiting first if the simulation is paused.
+     *
+     * @return the time spent waiting for the pause to end, in ns.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public long enter() throws InterruptedException {
+        long waited = 0;
+        while (true) {
+            active.increment();
+            if (!pausing) {
+                return waited;
+            }
+            /* A pause is in progress, back off and wait for it to end */
+            exit();
+            long start = System.nanoTime();
+            synchronized (lock) {
+                while (pausing) {
+                    lock.wait();
+                }
+            }
+            waited += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * exit method
+     *
+     * End a unit of work started with enter.
+     */
+    public void exit() {
+        active.decrement();
+        if (pausing) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * isPausing method
+     * @return true if a pause was requested and not ended yet.
+     */
+    public boolean isPausing() {
+        return pausing;
+    }
+
+    /**
+     * pause method
+     *
+     * Wait for every unit of work in progress to end, and stop new ones
+     * from starting. This must not be called from a worker thread.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void pause() throws InterruptedException {
+        synchronized (lock) {
+            pausing = true;
+            while (active.sum() != 0) {
+                lock.wait(10);
+            }
+        }
+    }
+
+    /**
+     * resume method
+     *
+     * Let the workers start new units of work again.
+     */
+    public void resume() {
+        synchronized (lock) {
+            pausing = false;
+            lock.notifyAll();
+        }
+    }
+}
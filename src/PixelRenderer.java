@@ -0,0 +1,290 @@
+/**
+ * This class draws the graph into a buffer of pixels rather than as one
+ * oval per node on the canvas, for graphs too big to be drawn that way in a
+ * frame (Display switches to it from NODE_THRESHOLD nodes on). The state of
+ * every node is written straight into an int array of ARGB pixels, which is
+ * then copied into a WritableImage in one call.
+ *
+ * When every node can get its own pixels, each node is a square sprite of 1
+ * to 4 pixels in the color of its state, with the color of an agent when
+ * one is on it. When the graph is wider than the image, several nodes fall
+ * into the same pixel and the image becomes a density heatmap: each pixel
+ * blends blue, yellow and red in proportion to the nodes in that state.
+ * Edges are not drawn, at that scale they would cover the nodes.
+ *
+ * Reading every node of a huge graph takes longer than a frame on its own,
+ * so only the nodes marked as changed (nodeChanged) are painted again, and
+ * only the rows of pixels they cover are copied into the image.
+ *
+ */
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class PixelRenderer {
+
+    /* Number of nodes from which Display draws with a PixelRenderer */
+    public static final int NODE_THRESHOLD = 20000;
+    /* Biggest width or height of the image in pixels */
+    private static final int MAX_SIZE = 2048;
+    /* Width or height the image aims for when the sprites are scaled up */
+    private static final int TARGET_SIZE = 1024;
+    /* Biggest side of a sprite in pixels */
+    private static final int MAX_SPRITE = 4;
+
+    /* Colors of the states and agents, opaque ARGB */
+    private static final int BACKGROUND = 0xFFFFFFFF;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int GREEN = 0xFFADFF2F;
+    private static final int YELLOW = 0xFFFFFF00;
+    private static final int RED = 0xFFFF0000;
+    private static final int AGENT = 0xFFF4A460;
+    /* Colors of the states, by state code (see TraceEvent) */
+    private static final int[] STATE_COLORS = {BLUE, GREEN, YELLOW, RED};
+    /* Codes of the states counted in a heatmap */
+    private static final int YELLOW_CODE = 2;
+    private static final int RED_CODE = 3;
+    /* Flag set in a painted code when an agent is on the node */
+    private static final int AGENT_FLAG = 4;
+
+    /* All the nodes of the graph, indexed by node ID */
+    private final Node[] nodes;
+    /* State code and agent flag of each node as painted, -1 if not yet */
+    private final byte[] painted;
+    /* Nodes changed since the last paint, one bit per node */
+    private final AtomicLongArray changed;
+    /* boolean indicating whether every node has to be painted again */
+    private volatile boolean allChanged;
+    /* First and last rows of pixels painted since the last render */
+    private int firstRow;
+    private int lastRow;
+    /* Index of the first pixel (sprite) or of the cell (heatmap) of each
+    node */
+    private final int[] offsets;
+    /* Width and height of the image in pixels */
+    private final int width;
+    private final int height;
+    /* Side of a sprite in pixels, 0 for a heatmap */
+    private final int sprite;
+    /* Number of nodes in each pixel of a heatmap */
+    private final int[] cellNodes;
+    /* Number of yellow and red nodes in each pixel of a heatmap */
+    private final int[] cellYellow;
+    private final int[] cellRed;
+    /* Pixels of the image, ARGB */
+    private final int[] pixels;
+    /* Image the pixels are copied to, created on first render */
+    private WritableImage image;
+
+    /**
+     * PixelRenderer constructor
+     *
+     * Work out the size of the image and where each node goes in it.
+     *
+     * @param allNodes list of all the nodes of the graph.
+     * @param maxRow biggest row of a node location.
+     * @param maxCol biggest col of a node location.
+     */
+    public PixelRenderer(LinkedList<Node> allNodes, int maxRow, int maxCol) {
+        nodes = new Node[allNodes.size()];
+        for (Node n : allNodes) {
+            nodes[n.getNodeId()] = n;
+        }
+        offsets = new int[nodes.length];
+        painted = new byte[nodes.length];
+        Arrays.fill(painted, (byte) -1);
+        changed = new AtomicLongArray((nodes.length + 63) / 64);
+        allChanged = true;
+        int extent = Math.max(maxRow, maxCol) + 1;
+        double scale;
+        if (extent <= MAX_SIZE) {
+            /* Every node gets its own sprite */
+            sprite = Math.max(1, Math.min(MAX_SPRITE, TARGET_SIZE / extent));
+            scale = sprite;
+        } else {
+            /* Several nodes share a pixel */
+            sprite = 0;
+            scale = (double) MAX_SIZE / extent;
+        }
+        width = Math.max(1, (int) Math.ceil((maxCol + 1) * scale));
+        height = Math.max(1, (int) Math.ceil((maxRow + 1) * scale));
+        pixels = new int[width * height];
+        Arrays.fill(pixels, BACKGROUND);
+        firstRow = height;
+        lastRow = -1;
+        for (int i = 0; i < nodes.length; i++) {
+            int x = Math.min(width - Math.max(1, sprite),
+                    (int) (nodes[i].getNodeLocation().x * scale));
+            int y = Math.min(height - Math.max(1, sprite),
+                    (int) (nodes[i].getNodeLocation().y * scale));
+            offsets[i] = y * width + x;
+        }
+        cellNodes = sprite == 0 ? new int[pixels.length] : null;
+        cellYellow = sprite == 0 ? new int[pixels.length] : null;
+        cellRed = sprite == 0 ? new int[pixels.length] : null;
+        if (sprite == 0) {
+            for (int offset : offsets) {
+                cellNodes[offset]++;
+            }
+        }
+    }
+
+    /**
+     * width getter
+     * @return width of the image in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * height getter
+     * @return height of the image in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * nodeChanged method
+     * <p>
+     * Mark a node whose state or agent changed, to paint it again on the
+     * next frame. Any thread may call this.
+     *
+     * @param n Node that changed.
+     */
+    public void nodeChanged(Node n) {
+        int id = n.getNodeId();
+        long bit = 1L << (id & 63);
+        long word;
+        do {
+            word = changed.get(id >>> 6);
+            if ((word & bit) != 0) {
+                return;
+            }
+        } while (!changed.compareAndSet(id >>> 6, word, word | bit));
+    }
+
+    /**
+     * allNodesChanged method
+     * <p>
+     * Mark every node to be painted again on the next frame, e.g. after the
+     * states were restored from a checkpoint.
+     */
+    public void allNodesChanged() {
+        allChanged = true;
+    }
+
+    /**
+     * render method
+     * <p>
+     * Paint the nodes that changed and copy the rows of pixels they cover
+     * into the image. This must be called from the JavaFX thread.
+     *
+     * @return the image of the graph.
+     */
+    public WritableImage render() {
+        if (image == null) {
+            image = new WritableImage(width, height);
+            allChanged = true;
+        }
+        paint();
+        if (firstRow <= lastRow) {
+            image.getPixelWriter().setPixels(0, firstRow, width,
+                    lastRow - firstRow + 1,
+                    PixelFormat.getIntArgbPreInstance(), pixels,
+                    firstRow * width, width);
+        }
+        firstRow = height;
+        lastRow = -1;
+        return image;
+    }
+
+    /**
+     * paint method
+     * <p>
+     * Write the current state of the nodes that changed into the pixels.
+     *
+     * @return the pixels of the image, ARGB, row after row.
+     */
+    public int[] paint() {
+        if (allChanged) {
+            allChanged = false;
+            for (int w = 0; w < changed.length(); w++) {
+                changed.set(w, 0);
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                paintNode(i);
+            }
+            return pixels;
+        }
+        for (int w = 0; w < changed.length(); w++) {
+            if (changed.get(w) == 0) {
+                continue;
+            }
+            long word = changed.getAndSet(w, 0);
+            while (word != 0) {
+                paintNode((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return pixels;
+    }
+
+    /* Paint a node again if it looks different from the last time */
+    private void paintNode(int id) {
+        Node n = nodes[id];
+        int code = TraceEvent.stateCode(n.getState())
+                | (n.getAgentOnNodeBoolean() ? AGENT_FLAG : 0);
+        int old = painted[id];
+        if (code == old) {
+            return;
+        }
+        painted[id] = (byte) code;
+        int offset = offsets[id];
+        if (sprite == 0) {
+            /* Move the node from the count of its old state to the new */
+            if (old >= 0) {
+                count(offset, old & 3, -1);
+            }
+            count(offset, code & 3, 1);
+            pixels[offset] = blend(offset);
+        } else {
+            int color = (code & AGENT_FLAG) != 0 ? AGENT : STATE_COLORS[code];
+            int row = offset;
+            for (int dy = 0; dy < sprite; dy++, row += width) {
+                for (int dx = 0; dx < sprite; dx++) {
+                    pixels[row + dx] = color;
+                }
+            }
+        }
+        firstRow = Math.min(firstRow, offset / width);
+        lastRow = Math.max(lastRow, offset / width + Math.max(1, sprite) - 1);
+    }
+
+    /* Add to the number of yellow or red nodes of a heatmap pixel */
+    private void count(int offset, int state, int delta) {
+        if (state == YELLOW_CODE) {
+            cellYellow[offset] += delta;
+        } else if (state == RED_CODE) {
+            cellRed[offset] += delta;
+        }
+    }
+
+    /* Color of a heatmap pixel */
+    private int blend(int offset) {
+        int total = cellNodes[offset];
+        int yellow = cellYellow[offset];
+        int red = cellRed[offset];
+        int blue = total - yellow - red;
+        /* Yellow is full red and green, red is full red, blue is blue */
+        return 0xFF000000
+                | ((yellow + red) * 255 / total) << 16
+                | (yellow * 255 / total) << 8
+                | (blue * 255 / total);
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * This class represents a batch of reports on their way to a base station.
+ * Rather than passing every report on as a message of its own, a node holds
+ * the reports it has to pass on for a short while and sends them together
+ * as one message; the nodes further down the path merge the batches they
+ * receive into their own, and the station unpacks the batch into its log.
+ *
+ * The copies of a report (see Message.equals) are merged into one entry
+ * and counted, which takes care of the copies of a report that went
+ * through different paths.
+ *
+ */
+
+import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.function.ObjIntConsumer;
+
+public class ReportBatch {
+
+    /* Maximum number of distinct reports in a batch */
+    public static final int MAX_REPORTS = 64;
+
+    /* Reports of the batch by report, in the order they were added */
+    private final LinkedHashMap<Message, Entry> reports;
+
+    /**
+     * This class represents one distinct report of the batch.
+     */
+    private static final class Entry {
+        /* First copy of the report added to the batch */
+        final Message report;
+        /* Number of copies of the report */
+        int count;
+
+        Entry(Message report, int count) {
+            this.report = report;
+            this.count = count;
+        }
+    }
+
+    /**
+     * ReportBatch constructor
+     *
+     * Set up an empty batch.
+     */
+    public ReportBatch() {
+        reports = new LinkedHashMap<>();
+    }
+
+    /**
+     * add method
+     *
+     * Add a report to the batch. A report that is itself a batch is merged
+     * into this one. Adding the very same report object again changes
+     * nothing.
+     *
+     * @param report Message to add.
+     */
+    public void add(Message report) {
+        if (report.batch != null) {
+            for (Entry e : report.batch.reports.values()) {
+                add(e.report, e.count);
+            }
+        } else {
+            add(report, 1);
+        }
+    }
+
+    /**
+     * addCritical method
+     *
+     * Add the critical reports of a report (or of a batch of them) to the
+     * batch, leaving the others out.
+     *
+     * @param report Message to add.
+     * @return true if the report held any critical report.
+     */
+    public boolean addCritical(Message report) {
+        if (report.batch == null) {
+            if (!report.getCode().isCritical()) {
+                return false;
+            }
+            add(report, 1);
+            return true;
+        }
+        boolean added = false;
+        for (Entry e : report.batch.reports.values()) {
+            if (e.report.getCode().isCritical()) {
+                add(e.report, e.count);
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    /* Add count copies of a single report */
+    private void add(Message report, int count) {
+        Entry entry = reports.get(report);
+        if (entry == null) {
+            reports.put(report, new Entry(report, count));
+        } else if (entry.report != report) {
+            entry.count += count;
+        }
+    }
+
+    /**
+     * size method
+     *
+     * @return number of distinct reports in the batch.
+     */
+    public int size() {
+        return reports.size();
+    }
+
+    /**
+     * isEmpty method
+     *
+     * @return true if the batch holds no report.
+     */
+    public boolean isEmpty() {
+        return reports.isEmpty();
+    }
+
+    /**
+     * forEach method
+     *
+     * @param action called with every distinct report of the batch and its
+     *               number of copies.
+     */
+    public void forEach(ObjIntConsumer<Message> action) {
+        for (Entry e : reports.values()) {
+            action.accept(e.report, e.count);
+        }
+    }
+
+    /**
+     * drain method
+     *
+     * Wrap the reports of the batch into a message going to the base
+     * station and empty the batch.
+     *
+     * @param source Point of the node sending the batch.
+     * @return the message carrying the reports.
+     */
+    public Message drain(Point source) {
+        ReportBatch batch = new ReportBatch();
+        batch.reports.putAll(reports);
+        reports.clear();
+        Message message = Message.report(source, EventCode.REPORT_BATCH,
+                null, batch.size(), 1);
+        message.batch = batch;
+        return message;
+    }
+
+    /**
+     * writeTo method
+     *
+     * Write the reports of the batch, with their number of copies.
+     *
+     * @param out where to write the batch.
+     * @throws IOException if the batch cannot be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        VarInts.writeUnsigned(out, reports.size());
+        for (Entry e : reports.values()) {
+            e.report.writeTo(out);
+            VarInts.writeUnsigned(out, e.count);
+        }
+    }
+
+    /**
+     * readFrom method
+     *
+     * Read back the reports written by writeTo and add them to the batch.
+     *
+     * @param in where to read the batch from.
+     * @throws IOException if the batch cannot be read.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int size = (int) VarInts.readUnsigned(in);
+        for (int i = 0; i < size; i++) {
+            Message report = Message.readFrom(in);
+            add(report, (int) VarInts.readUnsigned(in));
+        }
+    }
+}
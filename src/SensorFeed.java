@@ -0,0 +1,422 @@
+/**
+ * This class reads a live feed of sensor readings (--feed) and applies them
+ * to the running simulation, so a run can be seeded and updated from the
+ * field rather than only from the fire lines of the input file. The feed is
+ * either a TCP port on localhost (tcp:PORT, one connection after the other)
+ * or a file followed as it grows (file:PATH, like tail -f).
+ *
+ * The readings are text lines in the style of the input file:
+ * - fire x y [t]: the node at (x, y) is on fire, from simulated second t
+ *   if it is still to come, from now otherwise,
+ * - safe x y [t]: the node at (x, y) is confirmed safe, a node in danger
+ *   goes back to blue (a fire next to it still spreads to it),
+ * - end: no more readings, the run may finish once the fire stops.
+ * Blank lines and lines starting with # are skipped.
+ *
+ * The readings go through the engine as any other event: a fire is an
+ * ignition timer on the node, a safe reading a change_to_safe instruction
+ * in its mailbox. Bytes are read in large blocks, parsed in place without
+ * making strings, and every complete line of a block is applied in one go
+ * under the pause gate. The feed holds a unit of work until its end line,
+ * so the run does not finish while readings may still come.
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SensorFeed implements Runnable {
+
+    /* Size of the blocks the feed is read in, and longest line */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /* Wall ms between two looks at a followed file that did not grow */
+    private static final long FOLLOW_MILLIS = 20;
+    /* Priority of the instructions sent for the readings */
+    private static final int PRIORITY = 2;
+
+    /* Nodes of the graph by location, see key */
+    private final Map<Long, Node> nodes;
+    /* Shared timing wheel */
+    private final TimingWheel timingWheel;
+    /* Termination detector of the run */
+    private final TerminationDetector terminationDetector;
+    /* Gate the readings are applied under */
+    private final PauseGate pauseGate;
+    /* Port the readings come to, null when following a file */
+    private final ServerSocket server;
+    /* File followed, null when listening on a port */
+    private final File file;
+    /* Thread reading the feed */
+    private final Thread thread;
+    /* boolean indicating whether the unit of work of the feed was released */
+    private final AtomicBoolean released;
+    /* boolean indicating whether an end line was read */
+    private volatile boolean ended;
+    /* boolean indicating whether the feed was closed */
+    private volatile boolean closed;
+    /* Readings applied, for unknown nodes and malformed lines */
+    private volatile long readings;
+    private volatile long unknown;
+    private volatile long malformed;
+    /* Wall time of the first and last reading in ns */
+    private long firstNanos;
+    private volatile long lastNanos;
+    /* Position of the parser in the current line */
+    private int cursor;
+
+    /**
+     * SensorFeed constructor
+     *
+     * @param spec tcp:PORT to listen on a localhost port, file:PATH to
+     *             follow a file.
+     * @param allNodes list of all the nodes of the graph.
+     * @param timingWheel the shared timing wheel.
+     * @param terminationDetector termination detector of the run.
+     * @param pauseGate gate the readings are applied under.
+     * @throws IOException if the port cannot be listened on.
+     */
+    public SensorFeed(String spec, LinkedList<Node> allNodes,
+                      TimingWheel timingWheel,
+                      TerminationDetector terminationDetector,
+                      PauseGate pauseGate) throws IOException {
+        if (spec.startsWith("tcp:")) {
+            server = new ServerSocket(Integer.parseInt(spec.substring(4)),
+                    1, InetAddress.getLoopbackAddress());
+            file = null;
+        } else if (spec.startsWith("file:")) {
+            server = null;
+            file = new File(spec.substring(5));
+        } else {
+            throw new IllegalArgumentException("Unknown feed: " + spec +
+                    " (expected tcp:PORT or file:PATH)");
+        }
+        nodes = new HashMap<>(allNodes.size() * 2);
+        for (Node n : allNodes) {
+            nodes.put(key(n.getNodeLocation().x, n.getNodeLocation().y), n);
+        }
+        this.timingWheel = timingWheel;
+        this.terminationDetector = terminationDetector;
+        this.pauseGate = pauseGate;
+        released = new AtomicBoolean();
+        thread = new Thread(this, "sensor-feed");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * start method
+     *
+     * Hold the unit of work of the feed and start reading it.
+     */
+    public void start() {
+        terminationDetector.workStarted();
+        thread.start();
+    }
+
+    /**
+     * close method
+     *
+     * Stop reading the feed and wait for the reading thread to exit.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        thread.interrupt();
+        thread.join(1000);
+    }
+
+    /**
+     * isOpen method
+     *
+     * @return true if more readings may still come, the feed then holds a
+     * unit of outstanding work.
+     */
+    public boolean isOpen() {
+        return !released.get();
+    }
+
+    /**
+     * run method
+     *
+     * Body of the reading thread: read the connections one after the other
+     * or follow the file, until the end line.
+     */
+    @Override
+    public void run() {
+        try {
+            if (server != null) {
+                while (!ended && !closed) {
+                    try (Socket socket = server.accept()) {
+                        read(socket.getInputStream(), null);
+                    }
+                }
+            } else {
+                /* The file may not be there yet */
+                while (!file.exists() && !closed) {
+                    Thread.sleep(FOLLOW_MILLIS);
+                }
+                try (FileInputStream in = new FileInputStream(file)) {
+                    read(in, in.getChannel());
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Error reading the sensor feed: " +
+                        e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            /* Closed while following the file */
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * read method
+     *
+     * Read readings from a stream in blocks and apply the complete lines of
+     * each block, until the end of the stream (for a connection) or the end
+     * line. A followed file has no end: once read up to its end, it is
+     * looked at again every FOLLOW_MILLIS, and read from the start again if
+     * it shrank (it was truncated).
+     *
+     * @param in stream to read.
+     * @param channel channel of the followed file, null for a connection.
+     * @throws IOException if the stream cannot be read.
+     * @throws InterruptedException if closed while following the file.
+     */
+    private void read(InputStream in, FileChannel channel)
+            throws IOException, InterruptedException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        /* Bytes of a line not complete yet, at the start of the buffer */
+        int length = 0;
+        while (!ended && !closed) {
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                if (channel == null) {
+                    /* The last line of a connection may have no newline */
+                    if (length > 0 && length < buffer.length) {
+                        buffer[length++] = '\n';
+                        apply(buffer, length);
+                    }
+                    return;
+                }
+                if (channel.position() > channel.size()) {
+                    channel.position(0);
+                    length = 0;
+                }
+                Thread.sleep(FOLLOW_MILLIS);
+                continue;
+            }
+            length += n;
+            int consumed = apply(buffer, length);
+            if (consumed == 0 && length == buffer.length) {
+                /* A line longer than the buffer, skip it */
+                malformed++;
+                consumed = length;
+            }
+            System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+            length -= consumed;
+        }
+    }
+
+    /**
+     * apply method
+     *
+     * Apply the complete lines of a block of readings, all of them under
+     * the pause gate.
+     *
+     * @param buffer bytes read.
+     * @param length number of bytes read.
+     * @return the number of bytes applied, up to the last newline.
+     * @throws InterruptedException if interrupted while the run is paused.
+     */
+    private int apply(byte[] buffer, int length)
+            throws InterruptedException {
+        int start = 0;
+        pauseGate.enter();
+        try {
+            for (int i = 0; i < length && !ended; i++) {
+                if (buffer[i] == '\n') {
+                    applyLine(buffer, start, i);
+                    start = i + 1;
+                }
+            }
+        } finally {
+            pauseGate.exit();
+        }
+        return ended ? length : start;
+    }
+
+    /**
+     * applyLine method
+     *
+     * Parse a reading and apply it.
+     *
+     * @param line bytes of the line.
+     * @param from index of the first byte of the line.
+     * @param to index of the newline ending the line.
+     * @throws InterruptedException if interrupted while sending.
+     */
+    private void applyLine(byte[] line, int from, int to)
+            throws InterruptedException {
+        cursor = from;
+        skipSpaces(line, to);
+        if (cursor == to || line[cursor] == '#') {
+            return;
+        }
+        int word = cursor;
+        while (cursor < to && line[cursor] > ' ') {
+            cursor++;
+        }
+        boolean fire = is(line, word, cursor, "fire");
+        if (!fire && !is(line, word, cursor, "safe")) {
+            if (is(line, word, cursor, "end")) {
+                ended = true;
+                release();
+            } else {
+                malformed++;
+            }
+            return;
+        }
+        long x = number(line, to, false);
+        long y = number(line, to, false);
+        /* Simulated ms of the reading, -1 for now */
+        long time = number(line, to, true);
+        skipSpaces(line, to);
+        if (x < 0 || y < 0 || time < -1 || cursor < to) {
+            malformed++;
+            return;
+        }
+        if (readings == 0) {
+            firstNanos = System.nanoTime();
+        }
+        lastNanos = System.nanoTime();
+        readings++;
+        Node n = nodes.get(key((int) x, (int) y));
+        if (n == null) {
+            unknown++;
+            return;
+        }
+        long delay = Math.max(0, time - timingWheel.currentTimeMillis());
+        if (fire) {
+            /* The node sets itself on fire, through a regular ignition */
+            n.scheduleIgnition(n, delay);
+        } else if (delay == 0) {
+            n.addToBlockingQueue(Message.instruction(n.getNodeLocation(),
+                    n.getNodeLocation(), EventCode.CHANGE_TO_SAFE, PRIORITY));
+        } else {
+            terminationDetector.workStarted();
+            timingWheel.schedule(() -> {
+                try {
+                    n.addToBlockingQueue(Message.instruction(
+                            n.getNodeLocation(), n.getNodeLocation(),
+                            EventCode.CHANGE_TO_SAFE, PRIORITY));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                terminationDetector.workDone();
+            }, delay);
+        }
+    }
+
+    /*
+     * Parse the next field of a line: a whole number, or a number of seconds
+     * (down to the ms) returned in ms. Returns -1 at the end of the line and
+     * -2 if the field is not such a number.
+     */
+    private long number(byte[] line, int to, boolean seconds) {
+        skipSpaces(line, to);
+        if (cursor == to) {
+            return -1;
+        }
+        long value = 0;
+        /* Digits after the point, -1 before it */
+        int decimals = -1;
+        int digits = 0;
+        for (; cursor < to && line[cursor] > ' '; cursor++) {
+            byte b = line[cursor];
+            if (b == '.' && seconds && decimals < 0) {
+                decimals = 0;
+            } else if (b < '0' || b > '9' || digits == 15) {
+                return -2;
+            } else if (decimals < 3) {
+                value = value * 10 + (b - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            }
+        }
+        if (digits == 0) {
+            return -2;
+        }
+        if (seconds) {
+            for (int d = Math.max(decimals, 0); d < 3; d++) {
+                value *= 10;
+            }
+        }
+        return value;
+    }
+
+    /* Move the cursor past spaces and tabs */
+    private void skipSpaces(byte[] line, int to) {
+        while (cursor < to && (line[cursor] == ' ' || line[cursor] == '\t'
+                || line[cursor] == '\r')) {
+            cursor++;
+        }
+    }
+
+    /* Whether the bytes from from to to spell the given word */
+    private static boolean is(byte[] line, int from, int to, String word) {
+        if (to - from != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (line[from + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Key of a location in the map of the nodes */
+    private static long key(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    /* Release the unit of work of the feed, once */
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            terminationDetector.workDone();
+        }
+    }
+
+    @Override
+    public String toString() {
+        double seconds = (lastNanos - firstNanos) / 1e9;
+        /* A rate is only worth giving over a good number of readings */
+        return readings + " readings" + (unknown > 0 ? ", " + unknown +
+                " for unknown nodes" : "") + (malformed > 0 ? ", " +
+                malformed + " malformed lines" : "") + (readings >= 1000
+                ? String.format(", %.0f readings/s", readings / seconds)
+                : "");
+    }
+}
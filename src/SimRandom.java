@@ -0,0 +1,75 @@
+/**
+ * This class is the random number generator of the simulation. It works
+ * like java.util.Random (so it can be used with Collections.shuffle) but
+ * its whole state is a single long that can be read and set, so a
+ * checkpoint can save it and a restored run draws the same numbers. The
+ * numbers come from the SplitMix64 generator.
+ *
+ */
+
+import java.util.Random;
+
+public class SimRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    /* Golden ratio increment of SplitMix64 */
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    /* Whole state of the generator */
+    private long state;
+
+    /**
+     * SimRandom constructor
+     *
+     * @param seed initial state of the generator.
+     */
+    public SimRandom(long seed) {
+        super(seed);
+        this.state = seed;
+    }
+
+    /**
+     * getState method
+     * @return the current state of the generator.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * setState method
+     * @param state state to restore the generator to.
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * setSeed override
+     *
+     * @param seed new state of the generator.
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * next override
+     *
+     * Generate the next random bits, all the other methods of Random are
+     * based on this one.
+     *
+     * @param bits number of random bits to return.
+     * @return random bits.
+     */
+    @Override
+    protected int next(int bits) {
+        long z = (state += GAMMA);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) (z >>> (64 - bits));
+    }
+}
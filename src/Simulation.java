@@ -0,0 +1,857 @@
+/**
+ * This class sets up and runs a simulation: the input file is read, the
+ * graph and nodes are set up, the services of the run (timing wheel, trace,
+ * log, frames, watchdog...) are connected and the threads are launched.
+ * Once the fire can spread no further, every thread is released and the
+ * completion stats are reported.
+ *
+ * It does not touch JavaFX, so the runs without a GUI (see Headless) load
+ * neither the JavaFX runtime nor Coordinator; the GUI only gives it the
+ * Display to draw the run on.
+ *
+ */
+
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class Simulation {
+
+    /* Settings of the run - the input file is given with --input=file */
+    private SimulationConfig config;
+    /*
+     * Collection of Nodes holding all nodes existing in graph - used for
+     set up
+     */
+    private LinkedList<Node> allNodes;
+    /*
+     * Nodes run by this process - all of them, unless the graph is split
+     * across several processes
+     */
+    private LinkedList<Node> localNodes;
+    /* Display object used for the GUI, null for a run without a GUI */
+    private Display GUI;
+    /* Duration of one tick of the shared timing wheel, in milliseconds */
+    private static final long TICK_MILLIS = 10;
+    /* Timer scheduler shared by all the nodes and agents */
+    private TimingWheel timingWheel;
+    /* Detects the end of the simulation */
+    private TerminationDetector terminationDetector;
+    /* Aggregate metrics of the simulation, exposed through JMX */
+    private SimulationMetrics metrics;
+    /* Recorder of the simulation trace, null if the run is not recorded */
+    private TraceRecorder traceRecorder;
+    /* File log of the base stations, null if the log is not written */
+    private StationLog stationLog;
+    /* Writer of PNG frames of the run, null if no frame is saved */
+    private FrameExporter frameExporter;
+    /* Watches the run for lock-ups, null if disabled */
+    private Watchdog watchdog;
+    /* Feed of sensor readings, null if the run has none */
+    private SensorFeed sensorFeed;
+    /* History of the states of the run */
+    private StateHistory stateHistory;
+    /* Agents alive in the simulation */
+    private AgentPopulation agentPopulation;
+    /* Nodes of (this partition of) the simulation by state */
+    private StateIndex stateIndex;
+    /* Gate used to pause the simulation, for instance for a checkpoint */
+    private PauseGate pauseGate;
+    /* Link to the other partitions, null if the graph is not partitioned */
+    private PartitionLink partitionLink;
+    /* Threads associated with each node */
+    private HashMap<Node, Thread> nodeToThread;
+    /* Wall clock time at which the simulation was started */
+    private long startNanos;
+    /* How much the agents report, as set by the input file */
+    private Telemetry telemetry;
+
+
+
+    /**
+     * Simulation constructor
+     *
+     * Set up a run with the given settings. Nothing is read or started
+     * yet.
+     *
+     * @param config settings of the run.
+     */
+    Simulation(SimulationConfig config) {
+        allNodes = new LinkedList<>();
+        this.config = config;
+        telemetry = new Telemetry(Telemetry.Level.FULL,
+                Telemetry.DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * GUI setter
+     *
+     * @param GUI Display the run is drawn on.
+     */
+    void setGUI(Display GUI) {
+        this.GUI = GUI;
+    }
+
+    /**
+     * allNodes getter
+     * @return every node of the graph, as read from the input file.
+     */
+    LinkedList<Node> getAllNodes() {
+        return allNodes;
+    }
+
+    /**
+     * launchPartitions method
+     *
+     * Start one simulation process per partition of the graph on this
+     * machine, with the same settings, and wait until they are all done.
+     * The partitions run without a GUI and talk to each other over the
+     * loopback interface. They all draw from the same seed.
+     *
+     * @param args command line args, see SimulationConfig
+     * @param config settings parsed from the command line args.
+     * @return the highest exit status of the partition processes.
+     */
+    static int launchPartitions(String[] args, SimulationConfig config)
+            throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator +
+                "bin" + File.separator + "java";
+        LinkedList<Process> processes = new LinkedList<>();
+        for (int p = 0; p < config.getPartitions(); p++) {
+            LinkedList<String> command = new LinkedList<>(Arrays.asList(java,
+                    "-cp", System.getProperty("java.class.path"),
+                    Headless.class.getName()));
+            command.addAll(Arrays.asList(args));
+            command.add("--seed=" + config.getSeed());
+            command.add("--partition=" + p);
+            command.add("--headless");
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        int status = 0;
+        for (Process process : processes) {
+            status = Math.max(status, process.waitFor());
+        }
+        return status;
+    }
+
+    /**
+     * runHeadless method
+     *
+     * Read the input file, run the simulation without a GUI and wait until
+     * it is over and every thread has been released. This is used for batch
+     * runs.
+     */
+    void runHeadless() throws IOException, InterruptedException {
+        readInputFile();
+        Thread shutdown = startSimulation();
+        /* Wait for the fire to stop spreading */
+        while (!terminationDetector.awaitFinished(1, TimeUnit.SECONDS)) {
+            continue;
+        }
+        /* Wait for every thread to be released */
+        shutdown.join();
+    }
+
+    /**
+     * queryTrace method
+     *
+     * Read the input file and the trace given with --replay, and answer the
+     * queries given with --query from the history of the recorded run,
+     * without simulating it again.
+     */
+    void queryTrace() throws IOException {
+        readInputFile();
+        try (TraceReader reader = new TraceReader(config.getReplayFile())) {
+            StateHistory history = StateHistory.fromTrace(reader, allNodes);
+            for (String query : config.getQueries()) {
+                System.out.println(history.query(query));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error reading " + config.getReplayFile() +
+                    ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * startSimulation method
+     *
+     * This method will be called when the user clicks on the start button in
+     * the GUI. This method basically starts the simulation (hence the name),
+     * creates and starts threads associated with each node and starts the
+     * initial agent thread on the base station. The timing wheel shared by
+     * all the nodes is started first, at the speed given in the settings.
+     * Once the fire can spread no further, every thread is released and the
+     * completion stats are reported.
+     *
+     * @return the thread that will stop the simulation once it is over.
+     */
+    Thread startSimulation() {
+        nodeToThread = new HashMap<>();
+        LinkedList<Agent> agents = new LinkedList<>();
+        startNanos = System.nanoTime();
+        /* Set up the shared timer scheduler and the gate to pause it */
+        pauseGate = new PauseGate();
+        timingWheel = new TimingWheel(TICK_MILLIS, config.getSpeed());
+        timingWheel.setPauseGate(pauseGate);
+        /* Set up the termination detector */
+        terminationDetector = new TerminationDetector();
+        Thread shutdown = new Thread(this::stopSimulation,
+                "simulation-shutdown");
+        terminationDetector.setOnFinished(shutdown::start);
+        Node[] nodes = new Node[allNodes.size()];
+        for (Node n : allNodes) {
+            nodes[n.getNodeId()] = n;
+        }
+        /*
+         * If this process only runs one partition of the graph, the nodes
+         * of the other partitions are ghost copies
+         */
+        localNodes = allNodes;
+        if (config.isPartitioned()) {
+            Message.setPartition(config.getPartition());
+            partitionLink = new PartitionLink(config.getPartition(),
+                    config.getPartitions(), nodes);
+            localNodes = new LinkedList<>();
+            for (Node n : allNodes) {
+                n.setPartitionLink(partitionLink, !partitionLink.isLocal(n));
+                if (partitionLink.isLocal(n)) {
+                    localNodes.add(n);
+                }
+            }
+        }
+        /* Index the nodes by state, kept up to date as they change */
+        stateIndex = new StateIndex(nodes);
+        if (GUI != null) {
+            GUI.setStateIndex(stateIndex);
+        }
+        /* Set up the metrics */
+        metrics = new SimulationMetrics(localNodes, stateIndex);
+        /* Record the trace of the run if asked to */
+        if (config.getTraceFile() != null) {
+            try {
+                traceRecorder = new TraceRecorder(config.getTraceFile(),
+                        timingWheel, allNodes.size());
+            } catch (IOException e) {
+                System.err.println("Error creating the trace file: " +
+                        e.getMessage());
+            }
+        }
+        /* Write the log of the stations to a file if asked to */
+        if (config.getLogFile() != null) {
+            /* Every partition writes its own log */
+            String logFile = config.getLogFile() + (partitionLink != null
+                    ? ".p" + config.getPartition() : "");
+            try {
+                stationLog = new StationLog(logFile, config.getLogFormat(),
+                        config.getLogSize(), timingWheel);
+            } catch (IOException e) {
+                System.err.println("Error creating the log file: " +
+                        e.getMessage());
+            }
+        }
+        /* Save pictures of the run if asked to */
+        if (config.getFramesDirectory() != null) {
+            try {
+                frameExporter = new FrameExporter(allNodes,
+                        config.getFramesDirectory(), partitionLink != null
+                        ? "p" + config.getPartition() + "-frame" : "frame",
+                        config.getFrameSize(), timingWheel);
+            } catch (IOException e) {
+                System.err.println("Error creating the frames directory: " +
+                        e.getMessage());
+            }
+        }
+        /* Reports go to the nearest base station */
+        StationRouter router = new StationRouter(nodes);
+        /* The command line overrides the telemetry level of the input file */
+        if (config.getTelemetry() != null) {
+            telemetry = config.getTelemetry();
+        }
+        /* Agents alive in (this partition of) the run */
+        agentPopulation = new AgentPopulation(config.getMaxAgents());
+        /* Distances to the fire, if the agents walk down them */
+        DistanceField distanceField = config.isGradientWalk()
+                ? new DistanceField(nodes) : null;
+        /* Every node draws from its own generator, seeded from the run */
+        SimRandom seeds = new SimRandom(config.getSeed());
+        /* Connect every node to the services of the run */
+        for (Node n: allNodes){
+            n.setTimingWheel(timingWheel);
+            n.setTerminationDetector(terminationDetector);
+            n.setMetrics(new NodeMetrics(n, metrics));
+            n.setTraceRecorder(traceRecorder);
+            n.setStationLog(stationLog);
+            n.setRandom(new SimRandom(seeds.nextLong()));
+            n.setPauseGate(pauseGate);
+            n.setRouter(router);
+            n.setReportWindow(config.getReportWindow());
+            n.setTelemetry(telemetry);
+            n.setAgentPopulation(agentPopulation);
+            n.setDistanceField(distanceField);
+            n.setStateIndex(stateIndex);
+        }
+        if (partitionLink != null && (config.getRestoreFile() != null
+                || config.getCheckpointFile() != null)) {
+            System.err.println("Checkpoints are not supported when the " +
+                    "graph is split across processes, ignoring them");
+        }
+        /*
+         * Read the sensor feed, in the first partition only: the readings
+         * for the nodes of the others are passed on to them
+         */
+        if (config.getFeed() != null && (partitionLink == null
+                || config.getPartition() == 0)) {
+            try {
+                sensorFeed = new SensorFeed(config.getFeed(), allNodes,
+                        timingWheel, terminationDetector, pauseGate);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error opening the sensor feed: " +
+                        e.getMessage());
+            }
+        }
+        if (sensorFeed != null && config.getCheckpointFile() != null) {
+            System.err.println("Checkpoints are not supported with a " +
+                    "sensor feed, ignoring them");
+        }
+        if (config.getRestoreFile() != null && partitionLink == null) {
+            /* Carry on from a checkpoint */
+            try {
+                agents.addAll(Checkpoint.restore(config.getRestoreFile(),
+                        nodes, timingWheel));
+                stateIndex.rebuild();
+            } catch (IOException e) {
+                System.err.println("Error restoring " +
+                        config.getRestoreFile() + ": " + e.getMessage());
+            }
+        } else {
+            for (Node n : localNodes) {
+                if (n.isBaseStation) {
+                    /* Set up the initial agent, it walks once started */
+                    Agent agent = agentPopulation.create(n, true);
+                    if (agent != null) {
+                        agent.start();
+                        agents.add(agent);
+                    }
+                }
+            }
+            if (agents.isEmpty() && partitionLink == null) {
+                System.out.println("Error setting up the first agent. " +
+                        "Please check your input file ");
+            }
+        }
+        /* Keep the history of the states from here on */
+        stateHistory = new StateHistory(localNodes, allNodes.size(),
+                timingWheel);
+        for (Node n : allNodes) {
+            n.setStateHistory(stateHistory);
+        }
+        /* The fire of the scenario (or checkpoint) is known from the start */
+        if (distanceField != null) {
+            distanceField.scan();
+        }
+        /* Set all the nodes and their associated threads in a hashmap */
+        for (Node n: localNodes){
+            /* The trace starts with the initial state of every node */
+            if (traceRecorder != null) {
+                traceRecorder.stateChanged(n);
+            }
+            /* A burning node has to notify its neighbors */
+            if (n.needsToSpread()) {
+                terminationDetector.workStarted();
+            }
+            /* Named after the node, to find it in a thread dump */
+            nodeToThread.putIfAbsent(n, new Thread(n, "node-" +
+                    n.getNodeLocation().x + "-" + n.getNodeLocation().y));
+            n.setGUI(GUI);
+        }
+        /* The states may have been restored since the graph was drawn */
+        if (GUI != null) {
+            GUI.allNodesChanged();
+        }
+        /* Wait for the other partitions and keep the clocks in step */
+        if (partitionLink != null) {
+            try {
+                partitionLink.connect(config.getPort());
+            } catch (IOException e) {
+                System.err.println("Error connecting partition " +
+                        config.getPartition() + ": " + e.getMessage());
+                System.exit(1);
+            }
+            partitionLink.start(timingWheel, terminationDetector);
+        }
+        /* Take a checkpoint once the simulated clock gets there */
+        if (config.getCheckpointFile() != null && partitionLink == null
+                && sensorFeed == null) {
+            long delay = (long) (config.getCheckpointAt() * 1000)
+                    - timingWheel.currentTimeMillis();
+            timingWheel.schedule(() -> {
+                /* Pausing waits for the wheel, so do it on another thread */
+                Thread checkpoint = new Thread(() -> takeCheckpoint(nodes),
+                        "checkpoint");
+                checkpoint.setDaemon(true);
+                checkpoint.start();
+            }, delay);
+        }
+        /* Expose the metrics and dump them periodically if asked to */
+        metrics.register();
+        if (config.getMetricsInterval() > 0) {
+            metrics.startPeriodicDump(timingWheel,
+                    (long) (config.getMetricsInterval() * 1000));
+        }
+        if (frameExporter != null) {
+            frameExporter.start((long) (config.getFrameInterval() * 1000));
+        }
+        /* Watch the run for lock-ups */
+        if (config.getWatchdogInterval() > 0) {
+            watchdog = new Watchdog(nodeToThread, timingWheel,
+                    terminationDetector, metrics, stateIndex, pauseGate,
+                    config.getWatchdogInterval());
+            watchdog.setSensorFeed(sensorFeed);
+            watchdog.start();
+        }
+        /* Take in the readings of the sensors */
+        if (sensorFeed != null) {
+            sensorFeed.start();
+        }
+        /* Start the simulated clock, then all the threads! */
+        Thread wheelThread = new Thread(timingWheel, "timing-wheel");
+        wheelThread.setDaemon(true);
+        wheelThread.start();
+        for (Thread t: nodeToThread.values()){
+            t.start();
+
+        }
+        /* Everything is set up, release the unit of work held during set up */
+        terminationDetector.workDone();
+        return shutdown;
+    }
+
+    /**
+     * takeCheckpoint method
+     *
+     * Pause the simulation, write a checkpoint of it to the file given with
+     * --checkpoint and let it carry on.
+     *
+     * @param nodes every node of the graph, indexed by node ID.
+     */
+    private void takeCheckpoint(Node[] nodes) {
+        try {
+            if (Checkpoint.take(config.getCheckpointFile(), nodes,
+                    timingWheel, pauseGate, terminationDetector)) {
+                System.out.println("Checkpoint written to " +
+                        config.getCheckpointFile() + " at " +
+                        timingWheel.currentTimeMillis() / 1000.0 + " s");
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error writing the checkpoint: " +
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * stopSimulation method
+     *
+     * This method is called once the termination detector found that the
+     * fire can spread no further and that every blocking queue is empty. It
+     * stops the timing wheel, releases every node thread, kills the agents
+     * still alive and reports the completion stats.
+     */
+    private void stopSimulation() {
+        /* The run is over, stop watching it */
+        if (watchdog != null) {
+            try {
+                watchdog.close();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        /* Take no more readings */
+        if (sensorFeed != null) {
+            try {
+                sensorFeed.close();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        /* No more timers, the agents will not take any new step */
+        timingWheel.shutdown();
+        /* Release the node threads */
+        for (Node n : localNodes) {
+            n.shutdown();
+        }
+        int nodeThreads = joinAll(nodeToThread.values());
+        /* Kill the agents that are still alive */
+        for (Node n : localNodes) {
+            Agent agent = n.getAgent();
+            if (agent != null) {
+                n.setAgent(null);
+                try {
+                    agent.kill();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        reportCompletion(nodeThreads);
+        metrics.unregister();
+        /* The history is complete, answer the queries on it */
+        for (String query : config.getQueries()) {
+            System.out.println(stateHistory.query(query));
+        }
+        if (GUI != null) {
+            GUI.later(() -> GUI.setStateHistory(stateHistory));
+        }
+        /* Make sure the whole trace and log reached the disk */
+        if (traceRecorder != null) {
+            try {
+                traceRecorder.close();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (stationLog != null) {
+            try {
+                stationLog.close();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        /* Write the last frame and wait for the others */
+        if (frameExporter != null) {
+            try {
+                frameExporter.close();
+                System.out.println("Frames: " + frameExporter + ".");
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (sensorFeed != null) {
+            System.out.println("Sensor feed: " + sensorFeed + ".");
+        }
+        if (partitionLink != null) {
+            partitionLink.close();
+        }
+    }
+
+    /**
+     * joinAll method
+     *
+     * Wait for each of the given threads to exit. A thread that does not
+     * exit in time (an agent that was moving while the simulation stopped)
+     * is interrupted.
+     *
+     * @param threads threads to wait for.
+     * @return the number of threads that were released.
+     */
+    private int joinAll(Iterable<Thread> threads) {
+        int released = 0;
+        for (Thread t : threads) {
+            try {
+                t.join(1000);
+                if (t.isAlive()) {
+                    t.interrupt();
+                    t.join();
+                }
+                released++;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return released;
+    }
+
+    /**
+     * reportCompletion method
+     *
+     * Print the completion stats of the simulation and add them to the log
+     * of the GUI.
+     *
+     * @param nodeThreads number of node threads released.
+     */
+    private void reportCompletion(int nodeThreads) {
+        long wallMillis = (System.nanoTime() - startNanos) / 1000000;
+        String report = (partitionLink != null ? "[partition " +
+                config.getPartition() + "] " : "") +
+                "Simulation finished after " +
+                timingWheel.currentTimeMillis() / 1000.0 + " s of simulated " +
+                "time (" + wallMillis + " ms of wall time). Nodes: " +
+                stateIndex.getCounts() +
+                ". Messages and timers handled: " +
+                terminationDetector.getCompletedWork()
+                + ". Threads released: " + nodeThreads + " nodes. Agents: " +
+                agentPopulation + ". Seed: " + config.getSeed() + ".";
+        System.out.println(report);
+        System.out.println(metrics.snapshot(timingWheel.currentTimeMillis()));
+        if (config.getBenchReport() != null) {
+            writeBenchReport(wallMillis);
+        }
+        Message completion = new Message(null, null, report, 1);
+        if (stationLog != null) {
+            stationLog.log(null, completion, 1);
+        }
+        if (GUI != null) {
+            GUI.later(() -> GUI.updateLog(completion));
+        }
+    }
+
+    /**
+     * writeBenchReport method
+     *
+     * Write the measures of the run to the file given with --bench-report
+     * (suffixed with the partition in a partitioned run), as properties
+     * read back by BenchmarkSuite.
+     *
+     * @param wallMillis wall time of the run in ms.
+     */
+    private void writeBenchReport(long wallMillis) {
+        long messages = metrics.sent.total() + metrics.forwarded.total();
+        /* The peaks of the heap pools may not all be reached at once */
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool
+                : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        Properties measures = new Properties();
+        measures.setProperty("input", config.getInputFile());
+        measures.setProperty("nodes", String.valueOf(localNodes.size()));
+        measures.setProperty("wall_ms", String.valueOf(wallMillis));
+        measures.setProperty("simulated_ms",
+                String.valueOf(timingWheel.currentTimeMillis()));
+        measures.setProperty("messages", String.valueOf(messages));
+        measures.setProperty("messages_per_s", String.valueOf(
+                wallMillis == 0 ? 0 : messages * 1000 / wallMillis));
+        measures.setProperty("peak_mailbox",
+                String.valueOf(metrics.getPeakMailboxDepth()));
+        measures.setProperty("peak_heap_mb",
+                String.valueOf(peakHeap / (1024 * 1024)));
+        measures.setProperty("peak_threads", String.valueOf(
+                ManagementFactory.getThreadMXBean().getPeakThreadCount()));
+        measures.setProperty("fire_latency_p50_ms",
+                String.valueOf(metrics.getFireLatencyP50Millis()));
+        measures.setProperty("fire_latency_p99_ms",
+                String.valueOf(metrics.getFireLatencyP99Millis()));
+        String file = config.getBenchReport() + (partitionLink != null
+                ? ".p" + config.getPartition() : "");
+        try (OutputStream out = new FileOutputStream(file)) {
+            measures.store(out, "FireSim run, seed " + config.getSeed());
+        } catch (IOException e) {
+            System.err.println("Error writing " + file + ": " +
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * setUpBaseStation method
+     * <p>
+     * method to set up the state of the base station. Note that a state can
+     * either be
+     * green (base station), blue (safe), yellow (in danger), red (burning).
+     *
+     * @param locationBaseStation Point representing the location of the base
+     *                            station.
+     */
+    private void setUpBaseStation(Point locationBaseStation) {
+        /* Loop through each node */
+        for (Node n : allNodes) {
+            /* check if the node is the current base station */
+            if (n.getNodeLocation().equals(locationBaseStation)) {
+                n.setState("green");
+                n.setBaseStation(true);
+                /* The base station always starts with an agent on the node */
+                n.setAgentOnNodeBoolean(true);
+                return;
+            }
+        }
+    }
+
+    /**
+     * setUpFire method
+     * <p>
+     * method to set up the node(s) that is/are currently burning. Node that
+     * we could start with multiple fires.
+     *
+     * @param locationFire Point representing the location at which a node is
+     *                     burning.
+     */
+    private void setUpFire(Point locationFire) {
+        /* Loop through all the nodes */
+        for (Node n1 : allNodes) {
+            /* Find the initially burning node(s) */
+            if (n1.getNodeLocation().equals(locationFire)) {
+                n1.setState("red");
+                return;
+            }
+        }
+    }
+
+    /**
+     * setUpAllStates method
+     *
+     * This method sets up the state of all the remaining nodes after the
+     * base station, the fire node and the nodes in danger have been set up.
+     */
+    private void setUpAllStates(){
+        /* Loop through all the nodes */
+        for (Node n : allNodes){
+            /* set up the state of each node */
+            if (n.getState()!=null){
+                continue;
+            }else{
+                /* If our node has no state initialized yet, it is neither a
+                base station, neither on fire and neither in danger, so set
+                it to blue - safe.
+                 */
+                n.setState("blue");
+            }
+        }
+    }
+
+    /**
+     * setUpNodes method
+     * <p>
+     * This method is called by readInputFile as long as nodes are read in.
+     * For each node read, setUpNode will instantiate a new node with given
+     * coordinates and add it to allNode list.
+     */
+    private void setUpNodes(int xLocation, int yLocation) {
+        /* add a new node to the list of all nodes */
+        allNodes.add(new Node(allNodes.size(), new LinkedList<>(), null,
+                new Point(xLocation,
+                        yLocation), false,
+                new Mailbox(), false));
+    }
+
+    /**
+     * setUpEdges method
+     * <p>
+     * This method simply sets up the edges of each node and adds them to
+     * their respective Collection of adjacent nodes.
+     *
+     * @param firstNodePoint  location of the first node to which we will add the
+     *                        adjacent point
+     * @param secondNodePoint location of the second node to which we will add
+     *                        the adjacent point
+     */
+    private void setUpEdges(Point firstNodePoint, Point secondNodePoint) {
+        /* Set up two temporary node variables */
+        Node tempFirst = null;
+        Node tempSecond = null;
+        /* Loop through the nodes */
+        for (Node n : allNodes) {
+            /* Store the correct nodes in the two temp variables */
+            if (n.getNodeLocation().equals(firstNodePoint)) {
+                tempFirst = n;
+            } else if (n.getNodeLocation().equals(secondNodePoint)) {
+                tempSecond = n;
+            }
+        }
+        /*
+         * Add the temp nodes to the list of adjacent nodes of our initial
+         * ones
+         */
+        if (tempFirst!= null && tempSecond != null) {
+            tempFirst.addAdjacentPoint(tempSecond);
+            tempSecond.addAdjacentPoint(tempFirst);
+        }else{
+            System.err.println("Error in setting up the edges, please check " +
+                    "the input file");
+        }
+
+    }
+
+    /**
+     * readInputFile method
+     * <p>
+     * This method reads input file and sets up the read-in elements into their
+     * corresponding object.
+     */
+    void readInputFile() throws IOException {
+        /* Read the tiles from file */
+        InputStream in = getClass().getClassLoader()
+                .getResourceAsStream(config.getInputFile());
+        if (in == null){
+            System.err.println("Error in reading the input file, make sure " +
+                    "the file exists!");
+            return;
+        }
+        /* This is not elegant coding but it works without changing too much */
+        BufferedReader br = new BufferedReader(new InputStreamReader(in));
+        String ln;
+        /* First loop through the file and search for nodes */
+        while ((ln = br.readLine()) != null) {
+            String[] arr = ln.split(" ");
+            if (arr[0].equals("node")){
+                /* Set up the node */
+                setUpNodes(Integer.parseInt(arr[1]), Integer.parseInt(arr[2]));
+            }
+        }
+        /*
+         * Now read the file in again and search for edges, base station, and
+         * the fire node. Read the tiles from
+         * file
+         */
+        in = getClass().getClassLoader()
+                .getResourceAsStream(config.getInputFile());
+        if (in == null){
+            System.err.println("Error in reading the input file, make sure " +
+                    "the file exists!");
+            return;
+        }
+        /*
+         * Reset the buffered reader and get info on edges, base station and
+         * fires.
+         */
+        br = new BufferedReader(new InputStreamReader(in));
+        while ((ln = br.readLine()) != null) {
+            String[] arr = ln.split(" ");
+            switch (arr[0]) {
+                case "edge":
+                    /* Parse the location of the first node */
+                    Point firstNodePoint = new Point(Integer.parseInt(arr[1]),
+                            Integer.parseInt(arr[2]));
+                    /* Parse the location of second node */
+                    Point secondNodePoint = new Point(Integer.parseInt(arr[3]),
+                            Integer.parseInt(arr[4]));
+                    /* Set up the edges */
+                    setUpEdges(firstNodePoint, secondNodePoint);
+                    break;
+                case "station":
+                    /* Set up the base station */
+                    setUpBaseStation(new Point(Integer.parseInt(arr[1]),
+                            Integer.parseInt(arr[2])));
+                    break;
+                case "fire":
+                    setUpFire(new Point(Integer.parseInt(arr[1]),
+                            Integer.parseInt(arr[2])));
+                    break;
+                case "telemetry":
+                    /* How much the agents report, e.g. telemetry sampled 10 */
+                    try {
+                        telemetry = Telemetry.parse(arr[1],
+                                arr.length > 2 ? arr[2] : null);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error in the telemetry line, " +
+                                "please check the input file");
+                    }
+                    break;
+            }
+        }
+        /*
+         * We are done reading in the file, now set all the non-initialized
+         * bases for the nodes to blue - safe or yellow (if adjacent to a fire).
+         */
+        setUpAllStates();
+    }
+}
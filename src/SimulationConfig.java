@@ -0,0 +1,495 @@
+/**
+ * This class holds the settings of a simulation run. The settings are read
+ * from the command line arguments, given as --name=value (or simply --name
+ * for boolean settings). Every setting has a default value so the program
+ * can still be launched without any argument.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class SimulationConfig {
+
+    /* Input file to read the graph from */
+    private String inputFile;
+    /* boolean indicating whether the simulation runs without a GUI */
+    private boolean headless;
+    /* Speed of the simulated clock compared to the wall clock */
+    private double speed;
+    /* Simulated seconds between two metrics snapshots, 0 to disable */
+    private double metricsInterval;
+    /* File to record the trace of the run to, null to not record it */
+    private String traceFile;
+    /* Trace file to replay instead of simulating, null to simulate */
+    private String replayFile;
+    /* Speed of the replay compared to the recorded run */
+    private double replaySpeed;
+    /* Simulated seconds at which the replay starts */
+    private double replayFrom;
+    /* Seed of the random number generators of the run */
+    private long seed;
+    /* File to write a checkpoint of the run to, null to not checkpoint */
+    private String checkpointFile;
+    /* Simulated seconds at which the checkpoint is taken */
+    private double checkpointAt;
+    /* Checkpoint file to restore the run from, null to start afresh */
+    private String restoreFile;
+    /* Number of processes the graph is split across */
+    private int partitions;
+    /* Partition run by this process, -1 to launch every partition */
+    private int partition;
+    /* Port of partition 0, partition i listens on port + i */
+    private int port;
+    /* Simulated ms a node holds reports to batch them, 0 not to batch */
+    private long reportWindow;
+    /* How much the agents report, null to use the input file's level */
+    private Telemetry telemetry;
+    /* Maximum number of agents alive at once, 0 for no cap */
+    private int maxAgents;
+    /* boolean indicating whether the agents walk down the distances to
+    the fire rather than at random */
+    private boolean gradientWalk;
+    /* File to write the log of the base stations to, null for none */
+    private String logFile;
+    /* Format of the log file, line or json */
+    private String logFormat;
+    /* Size above which the log file is rotated, in MB */
+    private int logSize;
+    /* Directory to write PNG frames of the run to, null for none */
+    private String framesDirectory;
+    /* Simulated seconds between two frames */
+    private double frameInterval;
+    /* Width and height of the frames in pixels */
+    private int frameSize;
+    /* boolean indicating whether to benchmark the GUI instead of running */
+    private boolean guiBenchmark;
+    /* File to write the measures of the run to, null for none */
+    private String benchReport;
+    /* Wall seconds between two checks of the watchdog, 0 to disable it */
+    private double watchdogInterval;
+    /* Feed of sensor readings (tcp:PORT or file:PATH), null for none */
+    private String feed;
+    /* Queries on the history of the run, see StateHistory.query */
+    private List<String> queries;
+
+    /**
+     * SimulationConfig constructor
+     *
+     * Set up the default settings: the sample graph, with a GUI, in real
+     * time.
+     */
+    public SimulationConfig() {
+        inputFile = "sample.txt";
+        headless = false;
+        speed = 1;
+        metricsInterval = 0;
+        replaySpeed = 1;
+        replayFrom = 0;
+        seed = new Random().nextLong();
+        checkpointAt = 0;
+        partitions = 1;
+        partition = -1;
+        port = 47000;
+        reportWindow = 200;
+        maxAgents = AgentPopulation.UNLIMITED;
+        logFormat = "line";
+        logSize = StationLog.DEFAULT_MAX_MB;
+        frameInterval = 1;
+        frameSize = FrameExporter.DEFAULT_SIZE;
+        watchdogInterval = Watchdog.DEFAULT_INTERVAL;
+        queries = new ArrayList<>();
+    }
+
+    /**
+     * parse method
+     *
+     * Build a configuration from the command line arguments. Arguments that
+     * are not settings are ignored.
+     *
+     * @param args List of the command line arguments.
+     * @return the configuration described by the arguments.
+     */
+    public static SimulationConfig parse(List<String> args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, split), arg.substring(split + 1));
+            }
+        }
+        SimulationConfig config = new SimulationConfig();
+        if (options.containsKey("input")) {
+            config.inputFile = options.get("input");
+        }
+        if (options.containsKey("headless")) {
+            config.headless = Boolean.parseBoolean(options.get("headless"));
+        }
+        if (options.containsKey("speed")) {
+            config.speed = Double.parseDouble(options.get("speed"));
+        }
+        if (options.containsKey("metrics-interval")) {
+            config.metricsInterval =
+                    Double.parseDouble(options.get("metrics-interval"));
+        }
+        if (options.containsKey("trace")) {
+            config.traceFile = options.get("trace");
+        }
+        if (options.containsKey("replay")) {
+            config.replayFile = options.get("replay");
+        }
+        if (options.containsKey("replay-speed")) {
+            config.replaySpeed =
+                    Double.parseDouble(options.get("replay-speed"));
+        }
+        if (options.containsKey("replay-from")) {
+            config.replayFrom = Double.parseDouble(options.get("replay-from"));
+        }
+        if (options.containsKey("seed")) {
+            config.seed = Long.parseLong(options.get("seed"));
+        }
+        if (options.containsKey("checkpoint")) {
+            config.checkpointFile = options.get("checkpoint");
+        }
+        if (options.containsKey("checkpoint-at")) {
+            config.checkpointAt =
+                    Double.parseDouble(options.get("checkpoint-at"));
+        }
+        if (options.containsKey("restore")) {
+            config.restoreFile = options.get("restore");
+        }
+        if (options.containsKey("partitions")) {
+            config.partitions = Integer.parseInt(options.get("partitions"));
+        }
+        if (options.containsKey("partition")) {
+            config.partition = Integer.parseInt(options.get("partition"));
+        }
+        if (options.containsKey("port")) {
+            config.port = Integer.parseInt(options.get("port"));
+        }
+        if (options.containsKey("report-window")) {
+            config.reportWindow = Long.parseLong(options.get("report-window"));
+        }
+        if (options.containsKey("telemetry")) {
+            String[] telemetry = options.get("telemetry").split(":");
+            config.telemetry = Telemetry.parse(telemetry[0],
+                    telemetry.length > 1 ? telemetry[1] : null);
+        }
+        if (options.containsKey("max-agents")) {
+            config.maxAgents = Integer.parseInt(options.get("max-agents"));
+        }
+        if (options.containsKey("walk")) {
+            String walk = options.get("walk");
+            if (!walk.equals("random") && !walk.equals("gradient")) {
+                throw new IllegalArgumentException("Unknown walk: " + walk);
+            }
+            config.gradientWalk = walk.equals("gradient");
+        }
+        if (options.containsKey("log")) {
+            config.logFile = options.get("log");
+        }
+        if (options.containsKey("log-format")) {
+            config.logFormat = options.get("log-format");
+        }
+        if (options.containsKey("log-size")) {
+            config.logSize = Integer.parseInt(options.get("log-size"));
+        }
+        if (options.containsKey("frames")) {
+            config.framesDirectory = options.get("frames");
+        }
+        if (options.containsKey("frame-interval")) {
+            config.frameInterval =
+                    Double.parseDouble(options.get("frame-interval"));
+        }
+        if (options.containsKey("frame-size")) {
+            config.frameSize = Integer.parseInt(options.get("frame-size"));
+        }
+        if (options.containsKey("bench-gui")) {
+            config.guiBenchmark = true;
+        }
+        if (options.containsKey("bench-report")) {
+            config.benchReport = options.get("bench-report");
+        }
+        if (options.containsKey("watchdog")) {
+            config.watchdogInterval =
+                    Double.parseDouble(options.get("watchdog"));
+        }
+        if (options.containsKey("feed")) {
+            config.feed = options.get("feed");
+        }
+        if (options.containsKey("query")) {
+            config.queries = Arrays.asList(options.get("query").split(";"));
+        }
+        return config;
+    }
+
+    /**
+     * inputFile getter
+     * @return name of the input file to read the graph from.
+     */
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * headless getter
+     * @return true if the simulation runs without a GUI.
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * speed getter
+     * @return ratio between the simulated clock and the wall clock.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * metricsInterval getter
+     * @return simulated seconds between two metrics snapshots, 0 if the
+     * snapshots are disabled.
+     */
+    public double getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * traceFile getter
+     * @return file to record the trace of the run to, null to not record.
+     */
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    /**
+     * replayFile getter
+     * @return trace file to replay instead of simulating, null to simulate.
+     */
+    public String getReplayFile() {
+        return replayFile;
+    }
+
+    /**
+     * replaySpeed getter
+     * @return speed of the replay compared to the recorded run.
+     */
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
+
+    /**
+     * replayFrom getter
+     * @return simulated seconds at which the replay starts.
+     */
+    public double getReplayFrom() {
+        return replayFrom;
+    }
+
+    /**
+     * seed getter
+     * @return seed of the random number generators of the run.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * checkpointFile getter
+     * @return file to write a checkpoint of the run to, null to not
+     * checkpoint.
+     */
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * checkpointAt getter
+     * @return simulated seconds at which the checkpoint is taken.
+     */
+    public double getCheckpointAt() {
+        return checkpointAt;
+    }
+
+    /**
+     * restoreFile getter
+     * @return checkpoint file to restore the run from, null to start
+     * afresh.
+     */
+    public String getRestoreFile() {
+        return restoreFile;
+    }
+
+    /**
+     * partitions getter
+     * @return number of processes the graph is split across.
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * partition getter
+     * @return partition run by this process, -1 to launch every partition.
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * isPartitioned method
+     * @return true if this process runs one partition of a distributed
+     * simulation.
+     */
+    public boolean isPartitioned() {
+        return partitions > 1 && partition >= 0;
+    }
+
+    /**
+     * port getter
+     * @return port of partition 0, partition i listens on port + i.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * reportWindow getter
+     * @return simulated milliseconds a node holds the reports it passes on
+     * to send them together, 0 to send every report on its own.
+     */
+    public long getReportWindow() {
+        return reportWindow;
+    }
+
+    /**
+     * telemetry getter
+     * @return how much the agents report, null to use the level set by the
+     * input file.
+     */
+    public Telemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * maxAgents getter
+     * @return maximum number of agents alive at once, 0 for no cap.
+     */
+    public int getMaxAgents() {
+        return maxAgents;
+    }
+
+    /**
+     * isGradientWalk method
+     * @return true if the agents walk down the distances to the fire, false
+     * if they walk at random.
+     */
+    public boolean isGradientWalk() {
+        return gradientWalk;
+    }
+
+    /**
+     * logFile getter
+     * @return file to write the log of the base stations to, null for none.
+     */
+    public String getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * logFormat getter
+     * @return format of the log file, line or json.
+     */
+    public String getLogFormat() {
+        return logFormat;
+    }
+
+    /**
+     * logSize getter
+     * @return size above which the log file is rotated, in MB.
+     */
+    public int getLogSize() {
+        return logSize;
+    }
+
+    /**
+     * framesDirectory getter
+     * @return directory to write PNG frames of the run to, null for none.
+     */
+    public String getFramesDirectory() {
+        return framesDirectory;
+    }
+
+    /**
+     * frameInterval getter
+     * @return simulated seconds between two frames.
+     */
+    public double getFrameInterval() {
+        return frameInterval;
+    }
+
+    /**
+     * frameSize getter
+     * @return width and height of the frames in pixels.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * isGuiBenchmark method
+     * @return true if the GUI is benchmarked instead of running a
+     * simulation (with the events of the replay file if one is given).
+     */
+    public boolean isGuiBenchmark() {
+        return guiBenchmark;
+    }
+
+    /**
+     * benchReport getter
+     * @return file to write the measures of the run to once it is over,
+     * null for none (see BenchmarkSuite).
+     */
+    public String getBenchReport() {
+        return benchReport;
+    }
+
+    /**
+     * watchdogInterval getter
+     * @return wall seconds between two checks of the watchdog, 0 if it is
+     * disabled.
+     */
+    public double getWatchdogInterval() {
+        return watchdogInterval;
+    }
+
+    /**
+     * feed getter
+     * @return feed of sensor readings to apply to the run, tcp:PORT or
+     * file:PATH, null for none (see SensorFeed).
+     */
+    public String getFeed() {
+        return feed;
+    }
+
+    /**
+     * queries getter
+     * @return queries on the history of the run, answered once it is over
+     * (or from the trace given with --replay, with --headless), empty for
+     * none.
+     */
+    public List<String> getQueries() {
+        return queries;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * This class holds the custom Java Flight Recorder events of the
+ * simulation: messages going in and out of the nodes' blocking queues,
+ * state changes, agent life cycles and GUI updates. Each event carries the
+ * location of the nodes involved so latency spikes seen in JMC can be
+ * linked to a region of the graph.
+ *
+ * The helper methods only fill in and commit an event when it is enabled
+ * in the running recording. When nothing is recording, the cost is a
+ * single isEnabled check on an event object the JIT never allocates.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+public class SimulationEvents {
+
+    /**
+     * messageEnqueued method
+     *
+     * @param node Node whose blocking queue received the message.
+     * @param message Message put on the queue.
+     */
+    public static void messageEnqueued(Node node, Message message) {
+        MessageEnqueued event = new MessageEnqueued();
+        if (event.isEnabled()) {
+            event.fill(node, message);
+            event.commit();
+        }
+    }
+
+    /**
+     * messageDequeued method
+     *
+     * @param node Node that took the message from its blocking queue.
+     * @param message Message taken from the queue.
+     */
+    public static void messageDequeued(Node node, Message message) {
+        MessageDequeued event = new MessageDequeued();
+        if (event.isEnabled()) {
+            event.fill(node, message);
+            event.queueTime = System.nanoTime() - message.timestamp;
+            event.commit();
+        }
+    }
+
+    /**
+     * messageForwarded method
+     *
+     * @param node Node passing the message on to its neighbors.
+     * @param message Message passed on.
+     */
+    public static void messageForwarded(Node node, Message message) {
+        MessageForwarded event = new MessageForwarded();
+        if (event.isEnabled()) {
+            event.fill(node, message);
+            event.hops = message.getVisitedCount();
+            event.commit();
+        }
+    }
+
+    /**
+     * stateChanged method
+     *
+     * @param node Node changing state.
+     * @param oldState state before the change.
+     * @param newState state after the change.
+     */
+    public static void stateChanged(Node node, String oldState,
+                                    String newState) {
+        StateTransition event = new StateTransition();
+        if (event.isEnabled()) {
+            event.nodeX = node.getNodeLocation().x;
+            event.nodeY = node.getNodeLocation().y;
+            event.oldState = oldState;
+            event.newState = newState;
+            event.queueDepth = node.getMailboxDepth();
+            event.commit();
+        }
+    }
+
+    /**
+     * agentAction method
+     *
+     * @param agentID ID of the agent.
+     * @param action what happened to the agent: created, cloned, moved or
+     *               killed.
+     * @param node Node the agent is on (after a move, the node it moved to).
+     */
+    public static void agentAction(String agentID, String action, Node node) {
+        AgentAction event = new AgentAction();
+        if (event.isEnabled()) {
+            event.agentID = agentID;
+            event.action = action;
+            event.nodeX = node.getNodeLocation().x;
+            event.nodeY = node.getNodeLocation().y;
+            event.queueDepth = node.getMailboxDepth();
+            event.commit();
+        }
+    }
+
+    /**
+     * This class is the base of the events about a single message.
+     */
+    @Category({"FireSim", "Messages"})
+    @StackTrace(false)
+    abstract static class MessageEvent extends Event {
+
+        @Label("Node X")
+        int nodeX;
+
+        @Label("Node Y")
+        int nodeY;
+
+        @Label("Source X")
+        int sourceX;
+
+        @Label("Source Y")
+        int sourceY;
+
+        @Label("Message Type")
+        String type;
+
+        @Label("Priority")
+        int priority;
+
+        @Label("Queue Depth")
+        @Description("Number of messages in the node's queue")
+        int queueDepth;
+
+        /**
+         * fill method
+         *
+         * Set up the fields shared by all the message events.
+         *
+         * @param node Node handling the message.
+         * @param message Message handled.
+         */
+        void fill(Node node, Message message) {
+            nodeX = node.getNodeLocation().x;
+            nodeY = node.getNodeLocation().y;
+            if (message.getSourceHeader() != null) {
+                sourceX = message.getSourceHeader().x;
+                sourceY = message.getSourceHeader().y;
+            }
+            type = MessageType.of(message).name();
+            priority = message.getPriority();
+            queueDepth = node.getMailboxDepth();
+        }
+    }
+
+    @Name("firesim.MessageEnqueued")
+    @Label("Message Enqueued")
+    static class MessageEnqueued extends MessageEvent {
+    }
+
+    @Name("firesim.MessageDequeued")
+    @Label("Message Dequeued")
+    static class MessageDequeued extends MessageEvent {
+
+        @Label("Time Since Creation")
+        @jdk.jfr.Timespan
+        long queueTime;
+    }
+
+    @Name("firesim.MessageForwarded")
+    @Label("Message Forwarded")
+    static class MessageForwarded extends MessageEvent {
+
+        @Label("Hops")
+        @Description("Number of nodes the message went through")
+        int hops;
+    }
+
+    @Name("firesim.StateTransition")
+    @Label("State Transition")
+    @Category({"FireSim", "Nodes"})
+    @StackTrace(false)
+    static class StateTransition extends Event {
+
+        @Label("Node X")
+        int nodeX;
+
+        @Label("Node Y")
+        int nodeY;
+
+        @Label("Old State")
+        String oldState;
+
+        @Label("New State")
+        String newState;
+
+        @Label("Queue Depth")
+        int queueDepth;
+    }
+
+    @Name("firesim.AgentAction")
+    @Label("Agent Action")
+    @Category({"FireSim", "Agents"})
+    @StackTrace(false)
+    static class AgentAction extends Event {
+
+        @Label("Agent ID")
+        String agentID;
+
+        @Label("Action")
+        String action;
+
+        @Label("Node X")
+        int nodeX;
+
+        @Label("Node Y")
+        int nodeY;
+
+        @Label("Queue Depth")
+        int queueDepth;
+    }
+
+    @Name("firesim.Repaint")
+    @Label("GUI Repaint")
+    @Category({"FireSim", "GUI"})
+    @StackTrace(false)
+    static class Repaint extends Event {
+
+        @Label("Nodes Drawn")
+        int nodes;
+    }
+
+    @Name("firesim.LogAppend")
+    @Label("Log Append")
+    @Category({"FireSim", "GUI"})
+    @StackTrace(false)
+    static class LogAppend extends Event {
+
+        @Label("Log Size")
+        @Description("Number of entries in the log after the append")
+        int logSize;
+
+        @Label("Source X")
+        int sourceX;
+
+        @Label("Source Y")
+        int sourceY;
+
+        @Label("Priority")
+        int priority;
+    }
+}
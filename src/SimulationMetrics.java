@@ -0,0 +1,304 @@
+/**
+ * This class holds the aggregate metrics of the simulation: messages sent,
+ * forwarded and dropped by type, live agents, mailbox depths, the number of
+ * nodes in each state, the time it takes for a state change to reach
+ * the base station log, the size of the fire front and when an agent first
+ * found the fire. The metrics are exposed as JMX MBeans (one for the
+ * simulation and one per node) and can be dumped periodically as a
+ * snapshot line on the standard output.
+ *
+ */
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SimulationMetrics implements SimulationMetricsMXBean {
+
+    /* Above this many nodes, only the aggregate MBean is registered */
+    private static final int MAX_NODE_MBEANS = 10000;
+
+    /* Messages created and sent by any node */
+    final MessageCounters sent;
+    /* Messages passed on by any node */
+    final MessageCounters forwarded;
+    /* Messages dropped by any node */
+    final MessageCounters dropped;
+    /* Messages left out by the overload policy of any node's mailbox */
+    final MessageCounters overflowed;
+    /* Messages merged into one already waiting in any node's mailbox */
+    final MessageCounters coalesced;
+    /* Number of agents currently alive */
+    private final LongAdder liveAgents;
+    /* Simulated ms at which an agent first reached the fire, -1 if none */
+    private final AtomicLong detectionMillis;
+    /* Time between a node's report and its entry in the station log (ns) */
+    private final LatencyHistogram stationLatency;
+    /* Same, for the reports of a node catching fire only (ns) */
+    private final LatencyHistogram fireLatency;
+    /* All the nodes of the graph */
+    private final List<Node> allNodes;
+    /* The nodes of the graph by state */
+    private final StateIndex stateIndex;
+    /* Names under which the MBeans were registered */
+    private final List<ObjectName> registered;
+
+    /**
+     * SimulationMetrics constructor
+     *
+     * @param allNodes list of all the nodes of the graph.
+     * @param stateIndex the nodes of the graph by state.
+     */
+    public SimulationMetrics(List<Node> allNodes, StateIndex stateIndex) {
+        this.allNodes = allNodes;
+        this.stateIndex = stateIndex;
+        sent = new MessageCounters();
+        forwarded = new MessageCounters();
+        dropped = new MessageCounters();
+        overflowed = new MessageCounters();
+        coalesced = new MessageCounters();
+        liveAgents = new LongAdder();
+        detectionMillis = new AtomicLong(-1);
+        stationLatency = new LatencyHistogram();
+        fireLatency = new LatencyHistogram();
+        registered = new ArrayList<>();
+    }
+
+    /**
+     * agentCreated method
+     *
+     * Count a new agent.
+     */
+    public void agentCreated() {
+        liveAgents.increment();
+    }
+
+    /**
+     * agentDied method
+     *
+     * Count an agent that exited.
+     */
+    public void agentDied() {
+        liveAgents.decrement();
+    }
+
+    /**
+     * fireDetected method
+     *
+     * Record when an agent reached the fire, only the first time counts.
+     *
+     * @param timeMillis simulated time at which the agent reached the fire.
+     */
+    public void fireDetected(long timeMillis) {
+        detectionMillis.compareAndSet(-1, timeMillis);
+    }
+
+    /**
+     * stationLogged method
+     *
+     * Record how long a report took to travel from the node that created it
+     * to the base station log. The agent telemetry is not recorded.
+     *
+     * @param message Message added to the log.
+     */
+    public void stationLogged(Message message) {
+        if (MessageType.of(message) == MessageType.STATION_REPORT) {
+            long latency = System.nanoTime() - message.timestamp;
+            stationLatency.record(latency);
+            if (message.getCode() == EventCode.NODE_ON_FIRE) {
+                fireLatency.record(latency);
+            }
+        }
+    }
+
+    /**
+     * register method
+     *
+     * Register the aggregate MBean and one MBean per node on the platform
+     * MBean server. Per-node MBeans are skipped on very large graphs.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("FireSim:type=Simulation");
+            server.registerMBean(this, name);
+            registered.add(name);
+            if (allNodes.size() <= MAX_NODE_MBEANS) {
+                for (Node n : allNodes) {
+                    name = new ObjectName("FireSim:type=Node,x=" +
+                            n.getNodeLocation().x + ",y=" +
+                            n.getNodeLocation().y);
+                    server.registerMBean(n.getMetrics(), name);
+                    registered.add(name);
+                }
+            }
+        } catch (JMException e) {
+            System.err.println("Error registering the metrics MBeans: " +
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * unregister method
+     *
+     * Remove every MBean registered by register.
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                System.err.println("Error unregistering " + name);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * startPeriodicDump method
+     *
+     * Print a snapshot of the metrics every interval of simulated time,
+     * until the timing wheel is shut down. These timers are not counted as
+     * outstanding work of the simulation.
+     *
+     * @param timingWheel the shared timing wheel.
+     * @param intervalMillis interval between two snapshots.
+     */
+    public void startPeriodicDump(TimingWheel timingWheel,
+                                  long intervalMillis) {
+        timingWheel.schedule(() -> {
+            System.out.println(snapshot(timingWheel.currentTimeMillis()));
+            startPeriodicDump(timingWheel, intervalMillis);
+        }, intervalMillis);
+    }
+
+    /**
+     * snapshot method
+     *
+     * @param timeMillis simulated time of the snapshot.
+     * @return one line describing the current value of every metric.
+     */
+    public String snapshot(long timeMillis) {
+        return "[metrics t=" + timeMillis / 1000.0 + "s] states=" +
+                getStateCounts() + " front=" + getFrontSize() + " agents=" +
+                getLiveAgents() + " mailbox total=" + getTotalMailboxDepth() +
+                " max=" + getMaxMailboxDepth() + " sent=" + sent.total() +
+                " forwarded=" + forwarded.total() + " dropped=" +
+                dropped.total() + " " + dropped.toMap() + " overflowed=" +
+                overflowed.total() + " " + overflowed.toMap() +
+                " coalesced=" + coalesced.total() +
+                " station latency ms p50=" + getStationLatencyP50Millis() +
+                " p99=" + getStationLatencyP99Millis() + " detected at " +
+                (getDetectionMillis() < 0 ? "never"
+                        : getDetectionMillis() / 1000.0 + "s");
+    }
+
+    @Override
+    public Map<String, Integer> getStateCounts() {
+        return stateIndex.getCounts();
+    }
+
+    @Override
+    public int getFrontSize() {
+        return stateIndex.getPerimeterSize();
+    }
+
+    @Override
+    public long getLiveAgents() {
+        return liveAgents.sum();
+    }
+
+    @Override
+    public long getTotalMailboxDepth() {
+        long total = 0;
+        for (Node n : allNodes) {
+            total += n.getMailboxDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public int getMaxMailboxDepth() {
+        int max = 0;
+        for (Node n : allNodes) {
+            max = Math.max(max, n.getMailboxDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public int getPeakMailboxDepth() {
+        int peak = 0;
+        for (Node n : allNodes) {
+            peak = Math.max(peak, n.getPeakMailboxDepth());
+        }
+        return peak;
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSent() {
+        return sent.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesForwarded() {
+        return forwarded.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesDropped() {
+        return dropped.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesOverflowed() {
+        return overflowed.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getMessagesCoalesced() {
+        return coalesced.toMap();
+    }
+
+    @Override
+    public long getStationLatencyCount() {
+        return stationLatency.getCount();
+    }
+
+    @Override
+    public double getStationLatencyMeanMillis() {
+        return stationLatency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getStationLatencyP50Millis() {
+        return stationLatency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getStationLatencyP99Millis() {
+        return stationLatency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getFireLatencyP50Millis() {
+        return fireLatency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getFireLatencyP99Millis() {
+        return fireLatency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public long getDetectionMillis() {
+        return detectionMillis.get();
+    }
+}
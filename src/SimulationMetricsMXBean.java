@@ -0,0 +1,106 @@
+/**
+ * This interface describes the aggregate metrics of the simulation exposed
+ * through JMX. See SimulationMetrics.
+ *
+ */
+
+import java.util.Map;
+
+public interface SimulationMetricsMXBean {
+
+    /**
+     * @return number of nodes in each state.
+     */
+    Map<String, Integer> getStateCounts();
+
+    /**
+     * @return number of nodes in danger bordering a node on fire.
+     */
+    int getFrontSize();
+
+    /**
+     * @return number of agents currently alive.
+     */
+    long getLiveAgents();
+
+    /**
+     * @return total number of messages waiting in the nodes' queues.
+     */
+    long getTotalMailboxDepth();
+
+    /**
+     * @return number of messages waiting in the fullest queue.
+     */
+    int getMaxMailboxDepth();
+
+    /**
+     * @return highest number of messages seen waiting in any queue.
+     */
+    int getPeakMailboxDepth();
+
+    /**
+     * @return number of messages created and sent, by type.
+     */
+    Map<String, Long> getMessagesSent();
+
+    /**
+     * @return number of messages passed on by a node, by type.
+     */
+    Map<String, Long> getMessagesForwarded();
+
+    /**
+     * @return number of messages dropped, by type.
+     */
+    Map<String, Long> getMessagesDropped();
+
+    /**
+     * @return number of messages left out by the overload policy of the
+     * nodes' mailboxes, by type.
+     */
+    Map<String, Long> getMessagesOverflowed();
+
+    /**
+     * @return number of messages merged into one already waiting in the
+     * nodes' mailboxes, by type.
+     */
+    Map<String, Long> getMessagesCoalesced();
+
+    /**
+     * @return number of state changes that reached the base station log.
+     */
+    long getStationLatencyCount();
+
+    /**
+     * @return mean time in ms between a state change and its log entry.
+     */
+    double getStationLatencyMeanMillis();
+
+    /**
+     * @return median time in ms between a state change and its log entry.
+     */
+    double getStationLatencyP50Millis();
+
+    /**
+     * @return 99th percentile of the time in ms between a state change and
+     * its log entry.
+     */
+    double getStationLatencyP99Millis();
+
+    /**
+     * @return median time in ms between a node catching fire and its log
+     * entry.
+     */
+    double getFireLatencyP50Millis();
+
+    /**
+     * @return 99th percentile of the time in ms between a node catching
+     * fire and its log entry.
+     */
+    double getFireLatencyP99Millis();
+
+    /**
+     * @return simulated time in ms at which an agent first reached the
+     * fire, -1 if none did yet.
+     */
+    long getDetectionMillis();
+}
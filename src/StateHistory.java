@@ -0,0 +1,338 @@
+/**
+ * This class keeps the history of the state of the nodes, so the state of a
+ * node or of the whole graph at any past time of a run can be found without
+ * simulating it again: --query prints it once the run is over (or from a
+ * recorded trace), and the GUI scrubs through the run with its timeline.
+ *
+ * Each node has an array of its transitions, each a single long packing the
+ * simulated ms of the transition and the code of the new state (see
+ * TraceEvent). A node only changes on one thread, so the transitions of a
+ * node are appended without locking and in time order: the state of a node
+ * at a time is found by binary search, in O(log k) for k transitions, and
+ * the state of the whole graph by one search per node. The array of a node
+ * is only allocated at its first transition and most nodes only change
+ * twice (in danger, then on fire), so the history costs a few bytes per
+ * transition. The history is read once the run is over.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class StateHistory {
+
+    /* Transitions a node has room for at first */
+    private static final int FIRST_CAPACITY = 2;
+    /* Nodes listed in the answer to a query on the whole graph */
+    private static final int SHOWN_NODES = 20;
+    /* Bits of a transition holding the code of the state */
+    private static final int CODE_BITS = 2;
+    private static final long CODE_MASK = (1 << CODE_BITS) - 1;
+
+    /* Nodes whose history is kept */
+    private final List<Node> tracked;
+    /* Timing wheel the transitions are timed with, null for a trace */
+    private final TimingWheel timingWheel;
+    /* Simulated ms the history starts at */
+    private final long startTime;
+    /* State code of each node at the start, -1 for a node not kept */
+    private final byte[] initial;
+    /* Transitions of each node, null until its first one */
+    private final long[][] transitions;
+    /* Number of transitions of each node */
+    private final int[] sizes;
+
+    /**
+     * StateHistory constructor
+     *
+     * Start the history from the current state of the nodes.
+     *
+     * @param tracked nodes whose history is kept, e.g. the nodes run by
+     *                this process.
+     * @param nodeCount number of nodes of the graph.
+     * @param timingWheel the shared timing wheel.
+     */
+    public StateHistory(Collection<Node> tracked, int nodeCount,
+                        TimingWheel timingWheel) {
+        this(tracked, nodeCount, timingWheel, timingWheel.currentTimeMillis());
+    }
+
+    /* Start the history at the given simulated ms */
+    private StateHistory(Collection<Node> tracked, int nodeCount,
+                         TimingWheel timingWheel, long startTime) {
+        this.tracked = new ArrayList<>(tracked);
+        this.timingWheel = timingWheel;
+        this.startTime = startTime;
+        initial = new byte[nodeCount];
+        transitions = new long[nodeCount][];
+        sizes = new int[nodeCount];
+        Arrays.fill(initial, (byte) -1);
+        for (Node n : tracked) {
+            initial[n.getNodeId()] = (byte) TraceEvent.stateCode(n.getState());
+        }
+    }
+
+    /**
+     * fromTrace method
+     *
+     * Build the history of a recorded run from its trace.
+     *
+     * @param reader reader of the trace.
+     * @param allNodes all the nodes of the graph the trace was recorded on.
+     * @return the history of the recorded run.
+     * @throws IOException if the trace cannot be read.
+     */
+    public static StateHistory fromTrace(TraceReader reader,
+                                         Collection<Node> allNodes)
+            throws IOException {
+        if (reader.getNodeCount() != allNodes.size()) {
+            throw new IllegalArgumentException("The trace was recorded on a " +
+                    "graph of " + reader.getNodeCount() + " nodes, not " +
+                    allNodes.size());
+        }
+        StateHistory history = new StateHistory(allNodes, allNodes.size(),
+                null, 0);
+        for (int c = 0; c < reader.getChunkCount(); c++) {
+            if (reader.isKeyframe(c)) {
+                /* The events hold every change, the first keyframe aside */
+                if (c == 0) {
+                    byte[] keyframe = reader.readKeyframe(c);
+                    for (int i = 0; i < keyframe.length; i++) {
+                        history.initial[i] = (byte) (keyframe[i] & CODE_MASK);
+                    }
+                }
+                continue;
+            }
+            for (TraceEvent event : reader.readEvents(c)) {
+                if (event.type == TraceEvent.STATE_CHANGE) {
+                    history.record(event.node, event.time, event.value);
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * stateChanged method
+     *
+     * Append the new state of a node to its history. Only the thread the
+     * node changes on calls this.
+     *
+     * @param n Node that changed state.
+     */
+    public void stateChanged(Node n) {
+        if (initial[n.getNodeId()] >= 0) {
+            record(n.getNodeId(), timingWheel.currentTimeMillis(),
+                    TraceEvent.stateCode(n.getState()));
+        }
+    }
+
+    /* Append a transition to the history of a node, unless it is no change */
+    private void record(int id, long time, int code) {
+        long[] track = transitions[id];
+        int size = sizes[id];
+        int current = size == 0 ? initial[id]
+                : (int) (track[size - 1] & CODE_MASK);
+        if (code == current) {
+            return;
+        }
+        if (track == null) {
+            track = new long[FIRST_CAPACITY];
+            transitions[id] = track;
+        } else if (size == track.length) {
+            track = Arrays.copyOf(track, size * 2);
+            transitions[id] = track;
+        }
+        track[size] = time << CODE_BITS | code;
+        sizes[id] = size + 1;
+    }
+
+    /**
+     * stateAt method
+     *
+     * @param id ID of a node whose history is kept.
+     * @param time simulated ms.
+     * @return the code of the state of the node at that time (see
+     * TraceEvent), after every transition made at that very ms.
+     */
+    public int stateAt(int id, long time) {
+        long[] track = transitions[id];
+        /* Find the last transition made at the time or before */
+        int low = 0;
+        int high = sizes[id] - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (track[middle] >> CODE_BITS <= time) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found < 0 ? initial[id] : (int) (track[found] & CODE_MASK);
+    }
+
+    /**
+     * statesAt method
+     *
+     * Rebuild the state of every node at a time.
+     *
+     * @param time simulated ms.
+     * @param codes array filled with the state code of each node whose
+     *              history is kept, by node ID.
+     */
+    public void statesAt(long time, byte[] codes) {
+        for (Node n : tracked) {
+            codes[n.getNodeId()] = (byte) stateAt(n.getNodeId(), time);
+        }
+    }
+
+    /**
+     * nodesAt method
+     *
+     * @param time simulated ms.
+     * @param state a state (blue, green, yellow or red).
+     * @return the nodes that were in the state at that time, e.g. the
+     * burning set for red.
+     */
+    public List<Node> nodesAt(long time, String state) {
+        int code = TraceEvent.stateCode(state);
+        List<Node> result = new ArrayList<>();
+        for (Node n : tracked) {
+            if (stateAt(n.getNodeId(), time) == code) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * countsAt method
+     *
+     * @param time simulated ms.
+     * @return number of nodes in each state at that time, leaving out the
+     * states no node was in, as StateIndex.getCounts.
+     */
+    public Map<String, Integer> countsAt(long time) {
+        int[] counts = new int[(int) CODE_MASK + 1];
+        for (Node n : tracked) {
+            counts[stateAt(n.getNodeId(), time)]++;
+        }
+        Map<String, Integer> result = new TreeMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(TraceEvent.stateName(code), counts[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * startTime getter
+     * @return simulated ms the history starts at.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * getEndTime method
+     *
+     * @return simulated ms of the last transition, the start time if there
+     * was none.
+     */
+    public long getEndTime() {
+        long end = startTime;
+        for (Node n : tracked) {
+            int size = sizes[n.getNodeId()];
+            if (size > 0) {
+                end = Math.max(end,
+                        transitions[n.getNodeId()][size - 1] >> CODE_BITS);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * query method
+     *
+     * Answer a query on the history: T for the state of the whole graph T
+     * seconds into the run (the counts and the burning nodes), T@x,y for
+     * the state of the node at (x, y) then, with its transitions.
+     *
+     * @param query text of the query.
+     * @return the answer.
+     */
+    public String query(String query) {
+        int at = query.indexOf('@');
+        long time;
+        try {
+            time = (long) (Double.parseDouble(at < 0 ? query
+                    : query.substring(0, at)) * 1000);
+        } catch (NumberFormatException e) {
+            return "Bad query: " + query + " (expected T or T@x,y)";
+        }
+        StringBuilder answer = new StringBuilder(128);
+        answer.append("At ").append(time / 1000.0).append(" s");
+        if (at < 0) {
+            answer.append(": ").append(countsAt(time)).append(", burning:");
+            List<Node> burning = nodesAt(time, "red");
+            for (int i = 0; i < Math.min(burning.size(), SHOWN_NODES); i++) {
+                location(answer.append(' '), burning.get(i));
+            }
+            if (burning.size() > SHOWN_NODES) {
+                answer.append(" and ").append(burning.size() - SHOWN_NODES)
+                        .append(" more");
+            }
+            return answer.toString();
+        }
+        Node n = find(query.substring(at + 1));
+        if (n == null) {
+            return "No node at " + query.substring(at + 1);
+        }
+        int id = n.getNodeId();
+        location(answer.append(" node "), n).append(" was ")
+                .append(TraceEvent.stateName(stateAt(id, time))).append(" (")
+                .append(TraceEvent.stateName(initial[id])).append(" from ")
+                .append(startTime / 1000.0).append(" s");
+        for (int i = 0; i < sizes[id]; i++) {
+            long transition = transitions[id][i];
+            answer.append(", ")
+                    .append(TraceEvent.stateName((int) (transition
+                            & CODE_MASK)))
+                    .append(" from ")
+                    .append((transition >> CODE_BITS) / 1000.0).append(" s");
+        }
+        return answer.append(')').toString();
+    }
+
+    /* Node whose history is kept at a location given as x,y, or null */
+    private Node find(String location) {
+        int comma = location.indexOf(',');
+        try {
+            int x = Integer.parseInt(location.substring(0, comma).trim());
+            int y = Integer.parseInt(location.substring(comma + 1).trim());
+            for (Node n : tracked) {
+                if (n.getNodeLocation().x == x
+                        && n.getNodeLocation().y == y) {
+                    return n;
+                }
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /* Append the location of a node */
+    private static StringBuilder location(StringBuilder text, Node n) {
+        return text.append('(').append(n.getNodeLocation().x).append(", ")
+                .append(n.getNodeLocation().y).append(')');
+    }
+}
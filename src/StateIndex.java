@@ -0,0 +1,241 @@
+/**
+ * This class keeps an index of the nodes by state, updated on every state
+ * change, so nothing has to scan the whole graph to find out how many nodes
+ * burn or where the fire front is. For every state it holds the number of
+ * nodes and a bitset of them (by node ID); it also holds the perimeter of
+ * the fire, the yellow nodes bordering a red one.
+ *
+ * Counts and lookups are O(1), walking through a set is O(result) plus one
+ * word per 64 nodes. Only the local nodes are indexed (ghost copies of the
+ * nodes of other partitions are left out), but the state of the ghosts is
+ * followed too since a local node may border a burning ghost.
+ *
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+public class StateIndex {
+
+    /* The states, in the order of their codes (see TraceEvent) */
+    private static final String[] STATES = {"blue", "green", "yellow",
+            "red"};
+    /* Codes of the states a perimeter is made of */
+    private static final int YELLOW = 2;
+    private static final int RED = 3;
+
+    /* All the nodes of the graph, indexed by node ID */
+    private final Node[] nodes;
+    /* State code of every node as last indexed, guarded by this */
+    private final byte[] states;
+    /* Number of local nodes in each state */
+    private final AtomicIntegerArray counts;
+    /* Local nodes in each state, one bit per node */
+    private final AtomicLongArray[] members;
+    /* Local yellow nodes bordering a red node, one bit per node */
+    private final AtomicLongArray perimeter;
+    /* Number of nodes on the perimeter */
+    private final AtomicInteger perimeterSize;
+    /* Number of state changes indexed, guarded by this */
+    private volatile long changes;
+
+    /**
+     * StateIndex constructor
+     *
+     * Index the nodes in their current state.
+     *
+     * @param nodes all the nodes of the graph, indexed by node ID.
+     */
+    public StateIndex(Node[] nodes) {
+        this.nodes = nodes;
+        states = new byte[nodes.length];
+        counts = new AtomicIntegerArray(STATES.length);
+        members = new AtomicLongArray[STATES.length];
+        int words = (nodes.length + 63) / 64;
+        for (int i = 0; i < STATES.length; i++) {
+            members[i] = new AtomicLongArray(words);
+        }
+        perimeter = new AtomicLongArray(words);
+        perimeterSize = new AtomicInteger();
+        rebuild();
+    }
+
+    /**
+     * rebuild method
+     *
+     * Index every node again from scratch, after the states were set
+     * without going through stateChanged (e.g. restored from a checkpoint).
+     */
+    public synchronized void rebuild() {
+        for (int i = 0; i < STATES.length; i++) {
+            counts.set(i, 0);
+            for (int w = 0; w < members[i].length(); w++) {
+                members[i].set(w, 0);
+            }
+        }
+        for (int w = 0; w < perimeter.length(); w++) {
+            perimeter.set(w, 0);
+        }
+        perimeterSize.set(0);
+        for (Node n : nodes) {
+            int code = TraceEvent.stateCode(n.getState());
+            states[n.getNodeId()] = (byte) code;
+            if (!n.isRemote()) {
+                counts.incrementAndGet(code);
+                set(members[code], n.getNodeId(), true);
+            }
+        }
+        for (Node n : nodes) {
+            updatePerimeter(n);
+        }
+    }
+
+    /**
+     * stateChanged method
+     *
+     * Move a node to the set of its new state and update the perimeter
+     * around it.
+     *
+     * @param n Node whose state changed.
+     */
+    public synchronized void stateChanged(Node n) {
+        int id = n.getNodeId();
+        int code = TraceEvent.stateCode(n.getState());
+        int old = states[id];
+        if (old == code) {
+            return;
+        }
+        states[id] = (byte) code;
+        changes++;
+        if (!n.isRemote()) {
+            counts.decrementAndGet(old);
+            set(members[old], id, false);
+            counts.incrementAndGet(code);
+            set(members[code], id, true);
+        }
+        updatePerimeter(n);
+        for (Node m : n.getAdjacentPoint()) {
+            updatePerimeter(m);
+        }
+    }
+
+    /* Put a node on the perimeter or take it off, as its state says */
+    private void updatePerimeter(Node n) {
+        boolean border = false;
+        if (!n.isRemote() && states[n.getNodeId()] == YELLOW) {
+            for (Node m : n.getAdjacentPoint()) {
+                if (states[m.getNodeId()] == RED) {
+                    border = true;
+                    break;
+                }
+            }
+        }
+        if (set(perimeter, n.getNodeId(), border)) {
+            perimeterSize.addAndGet(border ? 1 : -1);
+        }
+    }
+
+    /* Set or clear the bit of a node, true if the bit changed */
+    private static boolean set(AtomicLongArray bits, int id, boolean value) {
+        long bit = 1L << (id & 63);
+        long word;
+        long updated;
+        do {
+            word = bits.get(id >>> 6);
+            updated = value ? word | bit : word & ~bit;
+            if (updated == word) {
+                return false;
+            }
+        } while (!bits.compareAndSet(id >>> 6, word, updated));
+        return true;
+    }
+
+    /* Call the action with every node whose bit is set */
+    private void forEach(AtomicLongArray bits, Consumer<Node> action) {
+        for (int w = 0; w < bits.length(); w++) {
+            long word = bits.get(w);
+            while (word != 0) {
+                action.accept(nodes[(w << 6)
+                        + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * count method
+     *
+     * @param state state of a node (blue, green, yellow or red).
+     * @return number of local nodes in the state.
+     */
+    public int count(String state) {
+        return counts.get(TraceEvent.stateCode(state));
+    }
+
+    /**
+     * getCounts method
+     *
+     * @return number of local nodes in each state, leaving out the states
+     * no node is in.
+     */
+    public Map<String, Integer> getCounts() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (int i = 0; i < STATES.length; i++) {
+            if (counts.get(i) > 0) {
+                result.put(STATES[i], counts.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * forEach method
+     *
+     * @param state state of a node (blue, green, yellow or red).
+     * @param action called with every local node in the state.
+     */
+    public void forEach(String state, Consumer<Node> action) {
+        forEach(members[TraceEvent.stateCode(state)], action);
+    }
+
+    /**
+     * changes getter
+     * @return the number of state changes indexed since the start.
+     */
+    public long getChanges() {
+        return changes;
+    }
+
+    /**
+     * getPerimeterSize method
+     *
+     * @return number of yellow nodes bordering a red node.
+     */
+    public int getPerimeterSize() {
+        return perimeterSize.get();
+    }
+
+    /**
+     * isOnPerimeter method
+     *
+     * @param n Node to look up.
+     * @return true if the node is yellow and borders a red node.
+     */
+    public boolean isOnPerimeter(Node n) {
+        int id = n.getNodeId();
+        return (perimeter.get(id >>> 6) & (1L << (id & 63))) != 0;
+    }
+
+    /**
+     * forEachOnPerimeter method
+     *
+     * @param action called with every yellow node bordering a red node.
+     */
+    public void forEachOnPerimeter(Consumer<Node> action) {
+        forEach(perimeter, action);
+    }
+}
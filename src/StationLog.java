@@ -0,0 +1,331 @@
+/**
+ * This class writes the log of the base stations to a file, so the log of a
+ * run survives it and headless runs have one too (--log). The stations only
+ * put their entries on a lock-free queue, a background thread formats them
+ * and writes them in batches: a fast run never waits for the disk.
+ *
+ * Each entry is written as a line of text ("line" format) or as a JSON
+ * object on its own line ("json" format), with the simulated time, the
+ * station, the priority and the event of the report. Once the file grows
+ * past its maximum size it is renamed with a .1 suffix (the older files
+ * moving to .2, .3 and so on, the oldest one being deleted) and a new file
+ * is started. When the log is closed, at the end of the run, the entries
+ * still on the queue are written and the file is forced to the disk. If
+ * the file cannot be written, the log closes itself and stops taking
+ * entries, rather than letting them pile up on the queue.
+ *
+ */
+
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class StationLog implements Runnable {
+
+    /* Default size above which the file is rotated, in MB */
+    public static final int DEFAULT_MAX_MB = 16;
+    /* Number of rotated files kept next to the current one */
+    private static final int KEPT_FILES = 5;
+    /* Maximum number of entries written between two flushes */
+    private static final int BATCH = 1024;
+    /* Time the writer waits when it has nothing to write, in ns */
+    private static final long IDLE_NANOS = 5000000;
+
+    /**
+     * This class represents an entry of the log waiting to be written.
+     */
+    private static final class Entry {
+        /* Simulated ms at which the entry reached the station */
+        final long time;
+        /* Location of the station, null for the end of run summary */
+        final Point station;
+        /* Report that reached the station */
+        final Message report;
+        /* Number of copies of the report that reached the station */
+        final int count;
+
+        Entry(long time, Point station, Message report, int count) {
+            this.time = time;
+            this.station = station;
+            this.report = report;
+            this.count = count;
+        }
+    }
+
+    /* Entries waiting to be written */
+    private final MpscQueue<Entry> queue;
+    /* Timing wheel giving the simulated time of the entries */
+    private final TimingWheel timingWheel;
+    /* Path of the current log file */
+    private final Path path;
+    /* boolean indicating whether the entries are written as JSON */
+    private final boolean json;
+    /* Size above which the file is rotated, in bytes */
+    private final long maxBytes;
+    /* File the log is written to */
+    private FileOutputStream file;
+    /* Buffered stream on top of the file */
+    private BufferedOutputStream out;
+    /* Number of bytes written to the current file */
+    private long size;
+    /* Text of the entry being written */
+    private final StringBuilder line;
+    /* Thread writing the entries */
+    private final Thread writer;
+    /* boolean indicating whether the log was closed (or failed) */
+    private volatile boolean closed;
+    /* Number of threads putting an entry on the queue */
+    private final AtomicInteger logging;
+    /* boolean indicating whether every entry is on the queue, once closed */
+    private volatile boolean complete;
+
+    /**
+     * StationLog constructor
+     *
+     * Create the log file, replacing any previous one. The writer thread is
+     * started right away.
+     *
+     * @param fileName name of the log file.
+     * @param format "line" for lines of text, "json" for JSON lines.
+     * @param maxMegabytes size above which the file is rotated, in MB.
+     * @param timingWheel the shared timing wheel.
+     * @throws IOException if the file cannot be created.
+     */
+    public StationLog(String fileName, String format, int maxMegabytes,
+                      TimingWheel timingWheel) throws IOException {
+        if (!format.equals("line") && !format.equals("json")) {
+            throw new IllegalArgumentException("Unknown log format: " +
+                    format);
+        }
+        if (maxMegabytes <= 0) {
+            throw new IllegalArgumentException("The size of the log must " +
+                    "be positive");
+        }
+        this.timingWheel = timingWheel;
+        path = Paths.get(fileName);
+        json = format.equals("json");
+        maxBytes = maxMegabytes * 1024L * 1024L;
+        queue = new MpscQueue<>();
+        line = new StringBuilder(256);
+        open();
+        closed = false;
+        logging = new AtomicInteger();
+        writer = new Thread(this, "station-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * log method
+     *
+     * Put a report that reached a base station on the queue of the writer,
+     * stamped with the current simulated time. This never blocks. The
+     * thread is counted while it does, so close waits for the entries
+     * logged before it.
+     *
+     * @param station base station Node, null for the end of run summary.
+     * @param report Message that reached the base station.
+     * @param count number of copies of the report that reached it.
+     */
+    public void log(Node station, Message report, int count) {
+        logging.incrementAndGet();
+        try {
+            if (!closed) {
+                queue.offer(new Entry(timingWheel.currentTimeMillis(),
+                        station == null ? null : station.getNodeLocation(),
+                        report, count));
+            }
+        } finally {
+            logging.decrementAndGet();
+        }
+    }
+
+    /**
+     * close method
+     *
+     * Write the entries still on the queue and make sure everything reached
+     * the disk.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * writer thread.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        /* Let the threads that saw the log open put their entry */
+        while (logging.get() > 0) {
+            Thread.yield();
+        }
+        complete = true;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    /**
+     * run method
+     *
+     * Body of the writer thread: write the entries in batches as they come,
+     * flushing the file after each batch, and finish the file once the log
+     * is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                boolean wasComplete = complete;
+                int written = 0;
+                Entry entry;
+                while (written < BATCH && (entry = queue.poll()) != null) {
+                    write(entry);
+                    written++;
+                }
+                if (written > 0) {
+                    out.flush();
+                }
+                if (wasComplete && written < BATCH) {
+                    break;
+                }
+                if (written == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+            out.flush();
+            file.getChannel().force(true);
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error writing the station log: " +
+                    e.getMessage());
+            /* Nothing will write the entries any more, take no others */
+            closed = true;
+            while (queue.poll() != null) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * write method
+     *
+     * Format an entry and write it, rotating the file first if it would
+     * grow past its maximum size.
+     *
+     * @param entry entry to write.
+     * @throws IOException if the entry cannot be written.
+     */
+    private void write(Entry entry) throws IOException {
+        line.setLength(0);
+        if (json) {
+            formatJson(entry);
+        } else {
+            formatLine(entry);
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (size > 0 && size + bytes.length > maxBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        size += bytes.length;
+    }
+
+    /* Time, station, priority and text, e.g. 12.3 (4, 5) [1] Node: ... */
+    private void formatLine(Entry entry) {
+        line.append(entry.time / 1000.0).append(' ');
+        if (entry.station == null) {
+            line.append('-');
+        } else {
+            line.append('(').append(entry.station.x).append(", ")
+                    .append(entry.station.y).append(')');
+        }
+        line.append(" [").append(entry.report.getPriority()).append("] ")
+                .append(entry.report.getText());
+        if (entry.count > 1) {
+            line.append(" (x").append(entry.count).append(')');
+        }
+    }
+
+    /* One JSON object holding the fields of the entry */
+    private void formatJson(Entry entry) {
+        Message report = entry.report;
+        line.append("{\"time\":").append(entry.time).append(",\"station\":");
+        if (entry.station == null) {
+            line.append("null");
+        } else {
+            line.append('[').append(entry.station.x).append(',')
+                    .append(entry.station.y).append(']');
+        }
+        line.append(",\"priority\":").append(report.getPriority())
+                .append(",\"event\":\"").append(report.getCode())
+                .append('"');
+        if (report.getSourceHeader() != null) {
+            line.append(",\"node\":[").append(report.getSourceHeader().x)
+                    .append(',').append(report.getSourceHeader().y)
+                    .append(']');
+        }
+        if (report.getAgentId() != null) {
+            line.append(",\"agent\":");
+            appendString(report.getAgentId());
+        }
+        line.append(",\"count\":").append(entry.count).append(",\"text\":");
+        appendString(report.getText());
+        line.append('}');
+    }
+
+    /* Append a JSON string, quoted and escaped */
+    private void appendString(String text) {
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * rotate method
+     *
+     * Close the current file, shift the rotated files by one (dropping the
+     * oldest) and start a new file.
+     *
+     * @throws IOException if the files cannot be renamed.
+     */
+    private void rotate() throws IOException {
+        out.flush();
+        file.getChannel().force(true);
+        out.close();
+        Files.deleteIfExists(rotated(KEPT_FILES));
+        for (int i = KEPT_FILES - 1; i >= 1; i--) {
+            if (Files.exists(rotated(i))) {
+                Files.move(rotated(i), rotated(i + 1),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    /* Path of the i-th rotated file */
+    private Path rotated(int i) {
+        return Paths.get(path + "." + i);
+    }
+
+    /* Start a new, empty log file */
+    private void open() throws IOException {
+        file = new FileOutputStream(path.toFile());
+        out = new BufferedOutputStream(file, 1 << 16);
+        size = 0;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * This class routes the reports of the nodes to the nearest base station.
+ * A scenario may have several stations (one "station" line each); rather
+ * than flooding a report through the whole graph, every node passes it to
+ * the neighbor one hop closer to the nearest live station, so a report
+ * only travels along one shortest path.
+ *
+ * The routes come from a breadth first search started from every live
+ * station at once, going through the nodes that are not burning (a burning
+ * node passes nothing on). They are only computed again when they turn out
+ * to be stale: when a station burns, or when a node finds the next hop of
+ * a report burning. Looking up a route takes no lock, computing the routes
+ * again swaps in a new table.
+ *
+ */
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+public class StationRouter {
+
+    /* All the nodes of the graph, indexed by node ID */
+    private final Node[] nodes;
+    /* Current routes, null until first computed */
+    private volatile Routes routes;
+    /* boolean indicating whether the routes must be computed again */
+    private volatile boolean stale;
+
+    /**
+     * This class represents the routes computed at one point in time.
+     */
+    private static final class Routes {
+        /* Next hop of each node towards its nearest station, null if none */
+        final Node[] nextHops;
+        /* Hop count from each node to its nearest station, -1 if none */
+        final int[] distances;
+
+        Routes(Node[] nextHops, int[] distances) {
+            this.nextHops = nextHops;
+            this.distances = distances;
+        }
+    }
+
+    /**
+     * StationRouter constructor
+     *
+     * @param nodes all the nodes of the graph, indexed by node ID.
+     */
+    public StationRouter(Node[] nodes) {
+        this.nodes = nodes;
+        this.stale = true;
+    }
+
+    /**
+     * invalidate method
+     *
+     * Mark the routes as stale, they are computed again on the next
+     * lookup.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * nextHop method
+     *
+     * A burning node is not on any route, but it still has reports of its
+     * own to send: it passes them to its neighbor closest to a station.
+     *
+     * @param node Node holding a report.
+     * @return the neighbor to pass the report to, the node itself if it is
+     * a live station, or null if no live station can be reached.
+     */
+    public Node nextHop(Node node) {
+        Routes current = current();
+        Node next = current.nextHops[node.getNodeId()];
+        if (next != null) {
+            return next;
+        }
+        int best = -1;
+        for (Node neighbor : node.getAdjacentPoint()) {
+            int distance = current.distances[neighbor.getNodeId()];
+            if (distance >= 0 && (best < 0 || distance < best)) {
+                best = distance;
+                next = neighbor;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * distance method
+     *
+     * @param node a Node.
+     * @return the number of hops from the node to its nearest live
+     * station, -1 if none can be reached.
+     */
+    public int distance(Node node) {
+        return current().distances[node.getNodeId()];
+    }
+
+    /**
+     * current method
+     *
+     * @return the current routes, computed again first if they are stale.
+     */
+    private Routes current() {
+        Routes current = routes;
+        if (stale || current == null) {
+            current = recompute();
+        }
+        return current;
+    }
+
+    /**
+     * isLive method
+     *
+     * @param node a Node.
+     * @return true if the node can still relay reports.
+     */
+    private static boolean isLive(Node node) {
+        return !node.getState().equals("red");
+    }
+
+    /**
+     * recompute method
+     *
+     * Compute the routes again from the current state of the nodes. The
+     * stale flag is cleared before the states are read, so a node burning
+     * meanwhile marks the new routes stale again.
+     *
+     * @return the new routes.
+     */
+    private synchronized Routes recompute() {
+        if (!stale && routes != null) {
+            return routes;
+        }
+        stale = false;
+        Node[] hops = new Node[nodes.length];
+        int[] hopCounts = new int[nodes.length];
+        Arrays.fill(hopCounts, -1);
+        ArrayDeque<Node> frontier = new ArrayDeque<>();
+        for (Node n : nodes) {
+            if (n.isBaseStation && isLive(n)) {
+                hops[n.getNodeId()] = n;
+                hopCounts[n.getNodeId()] = 0;
+                frontier.add(n);
+            }
+        }
+        while (!frontier.isEmpty()) {
+            Node n = frontier.poll();
+            int hopCount = hopCounts[n.getNodeId()] + 1;
+            for (Node neighbor : n.getAdjacentPoint()) {
+                int id = neighbor.getNodeId();
+                if (hopCounts[id] < 0 && isLive(neighbor)) {
+                    hops[id] = n;
+                    hopCounts[id] = hopCount;
+                    frontier.add(neighbor);
+                }
+            }
+        }
+        routes = new Routes(hops, hopCounts);
+        return routes;
+    }
+}
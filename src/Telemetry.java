@@ -0,0 +1,108 @@
+/**
+ * This class represents how much the agents tell the base station about
+ * their walk. Every step of every agent used to be reported, which on big
+ * graphs makes most of the traffic and most of the log. The level is set
+ * per scenario with a "telemetry" line in the input file (for instance
+ * "telemetry sampled 10"), or on the command line with --telemetry.
+ *
+ * - off: no walk report at all.
+ * - summary: no walk report, one summary when the agent dies.
+ * - sampled: one step in N is reported, plus the summary.
+ * - full: every step is reported (the default).
+ *
+ * Whatever the level, the critical events (nodes in danger or on fire,
+ * agents reaching the fire, created or dying) are always reported.
+ *
+ */
+
+public class Telemetry {
+
+    /* One step in DEFAULT_SAMPLE_RATE is reported if no rate is given */
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    /**
+     * This enum represents the telemetry levels, from the quietest.
+     */
+    public enum Level {
+        OFF,
+        SUMMARY,
+        SAMPLED,
+        FULL
+    }
+
+    /* Level of the telemetry */
+    private final Level level;
+    /* One step in sampleRate is reported at the sampled level */
+    private final int sampleRate;
+
+    /**
+     * Telemetry constructor
+     *
+     * @param level level of the telemetry.
+     * @param sampleRate one step in sampleRate is reported at the sampled
+     *                   level.
+     */
+    public Telemetry(Level level, int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("The sample rate must be " +
+                    "positive");
+        }
+        this.level = level;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * parse method
+     *
+     * @param level name of the level, in any case.
+     * @param sampleRate sample rate, null for the default one.
+     * @return the telemetry settings.
+     * @throws IllegalArgumentException if the level or rate is not valid.
+     */
+    public static Telemetry parse(String level, String sampleRate) {
+        return new Telemetry(Level.valueOf(level.toUpperCase()),
+                sampleRate == null ? DEFAULT_SAMPLE_RATE
+                        : Integer.parseInt(sampleRate));
+    }
+
+    /**
+     * reportWalk method
+     *
+     * @param steps number of steps the agent took so far, this one
+     *              included.
+     * @return true if this step of the agent is reported.
+     */
+    public boolean reportWalk(int steps) {
+        switch (level) {
+            case FULL:
+                return true;
+            case SAMPLED:
+                return steps % sampleRate == 1 % sampleRate;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * reportSummary method
+     *
+     * @return true if the agents report how far they walked when they die.
+     */
+    public boolean reportSummary() {
+        return level == Level.SUMMARY || level == Level.SAMPLED;
+    }
+
+    /**
+     * level getter
+     * @return level of the telemetry.
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    public String toString() {
+        return level == Level.SAMPLED ? "sampled 1 in " + sampleRate
+                : level.name().toLowerCase();
+    }
+}
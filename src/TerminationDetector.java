@@ -0,0 +1,154 @@
+/**
+ * This class detects the end of a simulation run. Nodes and agents never
+ * know by themselves whether the fire can still spread: a blue node waiting
+ * on its blocking queue could still receive a message at any time. So every
+ * piece of outstanding work is counted here: messages sitting in (or being
+ * processed from) a Node's blocking queue, ignition timers waiting on the
+ * timing wheel and burning nodes that have not notified their neighbors
+ * yet. Work can only be created by other outstanding work, so once the
+ * count drops to zero the fire can spread no further, every mailbox is
+ * empty and the run is over.
+ *
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TerminationDetector {
+
+    /* Number of units of work that are still outstanding */
+    private final AtomicLong outstandingWork;
+    /* Total number of units of work handled during the run */
+    private final LongAdder completedWork;
+    /* boolean indicating whether the run has been declared finished */
+    private final AtomicBoolean finished;
+    /* Latch released once the run is finished */
+    private final CountDownLatch finishedLatch;
+    /* Task to run (once) when the run is finished */
+    private Runnable onFinished;
+
+    /**
+     * TerminationDetector constructor
+     *
+     * The detector starts with a single unit of work held by the
+     * Simulation while it sets up and starts the threads. This makes sure
+     * the run cannot be declared finished before it even started.
+     */
+    public TerminationDetector() {
+        outstandingWork = new AtomicLong(1);
+        completedWork = new LongAdder();
+        finished = new AtomicBoolean(false);
+        finishedLatch = new CountDownLatch(1);
+    }
+
+    /**
+     * setOnFinished method
+     *
+     * @param onFinished task to run once the run is finished. It is run by
+     *                   the thread that completed the last unit of work,
+     *                   before awaitFinished returns.
+     */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * workStarted method
+     *
+     * Register a new unit of work. This must be called before the work is
+     * handed to another thread (before the message is put on the blocking
+     * queue, before the timer is registered, ...).
+     */
+    public void workStarted() {
+        outstandingWork.incrementAndGet();
+    }
+
+    /**
+     * workDone method
+     *
+     * Mark a unit of work as done. This must be called after any work it
+     * led to has been registered with workStarted. If it was the last
+     * outstanding unit, the run is declared finished.
+     */
+    public void workDone() {
+        completedWork.increment();
+        if (outstandingWork.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * workCancelled method
+     *
+     * Take back a unit of work registered with workStarted that turned out
+     * not to be needed (the message was not put on the queue after all).
+     * Unlike workDone, it does not count as handled work.
+     */
+    public void workCancelled() {
+        if (outstandingWork.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * getOutstandingWork method
+     *
+     * @return number of units of work that are still outstanding.
+     */
+    public long getOutstandingWork() {
+        return outstandingWork.get();
+    }
+
+    /**
+     * getCompletedWork method
+     *
+     * @return total number of units of work handled so far.
+     */
+    public long getCompletedWork() {
+        return completedWork.sum();
+    }
+
+    /**
+     * isFinished method
+     *
+     * @return true if the run has been declared finished.
+     */
+    public boolean isFinished() {
+        return finished.get();
+    }
+
+    /**
+     * awaitFinished method
+     *
+     * Block the calling thread until the run is finished or the timeout
+     * expires.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit unit of the timeout.
+     * @return true if the run is finished, false if the timeout expired.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public boolean awaitFinished(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return finishedLatch.await(timeout, unit);
+    }
+
+    /**
+     * finish method
+     *
+     * Declare the run finished. Only the first call does anything.
+     */
+    private void finish() {
+        if (finished.compareAndSet(false, true)) {
+            /* Run before the waiting threads are released, so they can
+            join the thread it starts */
+            if (onFinished != null) {
+                onFinished.run();
+            }
+            finishedLatch.countDown();
+        }
+    }
+}
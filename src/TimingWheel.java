@@ -0,0 +1,507 @@
+/**
+ * This class represents the shared timer scheduler of the Mobile Agent
+ * Simulation program. Instead of having every Node or Agent thread sleep
+ * while it waits for something to happen, delayed actions (such as
+ * instructing a neighbor to catch fire or making an agent take its next
+ * step) are registered here as timers. A single thread advances the wheel
+ * and fires the timers once their deadline is reached.
+ *
+ * The scheduler is a hierarchical hashed timing wheel: every level holds 64
+ * slots, each slot covering 64 times the span of a slot on the level below.
+ * Adding, cancelling and expiring a timer are all O(1), no matter how many
+ * timers are pending.
+ *
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+public class TimingWheel implements Runnable {
+
+    /* Number of bits used to index a slot in one level of the wheel */
+    private static final int SLOT_BITS = 6;
+    /* Number of slots in one level of the wheel */
+    private static final int SLOTS = 1 << SLOT_BITS;
+    /* Mask used to find the slot of a tick in one level of the wheel */
+    private static final int SLOT_MASK = SLOTS - 1;
+    /* Number of levels - 64^4 ticks, i.e. 46 hours with 10 ms ticks */
+    private static final int LEVELS = 4;
+
+    /* Duration of one tick of the wheel, in milliseconds */
+    private final long tickMillis;
+    /* Speed of the simulated clock compared to the wall clock */
+    private final double speed;
+    /* Slots of the wheel, indexed by level then by slot */
+    private final Slot[][] wheel;
+    /* Timers registered by other threads, not yet put in a slot */
+    private final ConcurrentLinkedQueue<Timeout> incoming;
+    /* Number of timers that have neither expired nor been cancelled */
+    private final AtomicInteger pendingTimers;
+    /* Tick the wheel is currently at - only written by the wheel thread */
+    private volatile long currentTick;
+    /* Wall clock time at which the wheel was started */
+    private long startNanos;
+    /* boolean indicating whether we can exit the wheel thread or not */
+    private volatile boolean exit;
+    /* Gate used to pause the simulation, null if it cannot be paused */
+    private PauseGate pauseGate;
+    /* Simulated time the wheel may not go past, null if unlimited */
+    private LongSupplier advanceLimit;
+
+    /**
+     * TimingWheel constructor
+     *
+     * This constructor sets up an empty wheel. Note that speed is the ratio
+     * between the simulated clock and the wall clock: 1 runs the
+     * simulation in real time, 10 runs it ten times faster.
+     *
+     * @param tickMillis duration of one tick of the wheel in milliseconds.
+     *                   Timers fire with this granularity.
+     * @param speed ratio between the simulated clock and the wall clock.
+     */
+    public TimingWheel(long tickMillis, double speed) {
+        if (tickMillis <= 0 || speed <= 0) {
+            throw new IllegalArgumentException("Tick duration and speed " +
+                    "must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.speed = speed;
+        /* Set up every slot of every level */
+        wheel = new Slot[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheel[level][slot] = new Slot();
+            }
+        }
+        incoming = new ConcurrentLinkedQueue<>();
+        pendingTimers = new AtomicInteger();
+        currentTick = 0;
+        exit = false;
+    }
+
+    /**
+     * schedule method
+     *
+     * Register a task to be run once the given delay of simulated time has
+     * passed. This method can be called by any thread. Note that the task
+     * will be run by the wheel thread, so it should only do short work such
+     * as putting a message on a blocking queue.
+     *
+     * @param task Runnable to run when the timer expires.
+     * @param delayMillis delay in simulated milliseconds.
+     * @return Timeout that can be used to cancel the timer.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        /* Round the deadline up so a timer never fires early */
+        long delayTicks = (Math.max(delayMillis, 0) + tickMillis - 1)
+                / tickMillis;
+        Timeout timeout = new Timeout(task, currentTick + Math.max(delayTicks,
+                1));
+        pendingTimers.incrementAndGet();
+        /* The wheel thread will place it in the right slot on its next tick */
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * getPendingTimers method
+     *
+     * @return number of timers that have not expired or been cancelled yet.
+     */
+    public int getPendingTimers() {
+        return pendingTimers.get();
+    }
+
+    /**
+     * currentTimeMillis method
+     *
+     * @return simulated time elapsed since the wheel started, in
+     * milliseconds.
+     */
+    public long currentTimeMillis() {
+        return currentTick * tickMillis;
+    }
+
+    /**
+     * tickMillis getter
+     * @return duration of one tick of the wheel in milliseconds.
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * speed getter
+     * @return ratio between the simulated clock and the wall clock.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * setPauseGate method
+     * <p>
+     * This method references the gate used to pause the simulation. While
+     * the simulation is paused the wheel stops ticking, and the simulated
+     * clock does not count the pause.
+     *
+     * @param pauseGate the shared pause gate
+     */
+    public void setPauseGate(PauseGate pauseGate) {
+        this.pauseGate = pauseGate;
+    }
+
+    /**
+     * setAdvanceLimit method
+     * <p>
+     * This method sets a bound on the simulated clock: the wheel never goes
+     * past the time returned by the given supplier, whatever the wall
+     * clock says. It is used to keep the partitions of a distributed run in
+     * step. Once the bound moves, the wheel catches up with the wall clock.
+     *
+     * @param advanceLimit supplier of the simulated time, in milliseconds,
+     *                     the wheel may not go past
+     */
+    public void setAdvanceLimit(LongSupplier advanceLimit) {
+        this.advanceLimit = advanceLimit;
+    }
+
+    /**
+     * setStartTime method
+     *
+     * Move the wheel to a given simulated time, used when a run is restored
+     * from a checkpoint. This must be called before the wheel thread starts
+     * and before any timer is scheduled.
+     *
+     * @param timeMillis simulated time to start at, in milliseconds.
+     */
+    public void setStartTime(long timeMillis) {
+        currentTick = timeMillis / tickMillis;
+    }
+
+    /**
+     * forEachPending method
+     *
+     * Hand every timer that has neither expired nor been cancelled to the
+     * given action. This must only be called while the simulation is
+     * paused, so the wheel thread does not touch the slots meanwhile.
+     *
+     * @param action what to do with each pending timer.
+     */
+    public void forEachPending(Consumer<Timeout> action) {
+        for (Timeout timeout : incoming) {
+            if (!timeout.isCancelled()) {
+                action.accept(timeout);
+            }
+        }
+        for (Slot[] level : wheel) {
+            for (Slot slot : level) {
+                for (Timeout t = slot.head; t != null; t = t.next) {
+                    if (!t.isCancelled()) {
+                        action.accept(t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * shutdown method
+     *
+     * Stop the wheel thread. Timers that have not expired yet are dropped.
+     */
+    public void shutdown() {
+        exit = true;
+    }
+
+    /**
+     * run method
+     *
+     * This method will be called when the wheel thread is started in
+     * Simulation.java. It keeps the wheel in step with the simulated
+     * clock: every tick, the newly registered timers are put in their slot,
+     * the upper levels are cascaded if needed, and the timers of the current
+     * slot are fired. This is the only thread in the simulation that sleeps.
+     */
+    @Override
+    public void run() {
+        /* A restored wheel does not start at tick 0 */
+        startNanos = System.nanoTime() - (long)
+                (currentTick * tickMillis * 1e6 / speed);
+        try {
+            while (!exit) {
+                /* Find the tick the simulated clock should be at */
+                double elapsedMillis =
+                        (System.nanoTime() - startNanos) / 1e6 * speed;
+                long targetTick = (long) (elapsedMillis / tickMillis);
+                boolean limited = false;
+                if (advanceLimit != null) {
+                    long limitTick = advanceLimit.getAsLong() / tickMillis;
+                    if (limitTick < targetTick) {
+                        targetTick = limitTick;
+                        limited = true;
+                    }
+                }
+                /*
+                 * Catch up with the clock, one tick at a time. The time
+                 * spent paused is not simulated time, so push the start
+                 * of the wheel back by as much.
+                 */
+                if (pauseGate != null) {
+                    startNanos += pauseGate.enter();
+                }
+                try {
+                    while (currentTick < targetTick && !exit) {
+                        transferIncoming();
+                        advance();
+                    }
+                    transferIncoming();
+                } finally {
+                    if (pauseGate != null) {
+                        pauseGate.exit();
+                    }
+                }
+                /* Held back by the limit, check it again shortly */
+                if (limited) {
+                    Thread.sleep(0, 100000);
+                    continue;
+                }
+                /* Wait until the next tick is due */
+                long nextTickNanos = startNanos + (long)
+                        ((currentTick + 1) * tickMillis * 1e6 / speed);
+                long waitNanos = nextTickNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1000000,
+                            (int) (waitNanos % 1000000));
+                }
+            }
+        } catch (InterruptedException e) {
+            System.out.print("Timing wheel thread was interrupted");
+        }
+    }
+
+    /**
+     * transferIncoming method
+     *
+     * Move the timers registered since the last tick into their slot.
+     */
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (!timeout.isCancelled()) {
+                place(timeout);
+            }
+        }
+    }
+
+    /**
+     * advance method
+     *
+     * Move the wheel forward by one tick. When the lowest level wraps
+     * around, the timers of the next slot of the level above are spread
+     * back over the lower levels (and so on up the hierarchy). Then every
+     * timer of the current slot is fired.
+     */
+    private void advance() {
+        long tick = ++currentTick;
+        /* Cascade the upper levels every time the level below wraps */
+        for (int level = 1; level < LEVELS; level++) {
+            if (((tick >> (SLOT_BITS * (level - 1))) & SLOT_MASK) != 0) {
+                break;
+            }
+            Slot slot = wheel[level][(int) ((tick >> (SLOT_BITS * level))
+                    & SLOT_MASK)];
+            Timeout timeout = slot.clear();
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.next = null;
+                timeout.prev = null;
+                place(timeout);
+                timeout = next;
+            }
+        }
+        /* Fire all the timers of the current slot */
+        Slot slot = wheel[0][(int) (tick & SLOT_MASK)];
+        Timeout timeout = slot.clear();
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            timeout.prev = null;
+            if (timeout.deadline <= tick) {
+                timeout.expire();
+            } else {
+                place(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * place method
+     *
+     * Put a timer in the slot matching its deadline. Timers that expire
+     * within 64 ticks go on the lowest level, timers that expire within
+     * 64^2 ticks go on the level above, and so on.
+     *
+     * @param timeout Timeout to place on the wheel.
+     */
+    private void place(Timeout timeout) {
+        long remaining = timeout.deadline - currentTick;
+        /* A timer that is already due fires on the next tick */
+        long deadline = remaining <= 0 ? currentTick + 1 : timeout.deadline;
+        remaining = deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1
+                && remaining >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        /* Deadlines beyond the top level wait in the last slot it covers */
+        if (remaining >= (1L << (SLOT_BITS * LEVELS))) {
+            deadline = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        }
+        int index = (int) ((deadline >> (SLOT_BITS * level)) & SLOT_MASK);
+        wheel[level][index].add(timeout);
+    }
+
+    /**
+     * This class represents a single slot of the wheel, a doubly linked
+     * list of timers. It is only ever touched by the wheel thread.
+     */
+    private static final class Slot {
+
+        /* First timer of the slot */
+        private Timeout head;
+        /* Last timer of the slot */
+        private Timeout tail;
+
+        /**
+         * add method
+         *
+         * Append a timer at the end of the slot.
+         *
+         * @param timeout Timeout to append.
+         */
+        private void add(Timeout timeout) {
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+            }
+            tail = timeout;
+        }
+
+        /**
+         * clear method
+         *
+         * Empty the slot.
+         *
+         * @return the first timer the slot held, linked to the others.
+         */
+        private Timeout clear() {
+            Timeout first = head;
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+
+    /**
+     * This class represents a single timer registered on the wheel. It is
+     * handed back by schedule so the caller can cancel it.
+     */
+    public final class Timeout {
+
+        /* Timer is waiting for its deadline */
+        private static final int WAITING = 0;
+        /* Timer was cancelled before its deadline */
+        private static final int CANCELLED = 1;
+        /* Timer has expired and its task was run */
+        private static final int EXPIRED = 2;
+
+        /* Task to run when the timer expires */
+        private final Runnable task;
+        /* Tick at which the timer expires */
+        private final long deadline;
+        /* Current state of the timer, see the constants above */
+        private final AtomicInteger state;
+        /* Neighbors of the timer in its slot */
+        private Timeout prev;
+        private Timeout next;
+
+        /**
+         * Timeout constructor
+         *
+         * @param task Runnable to run when the timer expires.
+         * @param deadline tick at which the timer expires.
+         */
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+            this.state = new AtomicInteger(WAITING);
+        }
+
+        /**
+         * cancel method
+         *
+         * Cancel the timer. The cancelled timer stays in its slot and is
+         * simply skipped when its deadline is reached.
+         *
+         * @return true if the timer was cancelled, false if it had already
+         * expired or been cancelled.
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                pendingTimers.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * isCancelled method
+         *
+         * @return true if the timer was cancelled.
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * task getter
+         * @return the task run when the timer expires.
+         */
+        public Runnable getTask() {
+            return task;
+        }
+
+        /**
+         * getRemainingMillis method
+         *
+         * @return simulated time left before the timer expires, in
+         * milliseconds.
+         */
+        public long getRemainingMillis() {
+            return Math.max(deadline - currentTick, 0) * tickMillis;
+        }
+
+        /**
+         * expire method
+         *
+         * Run the task of the timer, unless it was cancelled.
+         */
+        private void expire() {
+            if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            pendingTimers.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * This class represents a single event of a simulation trace: a node
+ * changing state, an agent appearing, moving or leaving a node, or a log
+ * entry reaching the base station. See TraceRecorder for how the events
+ * are written and TraceReader for how they are read back.
+ *
+ */
+
+public class TraceEvent {
+
+    /* A node changed state - node is the node, value is the state code */
+    public static final int STATE_CHANGE = 1;
+    /* An agent appeared on node (it was created there) */
+    public static final int AGENT_ON = 2;
+    /* An agent left node for good (it was killed) */
+    public static final int AGENT_OFF = 3;
+    /* An agent moved from node to the node in value */
+    public static final int AGENT_MOVE = 4;
+    /* A log entry reached the base station node - value is its priority */
+    public static final int STATION_LOG = 5;
+
+    /* States of a node, by code */
+    private static final String[] STATES = {"blue", "green", "yellow", "red"};
+
+    /* Kind of event, see the constants above */
+    public final int type;
+    /* Simulated time of the event, in milliseconds */
+    public final long time;
+    /* ID of the node the event happened on */
+    public final int node;
+    /* Extra value of the event, depends on its type */
+    public final int value;
+    /* Text of the log entry for STATION_LOG, null otherwise */
+    public final String text;
+
+    /**
+     * TraceEvent constructor
+     *
+     * @param type kind of event.
+     * @param time simulated time of the event in milliseconds.
+     * @param node ID of the node the event happened on.
+     * @param value extra value of the event.
+     * @param text text of the log entry, null if it is not a log entry.
+     */
+    public TraceEvent(int type, long time, int node, int value, String text) {
+        this.type = type;
+        this.time = time;
+        this.node = node;
+        this.value = value;
+        this.text = text;
+    }
+
+    /**
+     * stateCode method
+     *
+     * @param state state of a node (blue, green, yellow or red).
+     * @return the code of the state, as written in a trace.
+     */
+    public static int stateCode(String state) {
+        for (int i = 0; i < STATES.length; i++) {
+            if (STATES[i].equals(state)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * stateName method
+     *
+     * @param code code of a state, as written in a trace.
+     * @return the state (blue, green, yellow or red).
+     */
+    public static String stateName(int code) {
+        return code >= 0 && code < STATES.length ? STATES[code] : "blue";
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * This class reads back a trace file written by TraceRecorder. The chunk
+ * index at the end of the file is used to find chunks by time. If the file
+ * has no index (the recording was cut short), the index is rebuilt by
+ * walking over the chunk headers.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class TraceReader implements Closeable {
+
+    /* File the trace is read from */
+    private final RandomAccessFile file;
+    /* Number of nodes in the recorded graph */
+    private final int nodeCount;
+    /* Index of the chunks of the file */
+    private final List<Chunk> chunks;
+
+    /**
+     * TraceReader constructor
+     *
+     * Open a trace file and load its index.
+     *
+     * @param fileName name of the trace file.
+     * @throws IOException if the file cannot be read or is not a trace.
+     */
+    public TraceReader(String fileName) throws IOException {
+        file = new RandomAccessFile(fileName, "r");
+        if (file.readInt() != TraceRecorder.MAGIC) {
+            file.close();
+            throw new IOException(fileName + " is not a trace file");
+        }
+        if (file.readInt() != TraceRecorder.VERSION) {
+            file.close();
+            throw new IOException(fileName + " was written by an unknown " +
+                    "version");
+        }
+        nodeCount = file.readInt();
+        chunks = new ArrayList<>();
+        if (!readIndex()) {
+            scanChunks();
+        }
+    }
+
+    /**
+     * nodeCount getter
+     * @return number of nodes in the recorded graph.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * getChunkCount method
+     * @return number of chunks in the file.
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * isKeyframe method
+     * @param chunk position of the chunk in the index.
+     * @return true if the chunk is a keyframe.
+     */
+    public boolean isKeyframe(int chunk) {
+        return chunks.get(chunk).kind == TraceRecorder.KEYFRAME_CHUNK;
+    }
+
+    /**
+     * getEndTime method
+     * @return time of the last event of the trace, in milliseconds.
+     */
+    public long getEndTime() {
+        long end = 0;
+        for (Chunk c : chunks) {
+            end = Math.max(end, c.last);
+        }
+        return end;
+    }
+
+    /**
+     * findStartChunk method
+     *
+     * Find where to start reading to rebuild the state of the graph at a
+     * given time: the last keyframe before that time, found by binary
+     * search on the index.
+     *
+     * @param time simulated time in milliseconds.
+     * @return position of the keyframe in the index, or 0 to start from the
+     * beginning of the file.
+     */
+    public int findStartChunk(long time) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        int found = 0;
+        /* Chunks are in time order: find the last one starting before time */
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chunks.get(mid).first <= time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = found; i >= 0; i--) {
+            if (isKeyframe(i) && chunks.get(i).last <= time) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * readKeyframe method
+     *
+     * @param chunk position of a keyframe chunk in the index.
+     * @return the state code of every node, with TraceRecorder.AGENT_FLAG
+     * set when an agent is on the node.
+     * @throws IOException if the chunk cannot be read.
+     */
+    public byte[] readKeyframe(int chunk) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                readRaw(chunks.get(chunk))));
+        byte[] nodes = new byte[(int) VarInts.readUnsigned(in)];
+        in.readFully(nodes);
+        return nodes;
+    }
+
+    /**
+     * readEvents method
+     *
+     * @param chunk position of a data chunk in the index.
+     * @return the events of the chunk, in the order they were recorded.
+     * @throws IOException if the chunk cannot be read.
+     */
+    public List<TraceEvent> readEvents(int chunk) throws IOException {
+        Chunk c = chunks.get(chunk);
+        List<TraceEvent> events = new ArrayList<>(c.events);
+        if (c.kind != TraceRecorder.DATA_CHUNK) {
+            return events;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                readRaw(c)));
+        /* The first event of a chunk holds its time as a delta from 0 */
+        long time = 0;
+        for (int i = 0; i < c.events; i++) {
+            int type = in.readUnsignedByte();
+            time += VarInts.readSigned(in);
+            int node = (int) VarInts.readUnsigned(in);
+            int value = 0;
+            String text = null;
+            switch (type) {
+                case TraceEvent.STATE_CHANGE:
+                case TraceEvent.STATION_LOG:
+                    value = in.readUnsignedByte();
+                    if (type == TraceEvent.STATION_LOG) {
+                        byte[] bytes = new byte[(int) VarInts.readUnsigned(in)];
+                        in.readFully(bytes);
+                        text = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    break;
+                case TraceEvent.AGENT_MOVE:
+                    value = (int) VarInts.readUnsigned(in);
+                    break;
+                default:
+                    break;
+            }
+            events.add(new TraceEvent(type, time, node, value, text));
+        }
+        return events;
+    }
+
+    /**
+     * close method
+     *
+     * Close the trace file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * readRaw method
+     *
+     * Read and decompress a chunk.
+     */
+    private byte[] readRaw(Chunk c) throws IOException {
+        file.seek(c.offset + TraceRecorder.CHUNK_HEADER_SIZE);
+        byte[] compressed = new byte[c.compressedLength];
+        file.readFully(compressed);
+        byte[] raw = new byte[c.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                n += inflater.inflate(raw, n, raw.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted chunk at " + c.offset);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * readIndex method
+     *
+     * Load the index written at the end of the file.
+     *
+     * @return false if the file has no (valid) index.
+     */
+    private boolean readIndex() throws IOException {
+        long length = file.length();
+        if (length < TraceRecorder.HEADER_SIZE + TraceRecorder.FOOTER_SIZE) {
+            return false;
+        }
+        file.seek(length - TraceRecorder.FOOTER_SIZE);
+        long indexOffset = file.readLong();
+        int count = file.readInt();
+        if (file.readInt() != TraceRecorder.INDEX_MAGIC || indexOffset < 0
+                || indexOffset > length) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            file.seek(indexOffset + i * 25L);
+            long offset = file.readLong();
+            file.readByte();
+            chunks.add(readHeader(offset));
+        }
+        return true;
+    }
+
+    /**
+     * scanChunks method
+     *
+     * Rebuild the index by walking over the chunk headers, stopping at the
+     * first incomplete chunk.
+     */
+    private void scanChunks() throws IOException {
+        long offset = TraceRecorder.HEADER_SIZE;
+        long length = file.length();
+        try {
+            while (offset + TraceRecorder.CHUNK_HEADER_SIZE <= length) {
+                Chunk c = readHeader(offset);
+                if (c.kind != TraceRecorder.DATA_CHUNK
+                        && c.kind != TraceRecorder.KEYFRAME_CHUNK) {
+                    break;
+                }
+                long next = offset + TraceRecorder.CHUNK_HEADER_SIZE
+                        + c.compressedLength;
+                if (next > length) {
+                    break;
+                }
+                chunks.add(c);
+                offset = next;
+            }
+        } catch (EOFException e) {
+            /* Incomplete chunk, the recording was cut short */
+        }
+    }
+
+    /**
+     * readHeader method
+     *
+     * Read the header of the chunk at the given offset.
+     */
+    private Chunk readHeader(long offset) throws IOException {
+        file.seek(offset);
+        Chunk c = new Chunk();
+        c.offset = offset;
+        c.kind = file.readUnsignedByte();
+        c.rawLength = file.readInt();
+        c.compressedLength = file.readInt();
+        c.events = file.readInt();
+        c.first = file.readLong();
+        c.last = file.readLong();
+        return c;
+    }
+
+    /**
+     * This class holds the header of a single chunk of the file.
+     */
+    private static final class Chunk {
+        /* Position of the chunk in the file */
+        private long offset;
+        /* Data or keyframe chunk */
+        private int kind;
+        /* Size of the chunk before and after compression */
+        private int rawLength;
+        private int compressedLength;
+        /* Number of events in the chunk */
+        private int events;
+        /* Earliest and latest time of the events of the chunk */
+        private long first;
+        private long last;
+    }
+}
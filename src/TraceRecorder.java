@@ -0,0 +1,434 @@
+/**
+ * This class records every event of a simulation run (state changes,
+ * agent moves and log entries reaching the base station) to an append-only
+ * trace file, so the run can be replayed later without simulating it
+ * again. See TraceReplayer.
+ *
+ * The node and agent threads only put the events on a lock-free queue, a
+ * background thread does the encoding and the writing. The events are
+ * grouped in chunks of about 64 KB, compressed with Deflate. Inside a chunk,
+ * each event is a type byte followed by its time as a zig-zag varint delta
+ * from the previous event and the node IDs as varints. Every few chunks,
+ * every KEYFRAME_MILLIS of simulated time and at the end of the run, a
+ * keyframe chunk holding the state of every node is written, so a reader
+ * can seek to any time without decoding the whole file, however short the
+ * run. When the recorder is closed, an index of the chunks is appended at
+ * the end of the file.
+ *
+ * File layout:
+ * header   magic "FSTR", version, number of nodes
+ * chunk    kind, raw length, compressed length, event count, first time,
+ *          last time, compressed bytes
+ * ...
+ * index    for each chunk: offset, kind, first time, last time
+ * footer   index offset, number of chunks, magic "FSIX"
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+public class TraceRecorder implements Runnable {
+
+    /* First bytes of a trace file - "FSTR" */
+    static final int MAGIC = 0x46535452;
+    /* Last bytes of a complete trace file - "FSIX" */
+    static final int INDEX_MAGIC = 0x46534958;
+    /* Version of the file layout */
+    static final int VERSION = 1;
+    /* Size of the file header in bytes */
+    static final int HEADER_SIZE = 12;
+    /* Size of the header of a chunk in bytes */
+    static final int CHUNK_HEADER_SIZE = 29;
+    /* Size of the footer in bytes */
+    static final int FOOTER_SIZE = 16;
+    /* Chunk holding events */
+    static final int DATA_CHUNK = 0;
+    /* Chunk holding the state of every node */
+    static final int KEYFRAME_CHUNK = 1;
+    /* Flag set in a keyframe byte when an agent is on the node */
+    static final int AGENT_FLAG = 4;
+
+    /* Raw size above which a chunk is compressed and written */
+    private static final int CHUNK_BYTES = 64 * 1024;
+    /* Number of data chunks between two keyframes */
+    private static final int KEYFRAME_INTERVAL = 16;
+    /* Simulated ms between two keyframes, however few the events */
+    private static final long KEYFRAME_MILLIS = 10000;
+    /* Time the writer waits when it has nothing to write, in ns */
+    private static final long IDLE_NANOS = 5000000;
+
+    /* Events waiting to be written */
+    private final ConcurrentLinkedQueue<TraceEvent> queue;
+    /* Timing wheel giving the simulated time of the events */
+    private final TimingWheel timingWheel;
+    /* File the trace is written to */
+    private final FileOutputStream file;
+    /* Buffered stream on top of the file */
+    private final DataOutputStream out;
+    /* Number of bytes written to the file so far */
+    private long position;
+    /* Raw bytes of the current chunk */
+    private final ByteArrayOutputStream chunk;
+    /* Stream used to encode the events of the current chunk */
+    private final DataOutputStream chunkOut;
+    /* Number of events in the current chunk */
+    private int chunkEvents;
+    /* Earliest and latest time of the current chunk */
+    private long chunkFirst;
+    private long chunkLast;
+    /* Time of the previous event of the current chunk */
+    private long previousTime;
+    /* Compressor reused for every chunk */
+    private final Deflater deflater;
+    /* Data chunks written since the last keyframe */
+    private int chunksSinceKeyframe;
+    /* Latest simulated ms of the chunks written */
+    private long writtenTime;
+    /* Simulated ms of the last keyframe */
+    private long keyframeTime;
+    /* State and agent flag of every node, as of the last event written */
+    private final byte[] nodes;
+    /* Index of the chunks written: offset, kind, first and last time */
+    private final List<long[]> index;
+    /* Thread writing the events */
+    private final Thread writer;
+    /* boolean indicating whether the recorder was closed */
+    private volatile boolean closed;
+    /* Number of threads putting an event on the queue */
+    private final AtomicInteger recording;
+    /* boolean indicating whether every event is on the queue, once closed */
+    private volatile boolean complete;
+
+    /**
+     * TraceRecorder constructor
+     *
+     * Create the trace file and write its header. The writer thread is
+     * started right away.
+     *
+     * @param fileName name of the trace file.
+     * @param timingWheel the shared timing wheel.
+     * @param nodeCount number of nodes in the graph.
+     * @throws IOException if the file cannot be created.
+     */
+    public TraceRecorder(String fileName, TimingWheel timingWheel,
+                         int nodeCount) throws IOException {
+        this.timingWheel = timingWheel;
+        queue = new ConcurrentLinkedQueue<>();
+        file = new FileOutputStream(fileName);
+        out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        chunk = new ByteArrayOutputStream(CHUNK_BYTES + 1024);
+        chunkOut = new DataOutputStream(chunk);
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        nodes = new byte[nodeCount];
+        index = new ArrayList<>();
+        /* Write the header */
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(nodeCount);
+        position = HEADER_SIZE;
+        closed = false;
+        recording = new AtomicInteger();
+        writer = new Thread(this, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * stateChanged method
+     *
+     * Record the current state of a node.
+     *
+     * @param node Node whose state changed.
+     */
+    public void stateChanged(Node node) {
+        record(TraceEvent.STATE_CHANGE, node.getNodeId(),
+                TraceEvent.stateCode(node.getState()), null);
+    }
+
+    /**
+     * agentOn method
+     *
+     * Record a new agent on a node.
+     *
+     * @param node Node the agent was created on.
+     */
+    public void agentOn(Node node) {
+        record(TraceEvent.AGENT_ON, node.getNodeId(), 0, null);
+    }
+
+    /**
+     * agentOff method
+     *
+     * Record an agent leaving a node for good.
+     *
+     * @param node Node the agent was killed on.
+     */
+    public void agentOff(Node node) {
+        record(TraceEvent.AGENT_OFF, node.getNodeId(), 0, null);
+    }
+
+    /**
+     * agentMoved method
+     *
+     * Record an agent moving to an adjacent node.
+     *
+     * @param from Node the agent left.
+     * @param to Node the agent moved to.
+     */
+    public void agentMoved(Node from, Node to) {
+        record(TraceEvent.AGENT_MOVE, from.getNodeId(), to.getNodeId(), null);
+    }
+
+    /**
+     * stationLog method
+     *
+     * Record a log entry reaching a base station.
+     *
+     * @param station base station Node.
+     * @param message Message that reached the base station.
+     */
+    public void stationLog(Node station, Message message) {
+        record(TraceEvent.STATION_LOG, station.getNodeId(),
+                message.getPriority(), message.getText());
+    }
+
+    /**
+     * record method
+     *
+     * Put an event on the queue of the writer, stamped with the current
+     * simulated time. The thread is counted while it does, so close waits
+     * for the events recorded before it.
+     */
+    private void record(int type, int node, int value, String text) {
+        recording.incrementAndGet();
+        try {
+            if (!closed) {
+                queue.add(new TraceEvent(type,
+                        timingWheel.currentTimeMillis(), node, value, text));
+            }
+        } finally {
+            recording.decrementAndGet();
+        }
+    }
+
+    /**
+     * close method
+     *
+     * Write the events still on the queue, the index and the footer, and
+     * make sure everything reached the disk.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * writer thread.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        /* Let the threads that saw the recorder open put their event */
+        while (recording.get() > 0) {
+            Thread.yield();
+        }
+        complete = true;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    /**
+     * run method
+     *
+     * Body of the writer thread: encode the events as they come, write a
+     * chunk whenever it is full, and finish the file once the recorder is
+     * closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                boolean wasComplete = complete;
+                TraceEvent event;
+                boolean wrote = false;
+                while ((event = queue.poll()) != null) {
+                    encode(event);
+                    wrote = true;
+                    if (chunk.size() >= CHUNK_BYTES) {
+                        flushChunk();
+                    }
+                }
+                if (wasComplete) {
+                    break;
+                }
+                if (!wrote) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+            flushChunk();
+            if (chunksSinceKeyframe > 0) {
+                writeKeyframe();
+            }
+            writeIndex();
+            out.flush();
+            file.getChannel().force(true);
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error writing the trace file: " +
+                    e.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * encode method
+     *
+     * Add an event to the current chunk and update the state of the nodes
+     * used for the keyframes.
+     *
+     * @param event event to encode.
+     * @throws IOException never thrown by the in-memory stream.
+     */
+    private void encode(TraceEvent event) throws IOException {
+        /* Close the chunk with a keyframe if the last one is too old */
+        if (chunkEvents > 0 && event.time - keyframeTime >= KEYFRAME_MILLIS) {
+            flushChunk();
+            writeKeyframe();
+        }
+        /* The first event of a chunk holds its time as a delta from 0 */
+        if (chunkEvents == 0) {
+            chunkFirst = event.time;
+            chunkLast = event.time;
+            previousTime = 0;
+        }
+        chunkFirst = Math.min(chunkFirst, event.time);
+        chunkLast = Math.max(chunkLast, event.time);
+        chunkOut.writeByte(event.type);
+        VarInts.writeSigned(chunkOut, event.time - previousTime);
+        previousTime = event.time;
+        VarInts.writeUnsigned(chunkOut, event.node);
+        switch (event.type) {
+            case TraceEvent.STATE_CHANGE:
+                chunkOut.writeByte(event.value);
+                nodes[event.node] = (byte) ((nodes[event.node] & AGENT_FLAG)
+                        | event.value);
+                break;
+            case TraceEvent.AGENT_ON:
+                nodes[event.node] |= AGENT_FLAG;
+                break;
+            case TraceEvent.AGENT_OFF:
+                nodes[event.node] &= ~AGENT_FLAG;
+                break;
+            case TraceEvent.AGENT_MOVE:
+                VarInts.writeUnsigned(chunkOut, event.value);
+                nodes[event.node] &= ~AGENT_FLAG;
+                nodes[event.value] |= AGENT_FLAG;
+                break;
+            case TraceEvent.STATION_LOG:
+                chunkOut.writeByte(event.value);
+                byte[] text = event.text.getBytes(StandardCharsets.UTF_8);
+                VarInts.writeUnsigned(chunkOut, text.length);
+                chunkOut.write(text);
+                break;
+        }
+        chunkEvents++;
+    }
+
+    /**
+     * flushChunk method
+     *
+     * Compress and write the current chunk, followed by a keyframe every
+     * KEYFRAME_INTERVAL chunks.
+     *
+     * @throws IOException if the chunk cannot be written.
+     */
+    private void flushChunk() throws IOException {
+        if (chunkEvents == 0) {
+            return;
+        }
+        writeChunk(DATA_CHUNK, chunk.toByteArray(), chunkEvents, chunkFirst,
+                chunkLast);
+        writtenTime = Math.max(writtenTime, chunkLast);
+        chunk.reset();
+        chunkEvents = 0;
+        if (++chunksSinceKeyframe >= KEYFRAME_INTERVAL) {
+            writeKeyframe();
+        }
+    }
+
+    /**
+     * writeKeyframe method
+     *
+     * Write the state of every node as of the last chunk written.
+     *
+     * @throws IOException if the keyframe cannot be written.
+     */
+    private void writeKeyframe() throws IOException {
+        ByteArrayOutputStream keyframe = new ByteArrayOutputStream(
+                nodes.length + 8);
+        DataOutputStream keyframeOut = new DataOutputStream(keyframe);
+        VarInts.writeUnsigned(keyframeOut, nodes.length);
+        keyframeOut.write(nodes);
+        writeChunk(KEYFRAME_CHUNK, keyframe.toByteArray(), 0, writtenTime,
+                writtenTime);
+        keyframeTime = writtenTime;
+        chunksSinceKeyframe = 0;
+    }
+
+    /**
+     * writeChunk method
+     *
+     * Compress a chunk and write it with its header, then add it to the
+     * index.
+     *
+     * @throws IOException if the chunk cannot be written.
+     */
+    private void writeChunk(int kind, byte[] raw, int events, long first,
+                            long last) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+                raw.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            compressed.write(buffer, 0, n);
+        }
+        index.add(new long[]{position, kind, first, last});
+        out.writeByte(kind);
+        out.writeInt(raw.length);
+        out.writeInt(compressed.size());
+        out.writeInt(events);
+        out.writeLong(first);
+        out.writeLong(last);
+        compressed.writeTo(out);
+        position += CHUNK_HEADER_SIZE + compressed.size();
+    }
+
+    /**
+     * writeIndex method
+     *
+     * Append the index of the chunks and the footer.
+     *
+     * @throws IOException if the index cannot be written.
+     */
+    private void writeIndex() throws IOException {
+        long indexOffset = position;
+        for (long[] entry : index) {
+            out.writeLong(entry[0]);
+            out.writeByte((int) entry[1]);
+            out.writeLong(entry[2]);
+            out.writeLong(entry[3]);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(index.size());
+        out.writeInt(INDEX_MAGIC);
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * This class replays a trace recorded by TraceRecorder in the GUI. It does
+ * not simulate anything: it reads the recorded events and applies them to
+ * the nodes drawn by Display, at any speed. The replay can start at any
+ * time of the run: the state of the graph at that time is rebuilt from the
+ * closest keyframe of the trace.
+ *
+ */
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.util.List;
+
+public class TraceReplayer implements Runnable {
+
+    /* Minimum wall time between two repaints, in ns */
+    private static final long FRAME_NANOS = 16000000;
+
+    /* Reader of the trace file */
+    private final TraceReader reader;
+    /* Nodes of the graph, by ID */
+    private final Node[] nodes;
+    /* Instance of the GUI */
+    private final Display GUI;
+    /* Speed of the replay compared to the recorded run */
+    private final double speed;
+    /* Simulated time to start the replay at, in milliseconds */
+    private final long startTime;
+    /* boolean indicating whether the graph changed since the last repaint */
+    private boolean dirty;
+    /* Wall time of the last repaint */
+    private long lastRepaint;
+
+    /**
+     * TraceReplayer constructor
+     *
+     * @param reader reader of the trace file.
+     * @param nodes nodes of the graph, by ID. The graph must be the one the
+     *              trace was recorded on.
+     * @param GUI instance of the GUI.
+     * @param speed speed of the replay, 1 replays the run in real time.
+     * @param startTime simulated time to start the replay at, in ms.
+     */
+    public TraceReplayer(TraceReader reader, Node[] nodes, Display GUI,
+                         double speed, long startTime) {
+        if (reader.getNodeCount() != nodes.length) {
+            throw new IllegalArgumentException("The trace was recorded on a " +
+                    "graph of " + reader.getNodeCount() + " nodes, not " +
+                    nodes.length);
+        }
+        this.reader = reader;
+        this.nodes = nodes;
+        this.GUI = GUI;
+        this.speed = speed;
+        this.startTime = startTime;
+    }
+
+    /**
+     * run method
+     *
+     * Rebuild the state of the graph at the start time, then replay the
+     * following events, sleeping between them to keep the requested
+     * speed. The GUI is repainted at most once per frame.
+     */
+    @Override
+    public void run() {
+        try {
+            int chunk = reader.findStartChunk(startTime);
+            if (reader.isKeyframe(chunk)) {
+                applyKeyframe(reader.readKeyframe(chunk));
+                chunk++;
+            }
+            long wallStart = System.nanoTime();
+            for (; chunk < reader.getChunkCount(); chunk++) {
+                List<TraceEvent> events = reader.readEvents(chunk);
+                for (TraceEvent event : events) {
+                    /* Events before the start time are applied right away */
+                    if (event.time > startTime) {
+                        long due = wallStart + (long) ((event.time - startTime)
+                                * 1e6 / speed);
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            repaint(true);
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                        }
+                    }
+                    apply(event);
+                    repaint(false);
+                }
+            }
+            repaint(true);
+        } catch (IOException e) {
+            System.err.println("Error reading the trace file: " +
+                    e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.print("Replay thread was interrupted");
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * applyKeyframe method
+     *
+     * Set the state and agent of every node from a keyframe.
+     *
+     * @param keyframe state code and agent flag of every node.
+     */
+    private void applyKeyframe(byte[] keyframe) {
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setState(TraceEvent.stateName(keyframe[i] & 3));
+            nodes[i].setAgentOnNodeBoolean(
+                    (keyframe[i] & TraceRecorder.AGENT_FLAG) != 0);
+        }
+        GUI.allNodesChanged();
+        dirty = true;
+    }
+
+    /**
+     * apply method
+     *
+     * Apply a single event to the nodes (or to the log).
+     *
+     * @param event event to apply.
+     */
+    private void apply(TraceEvent event) {
+        switch (event.type) {
+            case TraceEvent.STATE_CHANGE:
+                nodes[event.node].setState(TraceEvent.stateName(event.value));
+                GUI.nodeChanged(nodes[event.node]);
+                break;
+            case TraceEvent.AGENT_ON:
+                nodes[event.node].setAgentOnNodeBoolean(true);
+                GUI.nodeChanged(nodes[event.node]);
+                break;
+            case TraceEvent.AGENT_OFF:
+                nodes[event.node].setAgentOnNodeBoolean(false);
+                GUI.nodeChanged(nodes[event.node]);
+                break;
+            case TraceEvent.AGENT_MOVE:
+                nodes[event.node].setAgentOnNodeBoolean(false);
+                nodes[event.value].setAgentOnNodeBoolean(true);
+                GUI.nodeChanged(nodes[event.node]);
+                GUI.nodeChanged(nodes[event.value]);
+                break;
+            case TraceEvent.STATION_LOG:
+                Message message = new Message(null, null, event.text,
+                        event.value);
+                Platform.runLater(() -> GUI.updateLog(message));
+                return;
+            default:
+                return;
+        }
+        dirty = true;
+    }
+
+    /**
+     * repaint method
+     *
+     * Ask the GUI to redraw the graph if it changed, at most once per frame
+     * unless forced.
+     *
+     * @param force true to repaint even if the last frame was too recent.
+     */
+    private void repaint(boolean force) {
+        long now = System.nanoTime();
+        if (!dirty || (!force && now - lastRepaint < FRAME_NANOS)) {
+            return;
+        }
+        dirty = false;
+        lastRepaint = now;
+        Platform.runLater(() -> {
+            try {
+                GUI.drawCircleOnCanvas();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
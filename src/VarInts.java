@@ -0,0 +1,82 @@
+/**
+ * This class holds the helpers used to write and read variable length
+ * integers in the binary files of the simulation. Small values take a
+ * single byte: 7 bits of the value per byte, the high bit telling whether
+ * another byte follows. Signed values are zig-zag encoded first so small
+ * negative values stay small too.
+ *
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public final class VarInts {
+
+    /**
+     * VarInts constructor
+     *
+     * This class only holds static helpers.
+     */
+    private VarInts() {
+    }
+
+    /**
+     * writeUnsigned method
+     *
+     * @param out where to write the value.
+     * @param value value to write, treated as unsigned.
+     * @throws IOException if the value cannot be written.
+     */
+    public static void writeUnsigned(DataOutput out, long value)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * writeSigned method
+     *
+     * @param out where to write the value.
+     * @param value value to write.
+     * @throws IOException if the value cannot be written.
+     */
+    public static void writeSigned(DataOutput out, long value)
+            throws IOException {
+        writeUnsigned(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * readUnsigned method
+     *
+     * @param in where to read the value from.
+     * @return the value read.
+     * @throws IOException if the value cannot be read or is malformed.
+     */
+    public static long readUnsigned(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /**
+     * readSigned method
+     *
+     * @param in where to read the value from.
+     * @return the value read.
+     * @throws IOException if the value cannot be read or is malformed.
+     */
+    public static long readSigned(DataInput in) throws IOException {
+        long value = readUnsigned(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
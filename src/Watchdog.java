@@ -0,0 +1,529 @@
+/**
+ * This class watches a run for lock-ups (--watchdog). A stuck run looks
+ * idle, every thread blocked in take() or waiting for a timer, so a thread
+ * of its own checks every few seconds of wall time that the run is still
+ * getting somewhere, using the progress counters of the nodes (messages
+ * taken from their queue) and of the agents (steps walked). It finds:
+ * - a deadlock: threads waiting for each other's locks,
+ * - a stall: a simulated clock that does not move (the timing wheel
+ *   blocked), nodes that took no message over a whole check although
+ *   messages wait in their queue, walking agents that took no step while
+ *   the simulated clock went on, or outstanding work that no thread and no
+ *   timer is left to do,
+ * - a livelock: messages handled check after check with no state change,
+ *   no log entry and no agent step, e.g. reports passed round in circles.
+ *
+ * On a finding it prints a compact diagnostic to the standard error: the
+ * hot nodes (stuck, holding a lock others wait for, or busiest since the
+ * last check) with the contents of their queue, the wait graph of the
+ * threads (which thread waits on what, held by whom) and the cycle the
+ * reports of the hot nodes follow, if any. A finding is only printed
+ * once, until the run moves on again. Checks are skipped while the run
+ * is paused, e.g. for a checkpoint.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class Watchdog implements Runnable {
+
+    /* Default wall seconds between two checks */
+    public static final double DEFAULT_INTERVAL = 10;
+    /* Number of hot nodes shown in a diagnostic */
+    private static final int HOT_NODES = 8;
+    /* Number of messages shown for the queue of a hot node */
+    private static final int SHOWN_MESSAGES = 4;
+    /* Number of edges of the wait graph shown in a diagnostic */
+    private static final int SHOWN_WAITS = 20;
+    /* Checks in a row with work and no progress to call it a livelock */
+    private static final int LIVELOCK_CHECKS = 3;
+    /* Simulated ms a walking agent may take for a step */
+    private static final long AGENT_STEP_MILLIS = 10000;
+    /* Messages the nodes must take in a check to count towards a livelock */
+    private static final long LIVELOCK_MESSAGES = 20;
+
+    /* Nodes run by this process */
+    private final Node[] nodes;
+    /* Node run by each thread, by thread ID */
+    private final Map<Long, Node> nodeOfThread;
+    /* Thread of each node, indexed like nodes */
+    private final long[] threadIds;
+    /* Index of each node in nodes */
+    private final Map<Node, Integer> indexOf;
+    /* Services of the run the progress is read from */
+    private final TimingWheel timingWheel;
+    private final TerminationDetector terminationDetector;
+    private final SimulationMetrics metrics;
+    private final StateIndex stateIndex;
+    private final PauseGate pauseGate;
+    /* Feed of sensor readings, null if the run has none */
+    private SensorFeed sensorFeed;
+    /* Wall ms between two checks */
+    private final long intervalMillis;
+    /* Locks and threads of the JVM */
+    private final ThreadMXBean threadBean;
+    /* Thread running the checks */
+    private final Thread checker;
+    /* Messages each node had taken and had waiting at the last check */
+    private final long[] lastHandled;
+    private final int[] lastDepth;
+    /* Steps and simulated time of the walking agents at their last step */
+    private final Map<Agent, long[]> lastSteps;
+    /* Simulated time, work done and progress made at the last check */
+    private long lastTime;
+    private long lastCompleted;
+    private long lastProgress;
+    /* Checks in a row with work done but no progress made */
+    private int idleChecks;
+    /* boolean indicating whether the current finding was printed */
+    private boolean reported;
+    /* boolean indicating whether the watchdog was closed */
+    private volatile boolean closed;
+
+    /**
+     * Watchdog constructor
+     *
+     * @param threads thread of each node run by this process.
+     * @param timingWheel the shared timing wheel.
+     * @param terminationDetector the termination detector of the run.
+     * @param metrics aggregate metrics of the run.
+     * @param stateIndex nodes of the run by state.
+     * @param pauseGate gate used to pause the run.
+     * @param intervalSeconds wall seconds between two checks.
+     */
+    public Watchdog(Map<Node, Thread> threads, TimingWheel timingWheel,
+                    TerminationDetector terminationDetector,
+                    SimulationMetrics metrics, StateIndex stateIndex,
+                    PauseGate pauseGate, double intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            throw new IllegalArgumentException("The watchdog interval must " +
+                    "be positive");
+        }
+        nodes = threads.keySet().toArray(new Node[0]);
+        Arrays.sort(nodes, (a, b) -> Integer.compare(a.getNodeId(),
+                b.getNodeId()));
+        threadIds = new long[nodes.length];
+        nodeOfThread = new HashMap<>();
+        indexOf = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.length; i++) {
+            indexOf.put(nodes[i], i);
+            threadIds[i] = threads.get(nodes[i]).getId();
+            nodeOfThread.put(threadIds[i], nodes[i]);
+        }
+        this.timingWheel = timingWheel;
+        this.terminationDetector = terminationDetector;
+        this.metrics = metrics;
+        this.stateIndex = stateIndex;
+        this.pauseGate = pauseGate;
+        intervalMillis = (long) (intervalSeconds * 1000);
+        threadBean = ManagementFactory.getThreadMXBean();
+        lastHandled = new long[nodes.length];
+        lastDepth = new int[nodes.length];
+        lastSteps = new IdentityHashMap<>();
+        checker = new Thread(this, "watchdog");
+        checker.setDaemon(true);
+    }
+
+    /**
+     * sensorFeed setter
+     * @param sensorFeed feed of sensor readings of the run, whose unit of
+     *                   work is not a stall while it waits for readings.
+     */
+    public void setSensorFeed(SensorFeed sensorFeed) {
+        this.sensorFeed = sensorFeed;
+    }
+
+    /**
+     * start method
+     *
+     * Start checking the run, from its current progress.
+     */
+    public void start() {
+        lastTime = timingWheel.currentTimeMillis();
+        lastCompleted = terminationDetector.getCompletedWork();
+        lastProgress = progress();
+        checker.start();
+    }
+
+    /**
+     * close method
+     *
+     * Stop checking, the run is over.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * checks to stop.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        checker.interrupt();
+        checker.join();
+    }
+
+    /**
+     * run method
+     *
+     * Body of the watchdog thread: check the run every interval until it
+     * is closed.
+     */
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!closed && !pauseGate.isPausing()) {
+                check();
+            }
+        }
+    }
+
+    /* Progress of the run: state changes, log entries and agent steps */
+    private long progress() {
+        long steps = 0;
+        for (Node n : nodes) {
+            Agent agent = n.getAgent();
+            if (agent != null) {
+                steps += agent.getSteps();
+            }
+        }
+        return stateIndex.getChanges() + metrics.getStationLatencyCount()
+                + steps;
+    }
+
+    /**
+     * check method
+     *
+     * Compare the progress of the run to the last check and print a
+     * diagnostic of the first problem found.
+     */
+    private void check() {
+        long now = timingWheel.currentTimeMillis();
+        long completed = terminationDetector.getCompletedWork();
+        long outstanding = terminationDetector.getOutstandingWork();
+        long progress = progress();
+        /* An open feed holds a unit of work while it waits for readings */
+        long held = sensorFeed != null && sensorFeed.isOpen() ? 1 : 0;
+        /* Messages taken by each node since the last check */
+        long[] handled = new long[nodes.length];
+        long taken = 0;
+        List<Node> stalled = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            long total = nodes[i].getHandledMessages();
+            int depth = nodes[i].getMailboxDepth();
+            handled[i] = total - lastHandled[i];
+            taken += handled[i];
+            /* Messages waited all along and none was taken */
+            if (handled[i] == 0 && lastDepth[i] > 0 && depth > 0) {
+                stalled.add(nodes[i]);
+            }
+            lastHandled[i] = total;
+            lastDepth[i] = depth;
+        }
+        List<Agent> stuckAgents = stuckAgents(now);
+        long[] deadlocked = threadBean.findDeadlockedThreads();
+        /* The clock must have had time for a couple of ticks at least */
+        boolean clockStopped = now == lastTime && intervalMillis
+                * timingWheel.getSpeed() >= 2 * timingWheel.getTickMillis();
+        if (taken >= LIVELOCK_MESSAGES && progress == lastProgress) {
+            idleChecks++;
+        } else {
+            idleChecks = 0;
+        }
+        String problem = null;
+        if (deadlocked != null) {
+            problem = "DEADLOCK: " + deadlocked.length + " threads wait " +
+                    "for each other's locks";
+        } else if (clockStopped) {
+            problem = "STALL: the simulated clock did not move in " +
+                    intervalMillis / 1000.0 + " s, " +
+                    timingWheel.getPendingTimers() + " timers pending";
+        } else if (!stalled.isEmpty()) {
+            problem = "STALL: " + stalled.size() + " nodes took no message " +
+                    "in " + intervalMillis / 1000.0 + " s although messages " +
+                    "wait in their queue";
+        } else if (outstanding > held && completed == lastCompleted
+                && timingWheel.getPendingTimers() == 0) {
+            problem = "STALL: " + outstanding + " units of work outstanding " +
+                    "but no thread or timer left to do them";
+        } else if (!stuckAgents.isEmpty()) {
+            problem = "STALL: " + stuckAgents.size() + " walking agents " +
+                    "took no step in " + AGENT_STEP_MILLIS / 1000.0 +
+                    " s of simulated time";
+        } else if (idleChecks >= LIVELOCK_CHECKS) {
+            problem = "LIVELOCK: " + taken + " messages taken by the " +
+                    "nodes in the last " +
+                    intervalMillis / 1000.0 + " s with no state change, " +
+                    "log entry or agent step for " + idleChecks + " checks";
+        }
+        if (problem == null) {
+            reported = false;
+        } else if (!reported) {
+            reported = true;
+            System.err.print(diagnose(problem, now, completed, outstanding,
+                    handled, stalled, stuckAgents, deadlocked));
+        }
+        lastTime = now;
+        lastCompleted = completed;
+        lastProgress = progress;
+    }
+
+    /**
+     * stuckAgents method
+     *
+     * @param now current simulated time in ms.
+     * @return the walking agents that took no step for AGENT_STEP_MILLIS.
+     */
+    private List<Agent> stuckAgents(long now) {
+        List<Agent> stuck = new ArrayList<>();
+        Map<Agent, long[]> walking = new IdentityHashMap<>();
+        for (Node n : nodes) {
+            Agent agent = n.getAgent();
+            if (agent == null || !agent.isWalking()) {
+                continue;
+            }
+            long[] last = lastSteps.get(agent);
+            if (last == null || last[0] != agent.getSteps()) {
+                last = new long[]{agent.getSteps(), now};
+            } else if (now - last[1] > AGENT_STEP_MILLIS) {
+                stuck.add(agent);
+            }
+            walking.put(agent, last);
+        }
+        lastSteps.clear();
+        lastSteps.putAll(walking);
+        return stuck;
+    }
+
+    /**
+     * diagnose method
+     *
+     * @return the diagnostic of a problem: what was found, the hot nodes and
+     * their queue, the wait graph of the node threads and the cycle the
+     * reports of the hot nodes follow.
+     */
+    private String diagnose(String problem, long now, long completed,
+                            long outstanding, long[] handled,
+                            List<Node> stalled, List<Agent> stuckAgents,
+                            long[] deadlocked) {
+        StringBuilder out = new StringBuilder();
+        out.append("[watchdog t=").append(now / 1000.0).append("s] ")
+                .append(problem).append('\n');
+        out.append("  progress: work done ").append(completed).append(" (+")
+                .append(completed - lastCompleted).append("), outstanding ")
+                .append(outstanding).append(", timers ")
+                .append(timingWheel.getPendingTimers())
+                .append(", state changes ").append(stateIndex.getChanges())
+                .append(", log entries ")
+                .append(metrics.getStationLatencyCount()).append(", states ")
+                .append(stateIndex.getCounts()).append('\n');
+        /* Every thread of the JVM, to name the owners of the locks */
+        Map<Long, ThreadInfo> infos = new HashMap<>();
+        for (ThreadInfo info : threadBean.dumpAllThreads(false, false)) {
+            infos.put(info.getThreadId(), info);
+        }
+        Set<Node> hot = hotNodes(handled, stalled, stuckAgents, deadlocked,
+                infos.values());
+        out.append("  hot nodes:\n");
+        for (Node n : hot) {
+            int i = indexOf.get(n);
+            ThreadInfo info = infos.get(threadIds[i]);
+            Agent agent = n.getAgent();
+            out.append("    ").append(name(n)).append(' ')
+                    .append(n.getState()).append(", +").append(handled[i])
+                    .append(" messages, agent ").append(agent == null
+                            ? "none" : agent.agentID + " (" +
+                            agent.getSteps() + " steps)").append(", thread ");
+            if (info == null) {
+                out.append("gone");
+            } else {
+                out.append(info.getThreadState());
+                if (info.getLockName() != null) {
+                    out.append(" on ").append(info.getLockName());
+                }
+            }
+            out.append('\n');
+            out.append("      queue: ").append(queue(n)).append('\n');
+        }
+        out.append("  wait graph:\n");
+        out.append(waitGraph(infos.values(), stalled));
+        out.append("  report cycle: ").append(cycle(hot)).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * hotNodes method
+     *
+     * @return the nodes to show in a diagnostic: the stuck ones and those
+     * holding a lock another thread waits for first, then the busiest and
+     * the most loaded since the last check.
+     */
+    private Set<Node> hotNodes(long[] handled, List<Node> stalled,
+                               List<Agent> stuckAgents, long[] deadlocked,
+                               Collection<ThreadInfo> threads) {
+        Set<Node> hot = new LinkedHashSet<>(stalled);
+        for (ThreadInfo info : threads) {
+            Node owner = nodeOfThread.get(info.getLockOwnerId());
+            if (owner != null) {
+                hot.add(owner);
+            }
+        }
+        for (Agent agent : stuckAgents) {
+            hot.add(agent.getNode());
+        }
+        if (deadlocked != null) {
+            for (long id : deadlocked) {
+                Node n = nodeOfThread.get(id);
+                if (n != null) {
+                    hot.add(n);
+                }
+            }
+        }
+        Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> handled[a] != handled[b]
+                ? Long.compare(handled[b], handled[a])
+                : Integer.compare(nodes[b].getMailboxDepth(),
+                nodes[a].getMailboxDepth()));
+        for (int i = 0; i < order.length && hot.size() < HOT_NODES; i++) {
+            if (handled[order[i]] > 0
+                    || nodes[order[i]].getMailboxDepth() > 0) {
+                hot.add(nodes[order[i]]);
+            }
+        }
+        /* Only so many, even if more are stuck */
+        Set<Node> shown = new LinkedHashSet<>();
+        for (Node n : hot) {
+            if (shown.size() < HOT_NODES) {
+                shown.add(n);
+            }
+        }
+        return shown;
+    }
+
+    /* Messages in the queue of a node by type, and the first few of them */
+    private static String queue(Node n) {
+        List<Message> messages = n.getMailboxSnapshot();
+        if (messages.isEmpty()) {
+            return "empty";
+        }
+        Map<MessageType, Integer> types = new TreeMap<>();
+        for (Message m : messages) {
+            types.merge(MessageType.of(m), 1, Integer::sum);
+        }
+        StringBuilder text = new StringBuilder(messages.size() + " ")
+                .append(types).append(':');
+        for (int i = 0; i < Math.min(SHOWN_MESSAGES, messages.size()); i++) {
+            Message m = messages.get(i);
+            text.append(' ').append(m.getCode());
+            if (m.getSourceHeader() != null) {
+                text.append(" from (").append(m.getSourceHeader().x)
+                        .append(", ").append(m.getSourceHeader().y)
+                        .append(')');
+            }
+            text.append(';');
+        }
+        if (messages.size() > SHOWN_MESSAGES) {
+            text.append(" ...");
+        }
+        return text.toString();
+    }
+
+    /**
+     * waitGraph method
+     *
+     * @param threads every thread of the JVM.
+     * @param stalled nodes that took no message although some are waiting.
+     * @return one line per thread waiting on a lock held by another thread,
+     * and per stalled node parked on its own queue.
+     */
+    private String waitGraph(Collection<ThreadInfo> threads,
+                             Collection<Node> stalled) {
+        List<String> edges = new ArrayList<>();
+        for (ThreadInfo info : threads) {
+            if (info.getLockName() == null) {
+                continue;
+            }
+            Node waiter = nodeOfThread.get(info.getThreadId());
+            String name = waiter != null ? name(waiter)
+                    : info.getThreadName();
+            if (info.getLockOwnerId() >= 0) {
+                Node owner = nodeOfThread.get(info.getLockOwnerId());
+                edges.add(name + " -> " + (owner != null ? name(owner)
+                        : info.getLockOwnerName()) + " (" +
+                        info.getThreadState() + " on " + info.getLockName() +
+                        ")");
+            } else if (waiter != null && stalled.contains(waiter)) {
+                /* Nobody holds what it waits for: a wake-up went missing */
+                edges.add(name + " -> nobody (" + info.getThreadState() +
+                        " on " + info.getLockName() + " with " +
+                        waiter.getMailboxDepth() + " messages waiting)");
+            }
+        }
+        if (edges.isEmpty()) {
+            return "    no thread waits on a lock held by another\n";
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Math.min(SHOWN_WAITS, edges.size()); i++) {
+            text.append("    ").append(edges.get(i)).append('\n');
+        }
+        if (edges.size() > SHOWN_WAITS) {
+            text.append("    and ").append(edges.size() - SHOWN_WAITS)
+                    .append(" more\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * cycle method
+     *
+     * Follow, from each hot node, the neighbor it last passed a report on
+     * to until a node repeats.
+     *
+     * @param hot the hot nodes.
+     * @return the first cycle found, or "none".
+     */
+    private static String cycle(Collection<Node> hot) {
+        for (Node start : hot) {
+            Map<Node, Integer> seen = new LinkedHashMap<>();
+            Node n = start;
+            while (n != null && !seen.containsKey(n)) {
+                seen.put(n, seen.size());
+                n = n.getLastHop();
+            }
+            if (n != null) {
+                StringBuilder text = new StringBuilder();
+                int from = seen.get(n);
+                for (Node m : seen.keySet()) {
+                    if (seen.get(m) >= from) {
+                        text.append(name(m)).append(" -> ");
+                    }
+                }
+                return text.append(name(n)).toString();
+            }
+        }
+        return "none";
+    }
+
+    /* Location of a node, e.g. (3, 1) */
+    private static String name(Node n) {
+        return "(" + n.getNodeLocation().x + ", " + n.getNodeLocation().y +
+                ")";
+    }
+}